@@ -0,0 +1,27 @@
+package com.hiflite.benchmarks;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The models run on the common fork-join pool, which reads its size once. Every JMH fork is a fresh JVM,
+ * so a benchmark can size it in its trial setup as long as nothing has touched the pool yet.
+ */
+public final class CommonPool {
+
+    private static final String PARALLELISM_PROPERTY = "java.util.concurrent.ForkJoinPool.common.parallelism";
+
+    private CommonPool() {
+    }
+
+    /** Sizes the common pool; {@code threads <= 0} leaves the JVM default. */
+    public static void size(int threads) {
+        if (threads <= 0) {
+            return;
+        }
+        System.setProperty(PARALLELISM_PROPERTY, Integer.toString(threads));
+        if (ForkJoinPool.getCommonPoolParallelism() != threads) {
+            throw new IllegalStateException("common pool already started with parallelism "
+                    + ForkJoinPool.getCommonPoolParallelism() + ", wanted " + threads);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.hiflite.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Paths simulated per benchmark call; in throughput mode JMH reports it as paths/second next to calls/second.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class PathCounter {
+
+    public long paths;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        paths = 0;
+    }
+}
@@ -0,0 +1,152 @@
+package com.hiflite.engine;
+
+import com.hiflite.benchmarks.PathCounter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The engine pieces behind every risk estimate, at any path count, horizon and thread count:
+ * one replay of the bank per call, exactly as calculatePoS / estimateRisk do it.
+ * {@code threads = 0} means one per available processor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class KernelBenchmark {
+
+    private static final long SEED = 42;
+    private static final double PORTFOLIO = 1_500_000;
+    private static final double SPENDING = 57_700;         // about 85% PoS over 30 years
+
+    // the grok model's asset mode: inflation, stocks, bonds and cash drawn correlated, 60/30/10 held from series 2
+    private static final double[][] ASSET_CORRELATION = {
+            {1.0, -0.10, -0.30, -0.40},
+            {-0.10, 1.0, 0.10, 0.00},
+            {-0.30, 0.10, 1.0, 0.30},
+            {-0.40, 0.00, 0.30, 1.0}};
+    private static final Allocation ALLOCATION = Allocation.of(new int[] {2, 3, 4}, new double[] {0.6, 0.3, 0.1});
+
+    @Param({"16384", "131072"})
+    public int paths;
+
+    @Param({"30", "60"})
+    public int horizon;
+
+    @Param({"1", "0"})
+    public int threads;
+
+    private ForkJoinPool pool;
+    private MonteCarloEngine engine;
+    private ScenarioBank lognormalBank;
+    private ScenarioBank normalBank;
+    private ScenarioBank assetBank;
+    private LognormalPathKernel lognormalKernel;
+    private BatchKernel withdrawFirstKernel;
+    private double[] ratios;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pool = new ForkJoinPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+        engine = new MonteCarloEngine(SEED, pool);
+        lognormalBank = ScenarioBank.generate(engine, paths, horizon,
+                ScenarioBank.Series.lognormal(0.039, 0.1089), ScenarioBank.Series.normal(0.025, 0.015));
+        normalBank = ScenarioBank.generate(engine, paths, horizon, ScenarioBank.Series.normal(0.039, 0.1089));
+        assetBank = drawAssetBank();
+        lognormalKernel = LognormalPathKernel.select();
+
+        double[] multipliers = new double[horizon];
+        for (int t = 0; t < horizon; t++) {
+            multipliers[t] = t < 10 ? 1.25 : 1.0;
+        }
+        withdrawFirstKernel = BatchKernel.of(BatchKernel.Order.WITHDRAW_THEN_GROW, (series, cell) -> 1 + series[0][cell],
+                BatchKernel.SpendingRule.indexed(multipliers, 1.0), BatchKernel.IncomeSchedule.NONE);
+        ratios = new double[paths];
+    }
+
+    private ScenarioBank drawAssetBank() {
+        return ScenarioBank.generate(engine, paths, horizon, ASSET_CORRELATION, ScenarioBank.Series.portfolio(ALLOCATION),
+                ScenarioBank.Series.normal(0.025, 0.015), ScenarioBank.Series.lognormal(0.05, 0.17),
+                ScenarioBank.Series.lognormal(0.015, 0.07), ScenarioBank.Series.normal(0.003, 0.01));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    /** The calculatePoS inner loop (inflation-indexed, scalar or SIMD per -Dhiflite.kernel). */
+    @Benchmark
+    public PosEstimate inflationIndexedPoS(PathCounter counter) {
+        double[][] series = lognormalBank.allSeries();
+        PosEstimate estimate = lognormalBank.estimate(engine, (from, to) -> lognormalKernel.survivors(series,
+                paths, horizon, from, to, PORTFOLIO, SPENDING));
+        counter.paths += paths;
+        return estimate;
+    }
+
+    /** calculatePoS in asset mode: the same loop on the rebalanced portfolio's return series. */
+    @Benchmark
+    public PosEstimate portfolioPoS(PathCounter counter) {
+        double[][] series = assetBank.allSeries();
+        PosEstimate estimate = assetBank.estimate(engine, (from, to) -> lognormalKernel.survivors(series,
+                paths, horizon, from, to, PORTFOLIO, SPENDING));
+        counter.paths += paths;
+        return estimate;
+    }
+
+    /** The gemini estimateRisk inner loop (withdraw first, go-go multipliers, compaction). */
+    @Benchmark
+    public PosEstimate withdrawFirstRisk(PathCounter counter) {
+        double[][] series = normalBank.allSeries();
+        PosEstimate estimate = normalBank.estimate(engine, (from, to) -> withdrawFirstKernel.survivors(series,
+                paths, 0, horizon, from, to, PORTFOLIO, SPENDING, 1.0));
+        counter.paths += paths;
+        return estimate.complement();
+    }
+
+    /** One pass of per-path critical spending ratios, which the pathwise solvers sort into a PosCurve. */
+    @Benchmark
+    public double[] criticalRatios(PathCounter counter) {
+        double[][] series = lognormalBank.allSeries();
+        engine.sum(paths, (from, to) -> {
+            lognormalKernel.criticalRatios(series, paths, horizon, from, to, ratios);
+            return 0;
+        });
+        counter.paths += paths;
+        return ratios;
+    }
+
+    /** Filling a two-series bank: ziggurat draws plus the lognormal transform. */
+    @Benchmark
+    public ScenarioBank generateBank(PathCounter counter) {
+        ScenarioBank bank = ScenarioBank.generate(engine, paths, horizon,
+                ScenarioBank.Series.lognormal(0.039, 0.1089), ScenarioBank.Series.normal(0.025, 0.015));
+        counter.paths += paths;
+        return bank;
+    }
+
+    /** Filling the asset-mode bank: four correlated series plus the portfolio's return. */
+    @Benchmark
+    public ScenarioBank generateAssetBank(PathCounter counter) {
+        ScenarioBank bank = drawAssetBank();
+        counter.paths += paths;
+        return bank;
+    }
+}
@@ -0,0 +1,107 @@
+package com.hiflite.modernguardrailsmodel_gemini;
+
+import com.hiflite.benchmarks.CommonPool;
+import com.hiflite.benchmarks.PathCounter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IncomeLabProModel.estimateRisk, ModernGuardrailsWithTweaks.estimateRealRisk and their bisection solvers.
+ * Path count and horizon reach the models through -Dhiflite.paths / -Dhiflite.years, set before the model
+ * classes load; threads size the common pool they run on (0 = JVM default).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class GeminiModelsBenchmark {
+
+    private static final double PORTFOLIO = 1_500_000;
+    private static final double TARGET_RISK = 0.15;
+
+    @Param({"100000"})
+    public int paths;
+
+    @Param({"30"})
+    public int horizon;
+
+    @Param({"1", "0"})
+    public int threads;
+
+    /**
+     * Solver benchmarks take this so every invocation solves cold: the models keep earlier roots as warm starts,
+     * and the same input solved again would start at its answer.
+     */
+    @State(Scope.Benchmark)
+    public static class ColdSolvers {
+        @Setup(Level.Invocation)
+        public void forgetSolved() {
+            IncomeLabProModel.solver().forgetSolved();
+            ModernGuardrailsWithTweaks.solver().forgetSolved();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        System.setProperty("hiflite.paths", Integer.toString(paths));
+        System.setProperty("hiflite.years", Integer.toString(horizon));
+        CommonPool.size(threads);
+        // draw both banks outside the measurement
+        IncomeLabProModel.scenarioBank();
+        ModernGuardrailsWithTweaks.scenarioBank();
+    }
+
+    @Benchmark
+    public double incomeLabProEstimateRisk(PathCounter counter) {
+        long before = IncomeLabProModel.pathsSimulated;
+        double risk = IncomeLabProModel.estimateRisk(PORTFOLIO, 140_000, 0);
+        counter.paths += IncomeLabProModel.pathsSimulated - before;
+        return risk;
+    }
+
+    @Benchmark
+    public double incomeLabProSolveIncome(PathCounter counter, ColdSolvers cold) {
+        long before = IncomeLabProModel.pathsSimulated;
+        double income = IncomeLabProModel.solveForRealIncome(PORTFOLIO, TARGET_RISK, 0);
+        counter.paths += IncomeLabProModel.pathsSimulated - before;
+        return income;
+    }
+
+    @Benchmark
+    public double tweaksEstimateRealRisk(PathCounter counter) {
+        long before = ModernGuardrailsWithTweaks.pathsSimulated;
+        double risk = ModernGuardrailsWithTweaks.estimateRealRisk(PORTFOLIO, 50_000, 0);
+        counter.paths += ModernGuardrailsWithTweaks.pathsSimulated - before;
+        return risk;
+    }
+
+    @Benchmark
+    public double tweaksSolveIncome(PathCounter counter, ColdSolvers cold) {
+        long before = ModernGuardrailsWithTweaks.pathsSimulated;
+        double income = ModernGuardrailsWithTweaks.solveForRealIncome(PORTFOLIO, TARGET_RISK, 0);
+        counter.paths += ModernGuardrailsWithTweaks.pathsSimulated - before;
+        return income;
+    }
+
+    @Benchmark
+    public double tweaksSolvePortfolio(PathCounter counter, ColdSolvers cold) {
+        long before = ModernGuardrailsWithTweaks.pathsSimulated;
+        double portfolio = ModernGuardrailsWithTweaks.solveForPortfolioAtRisk(50_000, 0.20, 0);
+        counter.paths += ModernGuardrailsWithTweaks.pathsSimulated - before;
+        return portfolio;
+    }
+}
@@ -0,0 +1,100 @@
+package com.hiflite.riskbasedguardrails_grok;
+
+import com.hiflite.benchmarks.CommonPool;
+import com.hiflite.benchmarks.PathCounter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * calculatePoS and the guardrail solvers of RiskBasedGuardrailsWithInflation. Path count and horizon reach
+ * the model through -Dhiflite.paths / -Dhiflite.years, set before the model class loads; threads size the
+ * common pool it runs on (0 = JVM default).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class RiskBasedGuardrailsBenchmark {
+
+    private static final double PORTFOLIO = 1_500_000;
+
+    @Param({"100000"})
+    public int paths;
+
+    @Param({"30"})
+    public int horizon;
+
+    @Param({"1", "0"})
+    public int threads;
+
+    private double spending;
+
+    /** Solver benchmarks take this so every invocation solves cold, not warm-started at the previous root. */
+    @State(Scope.Benchmark)
+    public static class ColdSolver {
+        @Setup(Level.Invocation)
+        public void forgetSolved() {
+            RiskBasedGuardrailsWithInflation.solver().forgetSolved();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        System.setProperty("hiflite.paths", Integer.toString(paths));
+        System.setProperty("hiflite.years", Integer.toString(horizon));
+        CommonPool.size(threads);
+        // draws the bank and builds the PoS curve outside the measurement
+        spending = RiskBasedGuardrailsWithInflation.posCurve().spendingForPoS(PORTFOLIO, RiskBasedGuardrailsWithInflation.TARGET_POS);
+    }
+
+    @Benchmark
+    public double calculatePoS(PathCounter counter) {
+        long before = RiskBasedGuardrailsWithInflation.pathsSimulated;
+        double pos = RiskBasedGuardrailsWithInflation.calculatePoS(PORTFOLIO, spending);
+        counter.paths += RiskBasedGuardrailsWithInflation.pathsSimulated - before;
+        return pos;
+    }
+
+    /**
+     * The BISECTION solver as GuardrailSolver is configured: the RootFinder search with early-stopped probes, or the
+     * original 50 halvings without ADAPTIVE. Each invocation starts without the warm start an earlier one would give.
+     */
+    @Benchmark
+    public double bisectSpending(PathCounter counter, ColdSolver cold) {
+        long before = RiskBasedGuardrailsWithInflation.pathsSimulated;
+        double result = RiskBasedGuardrailsWithInflation.bisectRealSpendingForPoS(PORTFOLIO, RiskBasedGuardrailsWithInflation.TARGET_POS);
+        counter.paths += RiskBasedGuardrailsWithInflation.pathsSimulated - before;
+        return result;
+    }
+
+    @Benchmark
+    public double bisectPortfolio(PathCounter counter, ColdSolver cold) {
+        long before = RiskBasedGuardrailsWithInflation.pathsSimulated;
+        double result = RiskBasedGuardrailsWithInflation.bisectPortfolioForPoS(spending, RiskBasedGuardrailsWithInflation.UPPER_POS);
+        counter.paths += RiskBasedGuardrailsWithInflation.pathsSimulated - before;
+        return result;
+    }
+
+    /** Rebuilding the pathwise PoS curve from scratch: one critical-ratio pass plus a sort. */
+    @Benchmark
+    public double[] criticalSpendingRatios(PathCounter counter) {
+        long before = RiskBasedGuardrailsWithInflation.pathsSimulated;
+        double[] ratios = RiskBasedGuardrailsWithInflation.criticalSpendingRatios();
+        counter.paths += RiskBasedGuardrailsWithInflation.pathsSimulated - before;
+        return ratios;
+    }
+}
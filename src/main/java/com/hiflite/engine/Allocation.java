@@ -0,0 +1,152 @@
+package com.hiflite.engine;
+
+import java.util.Arrays;
+
+/**
+ * A portfolio of several assets: which bank series holds each asset's real return, the target weights and how the
+ * holdings are rebalanced. Withdrawals are always taken pro rata, which leaves the weights to drift with the returns
+ * alone, so the whole portfolio is one bank series ({@link ScenarioBank.Series#portfolio}) and every single-balance
+ * kernel, critical ratios and monthly steps included, runs on it exactly and at single-asset speed.
+ * <p>
+ * The assets are usually drawn correlated with each other and with inflation
+ * ({@link ScenarioBank#generate(MonteCarloEngine, int, int, double[][], ScenarioBank.Series...)}).
+ * <p>
+ * Immutable; the {@code with...} methods return a changed copy.
+ */
+public final class Allocation {
+
+    /** When holdings go back to the target weights, always at the end of a model year. */
+    public enum Rebalancing {
+        /** every year */
+        ANNUAL,
+        /** when some asset's weight has drifted more than the band from its target */
+        BAND,
+        /** never: every asset grows on its own */
+        NEVER
+    }
+
+    private final int[] assetSeries;
+    private final double[] weights;
+    private final Rebalancing rebalancing;
+    private final double band;
+
+    private Allocation(int[] assetSeries, double[] weights, Rebalancing rebalancing, double band) {
+        this.assetSeries = assetSeries;
+        this.weights = weights;
+        this.rebalancing = rebalancing;
+        this.band = band;
+    }
+
+    /**
+     * Asset i's real return is bank series {@code assetSeries[i]}, with target weight {@code weights[i]}; the
+     * weights must be non-negative and add up to 1. Rebalanced every year.
+     */
+    public static Allocation of(int[] assetSeries, double[] weights) {
+        if (assetSeries.length == 0 || assetSeries.length != weights.length) {
+            throw new IllegalArgumentException(assetSeries.length + " assets with " + weights.length + " weights");
+        }
+        double total = 0;
+        for (double weight : weights) {
+            if (!(weight >= 0)) {
+                throw new IllegalArgumentException("negative weight in " + Arrays.toString(weights));
+            }
+            total += weight;
+        }
+        if (Math.abs(total - 1) > 1e-9) {
+            throw new IllegalArgumentException("weights add up to " + total + ", not 1: " + Arrays.toString(weights));
+        }
+        return new Allocation(assetSeries.clone(), weights.clone(), Rebalancing.ANNUAL, 0);
+    }
+
+    /** Rebalance every year or never; {@link #withBand} for a tolerance band. */
+    public Allocation withRebalancing(Rebalancing rebalancing) {
+        if (rebalancing == Rebalancing.BAND) {
+            throw new IllegalArgumentException("a band needs its width: use withBand");
+        }
+        return new Allocation(assetSeries, weights, rebalancing, 0);
+    }
+
+    /** Rebalance at a year end when some weight is more than {@code band} (e.g. 0.05) away from its target. */
+    public Allocation withBand(double band) {
+        if (!(band > 0)) {
+            throw new IllegalArgumentException("band must be above zero, got " + band);
+        }
+        return new Allocation(assetSeries, weights, Rebalancing.BAND, band);
+    }
+
+    /** Weights of {@code count} paths at the targets, asset-major: asset a of path k is {@code [a * count + k]}. */
+    double[] startingWeights(int count) {
+        double[] holdings = new double[assetSeries.length * count];
+        for (int a = 0; a < assetSeries.length; a++) {
+            Arrays.fill(holdings, a * count, (a + 1) * count, weights[a]);
+        }
+        return holdings;
+    }
+
+    /**
+     * One year of a {@link ScenarioBank.Series#portfolio} series over cells [offset, offset + count): the real
+     * return of the current weights into {@code returns}, then the weights drift with the returns and are
+     * rebalanced, ready for the next year.
+     */
+    void portfolioReturns(double[][] series, int offset, int count, double[] holdings, double[] returns) {
+        int assets = assetSeries.length;
+        Arrays.fill(returns, offset, offset + count, 0);
+        for (int a = 0; a < assets; a++) {
+            double[] r = series[assetSeries[a]];
+            for (int k = 0, h = a * count; k < count; k++, h++) {
+                holdings[h] *= 1 + r[offset + k];
+                returns[offset + k] += holdings[h];
+            }
+        }
+        for (int k = 0; k < count; k++) {
+            double growth = returns[offset + k];
+            double scale = growth > 0 ? 1 / growth : 0;
+            boolean reset = rebalancing == Rebalancing.ANNUAL || !(growth > 0);
+            for (int a = 0; a < assets; a++) {
+                double weight = holdings[a * count + k] * scale;
+                holdings[a * count + k] = weight;
+                reset |= rebalancing == Rebalancing.BAND && Math.abs(weight - weights[a]) > band;
+            }
+            if (reset) {
+                for (int a = 0; a < assets; a++) {
+                    holdings[a * count + k] = weights[a];
+                }
+            }
+            returns[offset + k] = growth - 1;
+        }
+    }
+
+    public int getAssets() {
+        return assetSeries.length;
+    }
+
+    int[] assetSeries() {
+        return assetSeries;
+    }
+
+    double[] weights() {
+        return weights;
+    }
+
+    Rebalancing rebalancing() {
+        return rebalancing;
+    }
+
+    double band() {
+        return band;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int a = 0; a < assetSeries.length; a++) {
+            text.append(a == 0 ? "" : "/").append(Math.round(weights[a] * 100));
+        }
+        text.append(switch (rebalancing) {
+            case ANNUAL -> ", rebalanced yearly";
+            case BAND -> String.format(", rebalanced outside ±%.0f%%", band * 100);
+            case NEVER -> ", never rebalanced";
+        });
+        return text.toString();
+    }
+}
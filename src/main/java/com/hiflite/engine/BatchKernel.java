@@ -0,0 +1,733 @@
+package com.hiflite.engine;
+
+import java.util.Arrays;
+
+/**
+ * The one survival kernel every model runs on: a year-major walk over a chunk of scenario-bank paths.
+ * <p>
+ * Balances and spending state live in primitive arrays; every year steps all live paths forward in
+ * one tight loop and then compacts the failed ones out, so later years only touch survivors. The
+ * working arrays belong to the calling thread and are reused, so a call allocates nothing.
+ * <p>
+ * What differs between models is plugged in as three small strategies that return primitives, so the
+ * JIT inlines them into the loop:
+ * <ul>
+ *   <li>{@link ReturnModel}: the gross growth of one (year, path) cell of the bank;</li>
+ *   <li>{@link SpendingRule}: the per-path spending state, how it is indexed year to year and what it withdraws;</li>
+ *   <li>{@link IncomeSchedule}: outside income (SS, annuity, ...) netted against the withdrawal;</li>
+ * </ul>
+ * plus an {@link Order}: grow then withdraw (the grok models) or withdraw then grow (the gemini models).
+ * Strategies read the bank through its raw year-major arrays ({@link ScenarioBank#allSeries()}).
+ * <p>
+ * {@link #withMonths} gives the same model stepped monthly inside each bank year (see {@link MonthlyBridge}).
+ */
+public final class BatchKernel {
+
+    /** When the year's withdrawal comes out relative to its growth. */
+    public enum Order {
+        /** balance x growth - withdrawal */
+        GROW_THEN_WITHDRAW,
+        /** (balance - max(0, withdrawal)) x growth */
+        WITHDRAW_THEN_GROW
+    }
+
+    /** Gross growth factor 1 + r of one cell ({@code year * paths + path}) of the bank's series. */
+    @FunctionalInterface
+    public interface ReturnModel {
+        double growth(double[][] series, int cell);
+    }
+
+    /**
+     * Outside income that reduces the withdrawal. Income can carry one running per-path value, such as
+     * an annuity's accumulated step-ups. It starts at {@link #initial()} and is advanced after every
+     * simulated year, so path-dependent income costs O(1) per year instead of a replay of the path.
+     */
+    @FunctionalInterface
+    public interface IncomeSchedule {
+        IncomeSchedule NONE = (year, series, cell, state) -> 0.0;
+
+        double income(int year, double[][] series, int cell, double state);
+
+        default double initial() {
+            return 1.0;
+        }
+
+        /** The running value carried into year + 1, once year's cell has played out. */
+        default double advance(int year, double[][] series, int cell, double state) {
+            return state;
+        }
+
+        /** Income paid in {@code month} of {@code year} by a monthly kernel; a twelfth of the year's by default. */
+        default double monthlyIncome(int year, int month, double[][] series, int cell, double state) {
+            return income(year, series, cell, state) / MonthlyBridge.MONTHS;
+        }
+
+        /**
+         * Whether {@link #monthlyIncome} pays the same in every month of {@code year}, for every cell and state,
+         * so a {@link MonthlyRiskSurface} can take the year in one step without comparing its months. False, not
+         * known, by default.
+         */
+        default boolean levelMonths(int year) {
+            return false;
+        }
+    }
+
+    /**
+     * Per-path spending state: where it starts, how it is indexed before every year after the first
+     * simulated one, and the withdrawal it asks for.
+     */
+    public interface SpendingRule {
+
+        double initial(double spending, double spendingIndex);
+
+        double index(int year, double[][] series, int cell, double state);
+
+        double withdrawal(int year, double spending, double state);
+
+        /** A fixed amount every year. */
+        static SpendingRule level() {
+            return new SpendingRule() {
+                @Override
+                public double initial(double spending, double spendingIndex) {
+                    return spending;
+                }
+
+                @Override
+                public double index(int year, double[][] series, int cell, double state) {
+                    return state;
+                }
+
+                @Override
+                public double withdrawal(int year, double spending, double state) {
+                    return state;
+                }
+            };
+        }
+
+        /** The starting amount, inflated every year by that path's own inflation from {@code inflationSeries}. */
+        static SpendingRule inflationIndexed(int inflationSeries) {
+            return new SpendingRule() {
+                @Override
+                public double initial(double spending, double spendingIndex) {
+                    return spending;
+                }
+
+                @Override
+                public double index(int year, double[][] series, int cell, double state) {
+                    return state * (1 + series[inflationSeries][cell]);
+                }
+
+                @Override
+                public double withdrawal(int year, double spending, double state) {
+                    return state;
+                }
+            };
+        }
+
+        /**
+         * spending x index x multipliers[year], where the index starts at the caller's spending index and
+         * grows by {@code indexGrowth} a year (1 in real terms).
+         */
+        static SpendingRule indexed(double[] multipliers, double indexGrowth) {
+            return new SpendingRule() {
+                @Override
+                public double initial(double spending, double spendingIndex) {
+                    return spendingIndex;
+                }
+
+                @Override
+                public double index(int year, double[][] series, int cell, double state) {
+                    return state * indexGrowth;
+                }
+
+                @Override
+                public double withdrawal(int year, double spending, double state) {
+                    return spending * state * multipliers[year];
+                }
+            };
+        }
+    }
+
+    /**
+     * Sees every simulated year of a chunk: in [0, live) the ids of the paths that started the year, their
+     * balances at its end and what they withdrew. A path that fails in a year is still passed for that year,
+     * with its non-positive balance; after that it is no longer passed. The arrays are the kernel's own.
+     */
+    @FunctionalInterface
+    public interface YearObserver {
+        void year(int year, int[] ids, double[] balances, double[] withdrawals, int live);
+    }
+
+    private static final ThreadLocal<Workspace> WORKSPACE = ThreadLocal.withInitial(Workspace::new);
+
+    private final Order order;
+    private final ReturnModel returns;
+    private final SpendingRule spendingRule;
+    private final IncomeSchedule income;
+    private final MonthlyBridge months;   // null when stepping a year at a time
+
+    private BatchKernel(Order order, ReturnModel returns, SpendingRule spendingRule, IncomeSchedule income,
+                        MonthlyBridge months) {
+        this.order = order;
+        this.returns = returns;
+        this.spendingRule = spendingRule;
+        this.income = income;
+        this.months = months;
+    }
+
+    public static BatchKernel of(Order order, ReturnModel returns, SpendingRule spendingRule, IncomeSchedule income) {
+        return new BatchKernel(order, returns, spendingRule, income, null);
+    }
+
+    /**
+     * The same model stepped a month at a time, with each year's growth split into the months of {@code months}.
+     * Withdrawals are paid in twelve parts ({@link IncomeSchedule#monthlyIncome} for income), the order applies
+     * to every month, and a path fails in the first month its balance is not above zero. Spending is still
+     * indexed once a year, like an annual cost-of-living step, and income advanced once a year.
+     * <p>
+     * The year arguments of the returned kernel count months: step t is month t % 12 of bank year t / 12, so a
+     * walk can start or stop in the middle of a year. Tallies stay per bank year; observers are not supported.
+     */
+    public BatchKernel withMonths(MonthlyBridge months) {
+        return new BatchKernel(order, returns, spendingRule, income, months);
+    }
+
+    /**
+     * Grow by (1 + real return) x (1 + inflation), then withdraw spending inflated by the path's own
+     * inflation: the inflation-indexed model of the grok classes.
+     */
+    public static BatchKernel inflationIndexed(int realReturnSeries, int inflationSeries) {
+        return of(Order.GROW_THEN_WITHDRAW,
+                (series, cell) -> 1 + ((1 + series[realReturnSeries][cell]) * (1 + series[inflationSeries][cell]) - 1),
+                SpendingRule.inflationIndexed(inflationSeries), IncomeSchedule.NONE);
+    }
+
+    /**
+     * Paths in [from, to) still above zero after model years [fromYear, toYear).
+     *
+     * @param spendingIndex starting index for {@link SpendingRule#indexed} rules (ignored by the others)
+     */
+    public long survivors(double[][] series, int paths, int fromYear, int toYear,
+                          int from, int to, double startBalance, double spending, double spendingIndex) {
+        return run(WORKSPACE.get(), series, paths, fromYear, toYear, from, to, startBalance, spending, spendingIndex,
+                null, null, null);
+    }
+
+    /** Same as {@link #survivors}, and also sets {@code survived[path]} for every surviving path. */
+    public long markSurvivors(double[][] series, int paths, int fromYear, int toYear,
+                              int from, int to, double startBalance, double spending, double spendingIndex,
+                              boolean[] survived) {
+        Workspace ws = WORKSPACE.get();
+        int live = run(ws, series, paths, fromYear, toYear, from, to, startBalance, spending, spendingIndex, null, null, null);
+        for (int k = 0; k < live; k++) {
+            survived[ws.ids[k]] = true;
+        }
+        return live;
+    }
+
+    /**
+     * Same as {@link #survivors}, and also adds every live path's withdrawal for a year into
+     * {@code withdrawn[year]} and counts it in {@code reached[year]}. A path that fails in a year still
+     * counts for that year.
+     */
+    public long tallySurvivors(double[][] series, int paths, int fromYear, int toYear,
+                               int from, int to, double startBalance, double spending, double spendingIndex,
+                               double[] withdrawn, long[] reached) {
+        return run(WORKSPACE.get(), series, paths, fromYear, toYear, from, to, startBalance, spending, spendingIndex,
+                withdrawn, reached, null);
+    }
+
+    /** Same as {@link #survivors}, and also shows {@code observer} every year's balances and withdrawals. */
+    public long observeSurvivors(double[][] series, int paths, int fromYear, int toYear,
+                                 int from, int to, double startBalance, double spending, double spendingIndex,
+                                 YearObserver observer) {
+        return run(WORKSPACE.get(), series, paths, fromYear, toYear, from, to, startBalance, spending, spendingIndex,
+                null, null, observer);
+    }
+
+    /**
+     * Per-path critical spending ratio over model years [fromYear, toYear) into {@code ratios[path]}. A path
+     * in [from, to) survives exactly when spending x spendingIndex / startBalance is below its ratio
+     * (spending / startBalance for rules that ignore the index).
+     * <p>
+     * Balances are then linear in (startBalance, spending): startBalance x compounded growth - spending x
+     * compounded withdrawals. That only holds without outside income, so an income schedule other than
+     * {@link IncomeSchedule#NONE} is rejected.
+     */
+    public void criticalRatios(double[][] series, int paths, int fromYear, int toYear, int from, int to,
+                               double[] ratios) {
+        if (income != IncomeSchedule.NONE) {
+            throw new IllegalStateException("critical ratios need a kernel without outside income");
+        }
+        if (months != null) {
+            criticalRatiosMonthly(series, paths, fromYear, toYear, from, to, ratios);
+            return;
+        }
+        Workspace ws = WORKSPACE.get();
+        int n = ws.reset(from, to, 1.0, spendingRule.initial(1.0, 1.0), 0.0);
+        double[] growth = ws.balance;         // what 1 of starting balance is worth
+        double[] state = ws.state;
+        double[] withdrawn = ws.incomeState;  // what 1 of spending has taken out, grown forward
+        boolean growFirst = order == Order.GROW_THEN_WITHDRAW;
+        Arrays.fill(ratios, from, to, Double.POSITIVE_INFINITY);
+
+        for (int year = fromYear; year < toYear; year++) {
+            int row = year * paths;
+            boolean indexThisYear = year > fromYear;
+            for (int k = 0; k < n; k++) {
+                int cell = row + from + k;
+                double s = indexThisYear ? spendingRule.index(year, series, cell, state[k]) : state[k];
+                double g = returns.growth(series, cell);
+                double w = spendingRule.withdrawal(year, 1.0, s);
+                double ratio;
+                if (growFirst) {
+                    growth[k] *= g;
+                    withdrawn[k] = withdrawn[k] * g + w;
+                    ratio = growth[k] / withdrawn[k];
+                } else {
+                    withdrawn[k] += w;
+                    // what is left after the withdrawal has to grow, so a wipe-out year fails at any ratio
+                    ratio = g > 0 ? growth[k] / withdrawn[k] : 0;
+                    growth[k] *= g;
+                    withdrawn[k] *= g;
+                }
+                state[k] = s;
+                ratios[from + k] = Math.min(ratios[from + k], ratio);
+            }
+        }
+    }
+
+    /**
+     * For a monthly kernel, the months of every path in [from, to) and bank years [fromYear, toYear), each
+     * discounted to the start of its year by the growth of the months before it, summed into
+     * {@code sums[year * paths + path]}. They depend on the bank alone, so a {@link MonthlyRiskSurface} for any
+     * start year can take them from here instead of stepping the months again.
+     */
+    void monthlyDiscounts(double[][] series, int paths, int fromYear, int toYear, int from, int to, double[] sums) {
+        if (months == null) {
+            throw new IllegalStateException("monthly discounts need a kernel stepping a month at a time");
+        }
+        Workspace ws = WORKSPACE.get();
+        int n = to - from;
+        ws.monthly(n);
+        double[] annualGrowth = ws.annualGrowth;
+        for (int year = fromYear; year < toYear; year++) {
+            int row = year * paths + from;
+            for (int k = 0; k < n; k++) {
+                annualGrowth[k] = returns.growth(series, row + k);
+            }
+            months.discountSums(year, from, to, annualGrowth, false, sums, row);
+        }
+    }
+
+    /**
+     * The hinges of a {@link MonthlyRiskSurface} for paths [from, to): starts in bank {@code year}, walking to step
+     * {@code toStep}. Each month owes max(0, spending x withdrawal per unit of spending - income), discounted back
+     * to the start of the year through the months' growth; a later year whose months all have the same income
+     * owes that times its {@link #monthlyDiscounts} sum, and any other year a hinge per month. Only a monthly
+     * withdraw-then-grow kernel owes that way; the spending rule must scale withdrawals in proportion to spending,
+     * and income may only be negative in months that withdraw.
+     */
+    void riskHinges(double[][] series, int paths, int year, int toStep, int from, int to, double spendingIndex,
+                    double[] yearSums, MonthlyRiskSurface.Chunk out) {
+        if (months == null) {
+            throw new IllegalStateException("a monthly risk surface needs a kernel stepping a month at a time");
+        }
+        if (order != Order.WITHDRAW_THEN_GROW) {
+            throw new IllegalStateException("a monthly risk surface needs a withdraw-then-grow kernel");
+        }
+        Workspace ws = WORKSPACE.get();
+        int n = ws.reset(from, to, 1.0, spendingRule.initial(1.0, spendingIndex), income.initial());
+        ws.monthly(n);
+        ws.hinges(n);
+        int lastYear = (toStep - 1) / MonthlyBridge.MONTHS;
+
+        // the years' loops are each their own method, so they compile once instead of the walk on stack replacement
+        for (int y = year; y <= lastYear; y++) {
+            int endMonth = Math.min(MonthlyBridge.MONTHS, toStep - y * MonthlyBridge.MONTHS);
+            int row = y * paths + from;
+            boolean first = y == year;
+            if (!first && endMonth == MonthlyBridge.MONTHS && income.levelMonths(y)) {
+                levelYearHinge(ws, series, y, row, n, yearSums, out, out.addYear(1));
+                continue;
+            }
+            startHingeYear(ws, series, y, row, n, first);
+            months.monthlyGrowth(y, from, to, ws.annualGrowth, ws.monthGrowth);
+            if (first) {
+                System.arraycopy(ws.perSpending, 0, out.perSpending, 0, n);
+                // months past the walk owe nothing
+                Arrays.fill(out.discount, endMonth * n, MonthlyBridge.MONTHS * n, 0.0);
+                Arrays.fill(out.kink, endMonth * n, MonthlyBridge.MONTHS * n, 0.0);
+                monthHinges(ws, series, y, endMonth, row, n, out, out.discount, out.kink, 0, false);
+            } else {
+                int hinge = out.addYear(endMonth);
+                monthHinges(ws, series, y, endMonth, row, n, out, out.laterWeight, out.laterKink, hinge * n, true);
+            }
+            endHingeYear(ws, series, y, endMonth, row, n, out);
+        }
+    }
+
+    // spending indexed into the year, the year's growth, and its withdrawal per unit of spending, a month's share
+    private void startHingeYear(Workspace ws, double[][] series, int year, int row, int n, boolean first) {
+        double[] state = ws.state;
+        double[] annualGrowth = ws.annualGrowth;
+        double[] perSpending = ws.perSpending;
+        if (!first) {
+            for (int k = 0; k < n; k++) {
+                state[k] = spendingRule.index(year, series, row + k, state[k]);
+            }
+        }
+        for (int k = 0; k < n; k++) {
+            annualGrowth[k] = returns.growth(series, row + k);
+            perSpending[k] = spendingRule.withdrawal(year, 1.0, state[k]) / MonthlyBridge.MONTHS;
+        }
+    }
+
+    // paths the year leaves without a usable discount, and income advanced past a whole year
+    private void endHingeYear(Workspace ws, double[][] series, int year, int endMonth, int row, int n,
+                              MonthlyRiskSurface.Chunk out) {
+        double[] discount = ws.balance;   // from the start of the first year to the start of the next one
+        double[] incomeState = ws.incomeState;
+        for (int k = 0; k < n; k++) {
+            // the bridge's months are all above zero, or none are in a year that loses everything
+            if (!(discount[k] > 0) || discount[k] == Double.POSITIVE_INFINITY) {
+                out.doomed[k] = MonthlyBridge.MONTHS;
+            }
+        }
+        if (endMonth == MonthlyBridge.MONTHS) {
+            for (int k = 0; k < n; k++) {
+                incomeState[k] = income.advance(year, series, row + k, incomeState[k]);
+            }
+        }
+    }
+
+    // a year across the paths a month at a time, a hinge per month: the first year's, weighted by perSpending when
+    // it is read, or a later year whose income changes inside it or that the walk ends in, weighted here
+    private void monthHinges(Workspace ws, double[][] series, int year, int endMonth, int row, int n,
+                             MonthlyRiskSurface.Chunk out, double[] weights, double[] kinks, int offset, boolean later) {
+        double[] discount = ws.balance;
+        double[] incomeState = ws.incomeState;
+        double[] perSpending = ws.perSpending;
+        double[] monthGrowth = ws.monthGrowth;
+        for (int month = 0; month < endMonth; month++) {
+            for (int k = 0, at = month * n; k < n; k++, at++) {
+                double weight = later ? discount[k] * perSpending[k] : discount[k];
+                double kink = kink(perSpending[k], income.monthlyIncome(year, month, series, row + k, incomeState[k]));
+                weights[offset + at] = weight;
+                kinks[offset + at] = kink;
+                if (later) {
+                    out.addLater(k, weight, kink);
+                }
+                discount[k] /= monthGrowth[at];
+            }
+        }
+    }
+
+    // a later whole year of level income: one hinge, weighted by the year's discounts summed up front, and the
+    // year's steps of startHingeYear and endHingeYear in the same pass, the walk's usual year
+    private void levelYearHinge(Workspace ws, double[][] series, int year, int row, int n, double[] yearSums,
+                                MonthlyRiskSurface.Chunk out, int hinge) {
+        double[] discount = ws.balance;
+        double[] state = ws.state;
+        double[] incomeState = ws.incomeState;
+        double[] laterWeight = out.laterWeight;
+        double[] laterKink = out.laterKink;
+        for (int k = 0, at = hinge * n; k < n; k++, at++) {
+            state[k] = spendingRule.index(year, series, row + k, state[k]);
+            double perSpending = spendingRule.withdrawal(year, 1.0, state[k]) / MonthlyBridge.MONTHS;
+            laterWeight[at] = discount[k] * perSpending * yearSums[row + k];
+            laterKink[at] = kink(perSpending, income.monthlyIncome(year, 0, series, row + k, incomeState[k]));
+            out.addLater(k, laterWeight[at], laterKink[at]);
+            discount[k] /= returns.growth(series, row + k);
+            if (!(discount[k] > 0) || discount[k] == Double.POSITIVE_INFINITY) {
+                out.doomed[k] = MonthlyBridge.MONTHS;
+            }
+            incomeState[k] = income.advance(year, series, row + k, incomeState[k]);
+        }
+    }
+
+    // spending above which a month draws on the balance, given its withdrawal per unit of spending and its income
+    private static double kink(double perSpending, double income) {
+        return perSpending > 0 ? income / perSpending : idleKink(income);
+    }
+
+    // a month that withdraws nothing, kept out of kink so the hinge loops inline it whole
+    private static double idleKink(double income) {
+        if (income < 0) {
+            throw new IllegalStateException("a monthly risk surface needs income of at least zero in months "
+                    + "that do not withdraw");
+        }
+        return 0;   // the month's weight is zero
+    }
+
+    // leaves the surviving path ids in ws.ids[0, live)
+    private int run(Workspace ws, double[][] series, int paths, int fromYear, int toYear,
+                    int from, int to, double startBalance, double spending, double spendingIndex,
+                    double[] withdrawn, long[] reached, YearObserver observer) {
+        if (months != null) {
+            if (observer != null) {
+                throw new IllegalStateException("a monthly kernel does not support year observers");
+            }
+            return runMonthly(ws, series, paths, fromYear, toYear, from, to, startBalance, spending, spendingIndex,
+                    withdrawn, reached);
+        }
+        int live = ws.reset(from, to, startBalance, spendingRule.initial(spending, spendingIndex), income.initial());
+        int[] ids = ws.ids;
+        double[] balance = ws.balance;
+        double[] state = ws.state;
+        double[] incomeState = ws.incomeState;
+        boolean tally = withdrawn != null;
+        boolean observe = observer != null;
+        if (observe) {
+            ws.observing(to - from);
+        }
+        boolean growFirst = order == Order.GROW_THEN_WITHDRAW;
+
+        for (int year = fromYear; year < toYear && live > 0; year++) {
+            int row = year * paths;
+            boolean indexThisYear = year > fromYear;
+            double drawn = 0;
+            int kept = 0;
+            for (int k = 0; k < live; k++) {
+                int id = ids[k];
+                int cell = row + id;
+                double s = indexThisYear ? spendingRule.index(year, series, cell, state[k]) : state[k];
+                double growth = returns.growth(series, cell);
+                double inc = incomeState[k];
+                double draw = spendingRule.withdrawal(year, spending, s) - income.income(year, series, cell, inc);
+                double b = growFirst
+                        ? balance[k] * growth - draw
+                        : (balance[k] - Math.max(0, draw)) * growth;
+                if (tally) {
+                    drawn += draw;
+                }
+                if (observe) {
+                    // compaction overwrites failed paths, so the year is copied out first
+                    ws.seenIds[k] = id;
+                    ws.seenBalances[k] = b;
+                    ws.seenWithdrawals[k] = draw;
+                }
+
+                // branch-free compaction: always write, only advance past survivors
+                ids[kept] = id;
+                balance[kept] = b;
+                state[kept] = s;
+                incomeState[kept] = income.advance(year, series, cell, inc);
+                kept += b > 0 ? 1 : 0;
+            }
+            if (tally) {
+                withdrawn[year] += drawn;
+                reached[year] += live;
+            }
+            if (observe) {
+                observer.year(year, ws.seenIds, ws.seenBalances, ws.seenWithdrawals, live);
+            }
+            live = kept;
+        }
+        return live;
+    }
+
+    // run() a month at a time over steps [fromStep, toStep), year-major like the vector kernels' month loops. The
+    // year's months are drawn for the whole chunk once its growth is known; then each path runs its months back to
+    // back with its balance in a register, and the live list is compacted in the same loop. A path stops at the
+    // first month its balance is not above zero
+    private int runMonthly(Workspace ws, double[][] series, int paths, int fromStep, int toStep,
+                           int from, int to, double startBalance, double spending, double spendingIndex,
+                           double[] withdrawn, long[] reached) {
+        int count = to - from;
+        int live = ws.reset(from, to, startBalance, spendingRule.initial(spending, spendingIndex), income.initial());
+        ws.monthly(count);
+        int[] ids = ws.ids;
+        double[] balance = ws.balance;
+        double[] state = ws.state;
+        double[] incomeState = ws.incomeState;
+        double[] annualGrowth = ws.annualGrowth;
+        double[] monthGrowth = ws.monthGrowth;
+        boolean tally = withdrawn != null;
+        boolean growFirst = order == Order.GROW_THEN_WITHDRAW;
+
+        for (int step = fromStep; step < toStep && live > 0; ) {
+            int year = step / MonthlyBridge.MONTHS;
+            int firstMonth = step % MonthlyBridge.MONTHS;
+            int endMonth = Math.min(MonthlyBridge.MONTHS, firstMonth + toStep - step);
+            int row = year * paths;
+            boolean indexThisYear = step > fromStep;
+            boolean yearEnds = endMonth == MonthlyBridge.MONTHS;
+            for (int k = 0; k < live; k++) {
+                annualGrowth[ids[k] - from] = returns.growth(series, row + ids[k]);
+            }
+            months.monthlyGrowth(year, from, to, annualGrowth, monthGrowth);
+            if (tally) {
+                reached[year] += live;
+            }
+
+            double drawn = 0;
+            int kept = 0;
+            for (int k = 0; k < live; k++) {
+                int id = ids[k];
+                int cell = row + id;
+                double s = indexThisYear ? spendingRule.index(year, series, cell, state[k]) : state[k];
+                double inc = incomeState[k];
+                double spent = spendingRule.withdrawal(year, spending, s) / MonthlyBridge.MONTHS;
+                double b = balance[k];
+                // a path that fails stops there: income above spending must not revive it
+                for (int month = firstMonth, g = month * count + id - from; month < endMonth && b > 0;
+                     month++, g += count) {
+                    double draw = spent - income.monthlyIncome(year, month, series, cell, inc);
+                    b = growFirst
+                            ? b * monthGrowth[g] - draw
+                            : (b - Math.max(0, draw)) * monthGrowth[g];
+                    if (tally) {
+                        drawn += draw;
+                    }
+                }
+
+                ids[kept] = id;
+                balance[kept] = b;
+                state[kept] = s;
+                incomeState[kept] = yearEnds ? income.advance(year, series, cell, inc) : inc;
+                kept += b > 0 ? 1 : 0;
+            }
+            live = kept;
+            if (tally) {
+                withdrawn[year] += drawn;
+            }
+            step = year * MonthlyBridge.MONTHS + endMonth;
+        }
+        return live;
+    }
+
+    // criticalRatios() a month at a time over steps [fromStep, toStep), each path's months back to back as in
+    // runMonthly()
+    private void criticalRatiosMonthly(double[][] series, int paths, int fromStep, int toStep, int from, int to,
+                                       double[] ratios) {
+        Workspace ws = WORKSPACE.get();
+        int n = ws.reset(from, to, 1.0, spendingRule.initial(1.0, 1.0), 0.0);
+        ws.monthly(n);
+        double[] growth = ws.balance;
+        double[] state = ws.state;
+        double[] withdrawn = ws.incomeState;
+        double[] annualGrowth = ws.annualGrowth;
+        double[] monthGrowth = ws.monthGrowth;
+        boolean growFirst = order == Order.GROW_THEN_WITHDRAW;
+        Arrays.fill(ratios, from, to, Double.POSITIVE_INFINITY);
+
+        for (int step = fromStep; step < toStep; ) {
+            int year = step / MonthlyBridge.MONTHS;
+            int firstMonth = step % MonthlyBridge.MONTHS;
+            int endMonth = Math.min(MonthlyBridge.MONTHS, firstMonth + toStep - step);
+            int row = year * paths;
+            boolean indexThisYear = step > fromStep;
+            for (int k = 0; k < n; k++) {
+                int cell = row + from + k;
+                if (indexThisYear) {
+                    state[k] = spendingRule.index(year, series, cell, state[k]);
+                }
+                annualGrowth[k] = returns.growth(series, cell);
+            }
+            if (firstMonth == 0 && endMonth == MonthlyBridge.MONTHS) {
+                wholeYearRatios(ws, year, from, to, ratios);
+                step = (year + 1) * MonthlyBridge.MONTHS;
+                continue;
+            }
+            months.monthlyGrowth(year, from, to, annualGrowth, monthGrowth);
+
+            for (int k = 0; k < n; k++) {
+                double w = spendingRule.withdrawal(year, 1.0, state[k]) / MonthlyBridge.MONTHS;
+                double grown = growth[k];
+                double drawn = withdrawn[k];
+                double lowest = ratios[from + k];
+                for (int month = firstMonth, at = month * n + k; month < endMonth; month++, at += n) {
+                    double g = monthGrowth[at];
+                    if (growFirst) {
+                        grown *= g;
+                        drawn = drawn * g + w;
+                        lowest = Math.min(lowest, grown / drawn);
+                    } else {
+                        drawn += w;
+                        lowest = Math.min(lowest, g > 0 ? grown / drawn : 0);
+                        grown *= g;
+                        drawn *= g;
+                    }
+                }
+                growth[k] = grown;
+                withdrawn[k] = drawn;
+                ratios[from + k] = lowest;
+            }
+            step = year * MonthlyBridge.MONTHS + endMonth;
+        }
+    }
+
+    // a whole year of criticalRatiosMonthly() from the months' discount sums: the ratio only falls through the year,
+    // so its lowest is at the last month
+    private void wholeYearRatios(Workspace ws, int year, int from, int to, double[] ratios) {
+        int n = to - from;
+        double[] growth = ws.balance;
+        double[] state = ws.state;
+        double[] withdrawn = ws.incomeState;
+        double[] annualGrowth = ws.annualGrowth;
+        double[] sums = ws.monthGrowth;
+        months.discountSums(year, from, to, annualGrowth, order == Order.GROW_THEN_WITHDRAW, sums, 0);
+        for (int k = 0; k < n; k++) {
+            double w = spendingRule.withdrawal(year, 1.0, state[k]) / MonthlyBridge.MONTHS;
+            double g = annualGrowth[k];
+            double drawn = withdrawn[k] + w * sums[k];   // as of the start of the year, like growth[k]
+            ratios[from + k] = Math.min(ratios[from + k], g > 0 ? growth[k] / drawn : 0);
+            growth[k] *= g;
+            withdrawn[k] = drawn * g;
+        }
+    }
+
+    private static final class Workspace {
+        int[] ids = new int[0];
+        double[] balance = new double[0];
+        double[] state = new double[0];
+        double[] incomeState = new double[0];
+        int[] seenIds = new int[0];
+        double[] seenBalances = new double[0];
+        double[] seenWithdrawals = new double[0];
+        double[] annualGrowth = new double[0];
+        double[] monthGrowth = new double[0];
+        double[] perSpending = new double[0];
+
+        void monthly(int n) {
+            if (annualGrowth.length < n) {
+                annualGrowth = new double[n];
+                monthGrowth = new double[MonthlyBridge.MONTHS * n];
+            }
+            // paths that fail keep their last year's growth, so the bridge never sees a stale zero
+            Arrays.fill(annualGrowth, 0, n, 1.0);
+        }
+
+        void hinges(int n) {
+            if (perSpending.length < n) {
+                perSpending = new double[n];
+            }
+        }
+
+        void observing(int n) {
+            if (seenIds.length < n) {
+                seenIds = new int[n];
+                seenBalances = new double[n];
+                seenWithdrawals = new double[n];
+            }
+        }
+
+        int reset(int from, int to, double startBalance, double startState, double startIncomeState) {
+            int n = to - from;
+            if (ids.length < n) {
+                ids = new int[n];
+                balance = new double[n];
+                state = new double[n];
+                incomeState = new double[n];
+            }
+            for (int k = 0; k < n; k++) {
+                ids[k] = from + k;
+                balance[k] = startBalance;
+                state[k] = startState;
+                incomeState[k] = startIncomeState;
+            }
+            return n;
+        }
+    }
+}
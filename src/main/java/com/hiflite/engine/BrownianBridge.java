@@ -0,0 +1,70 @@
+package com.hiflite.engine;
+
+/**
+ * Builds T annual N(0,1) increments from T independent normals in Brownian-bridge order: the first
+ * normal fixes the end point, the next ones the midpoints, and so on (Jaeckel's construction for
+ * unit steps). With quasi-random input the best-distributed leading dimensions then decide the
+ * overall shape of each path instead of only its first years.
+ */
+public final class BrownianBridge {
+
+    private final int steps;
+    private final int[] bridgeIndex;
+    private final int[] leftIndex;
+    private final int[] rightIndex;
+    private final double[] leftWeight;
+    private final double[] rightWeight;
+    private final double[] stdDev;
+
+    public BrownianBridge(int steps) {
+        this.steps = steps;
+        bridgeIndex = new int[steps];
+        leftIndex = new int[steps];
+        rightIndex = new int[steps];
+        leftWeight = new double[steps];
+        rightWeight = new double[steps];
+        stdDev = new double[steps];
+
+        int[] filled = new int[steps];
+        filled[steps - 1] = 1;
+        bridgeIndex[0] = steps - 1;
+        stdDev[0] = Math.sqrt(steps);
+        int j = 0;
+        for (int i = 1; i < steps; i++) {
+            while (filled[j] != 0) j++;
+            int k = j;
+            while (filled[k] == 0) k++;
+            // points j..k-1 are open, k is known; fill the middle of the gap
+            int l = j + ((k - 1 - j) >> 1);
+            filled[l] = 1;
+            bridgeIndex[i] = l;
+            leftIndex[i] = j;
+            rightIndex[i] = k;
+            leftWeight[i] = (double) (k - l) / (k + 1 - j);
+            rightWeight[i] = (double) (l + 1 - j) / (k + 1 - j);
+            stdDev[i] = Math.sqrt((double) (l + 1 - j) * (k - l) / (k + 1 - j));
+            j = k + 1;
+            if (j >= steps) j = 0;
+        }
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+
+    /** normals[0..steps) in bridge order in, independent annual increments out (path is scratch). */
+    public void increments(double[] normals, double[] path, double[] out) {
+        path[steps - 1] = stdDev[0] * normals[0];
+        for (int i = 1; i < steps; i++) {
+            int j = leftIndex[i];
+            int k = rightIndex[i];
+            int l = bridgeIndex[i];
+            double left = j != 0 ? leftWeight[i] * path[j - 1] : 0;
+            path[l] = left + rightWeight[i] * path[k] + stdDev[i] * normals[i];
+        }
+        out[0] = path[0];
+        for (int t = 1; t < steps; t++) {
+            out[t] = path[t] - path[t - 1];
+        }
+    }
+}
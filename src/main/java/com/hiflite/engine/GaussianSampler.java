@@ -0,0 +1,91 @@
+package com.hiflite.engine;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Bulk N(0,1) sampler: Marsaglia and Tsang's 128-layer ziggurat.
+ * <p>
+ * Each draw takes one {@code nextLong()}: the low 7 bits pick the layer and the high 57 bits are the
+ * signed abscissa, so the layer and the value never share bits (the flaw in the original 32-bit
+ * version). About 99% of draws are one multiply and one compare; the rest fall back to the exact
+ * wedge or tail test. GaussianSamplerTest checks it against {@code nextGaussian()}.
+ */
+public final class GaussianSampler {
+
+    private static final int LAYERS = 128;
+    private static final double R = 3.442619855899;           // start of the tail
+    private static final double V = 9.91256303526217e-3;      // area of each layer
+    private static final double M = 0x1p56;                   // scale of the 57-bit signed abscissa
+
+    private static final long[] K = new long[LAYERS];         // |hz| below K[i] is inside layer i's rectangle
+    private static final double[] W = new double[LAYERS];     // hz * W[i] is the abscissa
+    private static final double[] F = new double[LAYERS];     // density at each layer's edge
+
+    static {
+        double dn = R;
+        double tn = dn;
+        double q = V / Math.exp(-0.5 * dn * dn);
+        K[0] = (long) ((dn / q) * M);
+        K[1] = 0;
+        W[0] = q / M;
+        W[LAYERS - 1] = dn / M;
+        F[0] = 1.0;
+        F[LAYERS - 1] = Math.exp(-0.5 * dn * dn);
+        for (int i = LAYERS - 2; i >= 1; i--) {
+            dn = Math.sqrt(-2.0 * Math.log(V / dn + Math.exp(-0.5 * dn * dn)));
+            K[i + 1] = (long) ((dn / tn) * M);
+            tn = dn;
+            F[i] = Math.exp(-0.5 * dn * dn);
+            W[i] = dn / M;
+        }
+    }
+
+    private GaussianSampler() {
+    }
+
+    public static double next(RandomGenerator rng) {
+        long bits = rng.nextLong();
+        int layer = (int) (bits & (LAYERS - 1));
+        long hz = bits >> 7;
+        if (Math.abs(hz) < K[layer]) {
+            return hz * W[layer];
+        }
+        return slowPath(rng, hz, layer);
+    }
+
+    /** Fills {@code out[offset .. offset + count)} with independent N(0,1) draws. */
+    public static void fill(RandomGenerator rng, double[] out, int offset, int count) {
+        for (int i = offset, end = offset + count; i < end; i++) {
+            long bits = rng.nextLong();
+            int layer = (int) (bits & (LAYERS - 1));
+            long hz = bits >> 7;
+            out[i] = Math.abs(hz) < K[layer] ? hz * W[layer] : slowPath(rng, hz, layer);
+        }
+    }
+
+    private static double slowPath(RandomGenerator rng, long hz, int layer) {
+        while (true) {
+            double x = hz * W[layer];
+            if (layer == 0) {
+                // tail beyond R: Marsaglia's exponential rejection
+                double tail;
+                double y;
+                do {
+                    tail = -Math.log(1.0 - rng.nextDouble()) / R;
+                    y = -Math.log(1.0 - rng.nextDouble());
+                } while (y + y < tail * tail);
+                return hz > 0 ? R + tail : -R - tail;
+            }
+            // wedge between the rectangle and the curve
+            if (F[layer] + rng.nextDouble() * (F[layer - 1] - F[layer]) < Math.exp(-0.5 * x * x)) {
+                return x;
+            }
+            long bits = rng.nextLong();
+            layer = (int) (bits & (LAYERS - 1));
+            hz = bits >> 7;
+            if (Math.abs(hz) < K[layer]) {
+                return hz * W[layer];
+            }
+        }
+    }
+}
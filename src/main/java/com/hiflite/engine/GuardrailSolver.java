@@ -0,0 +1,128 @@
+package com.hiflite.engine;
+
+import com.hiflite.utils.TimingUtils;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * The guardrail solves every model runs on its scenario bank: spending for a target PoS and the portfolio at
+ * which a spending level reaches one. A model hands over its survivor counting and bracket; probing, early
+ * stopping and warm starts are the same for all of them and live here.
+ * <p>
+ * With {@link #ADAPTIVE} a solve is a {@link RootFinder} search started from the nearest earlier solves of the
+ * same quantity, kept per slot (e.g. per model year, when other years are poor guides). Without it, it is the
+ * model's original fixed number of halvings over the bracket.
+ */
+public final class GuardrailSolver {
+
+    // solver probes stop sampling once a Wilson interval this many standard deviations wide clears the target
+    public static final boolean EARLY_STOPPING = true;
+    public static final double EARLY_STOP_Z = 3.29;          // 99.9% two-sided
+
+    // solves stop at the Monte Carlo resolution of PoS (RootFinder) and warm-start from earlier solves;
+    // false runs the model's original fixed halvings
+    public static final boolean ADAPTIVE = true;
+    public static final double TOLERANCE = 1.0;       // dollars; the statistical stop usually comes first
+
+    /** What a solve looks for: PoS falls as spending rises, and rises with the portfolio. */
+    public enum Quantity {
+        SPENDING(false), PORTFOLIO(true);
+
+        private final boolean increasing;
+
+        Quantity(boolean increasing) {
+            this.increasing = increasing;
+        }
+    }
+
+    private final MonteCarloEngine engine;
+    private final ScenarioBank bank;
+    private final int fixedHalvings;
+    private final RootFinder rootFinder;
+    private final RootFinder.Neighbours[] solved;   // [quantity * slots + slot]
+    private final int slots;
+
+    /**
+     * @param slots         separate warm-start tables per quantity, e.g. one per model year; 1 shares them all
+     * @param fixedHalvings halvings of a solve without {@link #ADAPTIVE}
+     */
+    public GuardrailSolver(MonteCarloEngine engine, ScenarioBank bank, int slots, int fixedHalvings) {
+        this.engine = engine;
+        this.bank = bank;
+        this.fixedHalvings = fixedHalvings;
+        this.rootFinder = new RootFinder(engine, bank, EARLY_STOP_Z, TOLERANCE);
+        this.slots = slots;
+        this.solved = new RootFinder.Neighbours[Quantity.values().length * slots];
+        for (int i = 0; i < solved.length; i++) {
+            solved[i] = new RootFinder.Neighbours();
+        }
+    }
+
+    /**
+     * Root in [lo, hi] of PoS(x) = {@code targetPoS}. {@code input} is the other side of the question, e.g. the
+     * portfolio when solving for spending: earlier solves at nearby inputs give the starting guess.
+     */
+    public RootFinder.Result solve(Quantity quantity, int slot, double input, RootFinder.Survivors survivors,
+                                   double targetPoS, double lo, double hi) {
+        if (!ADAPTIVE) {
+            return bisect(survivors, targetPoS, quantity.increasing, lo, hi);
+        }
+        RootFinder.Neighbours neighbours = neighbours(quantity, slot);
+        RootFinder.Result result = rootFinder.solve(survivors, targetPoS, quantity.increasing, lo, hi,
+                neighbours.guess(targetPoS, input));
+        neighbours.add(targetPoS, input, result.getRoot());
+        return result;
+    }
+
+    /** Same question by {@link RootFinder#newton}, for a model that gives PoS with its slope in one pass. */
+    public RootFinder.Result newton(Quantity quantity, int slot, double input, RootFinder.Sensitivities sensitivities,
+                                    ToDoubleFunction<PosSensitivities> slope, double targetPoS, double lo, double hi) {
+        RootFinder.Neighbours neighbours = neighbours(quantity, slot);
+        RootFinder.Result result = rootFinder.newton(sensitivities, slope, targetPoS, quantity.increasing, lo, hi,
+                neighbours.guess(targetPoS, input));
+        neighbours.add(targetPoS, input, result.getRoot());
+        return result;
+    }
+
+    /** Drops every earlier solve, so the next ones start cold, e.g. to time a solve from scratch. */
+    public void forgetSolved() {
+        for (RootFinder.Neighbours neighbours : solved) {
+            neighbours.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return rootFinder.toString();
+    }
+
+    private RootFinder.Neighbours neighbours(Quantity quantity, int slot) {
+        return solved[quantity.ordinal() * slots + slot];
+    }
+
+    // Ties go the way RootFinder breaks them: PoS equal to the target counts as x being too high
+    private RootFinder.Result bisect(RootFinder.Survivors survivors, double targetPoS, boolean increasing,
+                                     double lo, double hi) {
+        long paths = 0;
+        for (int i = 0; i < fixedHalvings; i++) {
+            double mid = (lo + hi) / 2;
+            PosEstimate estimate = probe(survivors.at(mid), targetPoS);
+            paths += estimate.getPaths();
+            double pos = estimate.getProbability();
+            if (increasing ? pos < targetPoS : pos > targetPoS) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        return new RootFinder.Result((lo + hi) / 2, (hi - lo) / 2, false, fixedHalvings, paths);
+    }
+
+    // only the side of the target matters, so far-off probes stop after a few thousand paths
+    private PosEstimate probe(MonteCarloEngine.RangeTask survivors, double targetPoS) {
+        TimingUtils.count(TimingUtils.Counter.SOLVER_ITERATIONS, 1);
+        return EARLY_STOPPING
+                ? bank.estimateAgainst(engine, survivors, targetPoS, EARLY_STOP_Z)
+                : bank.estimate(engine, survivors);
+    }
+}
@@ -0,0 +1,186 @@
+package com.hiflite.engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Annual real returns and inflation for consecutive calendar years, the input of
+ * {@link ScenarioBank#generateBlockBootstrap}.
+ * <p>
+ * History is converted once from CSV ({@link #convert}, or run this class) into a small binary file that
+ * {@link #load} maps read-only: a 32-byte header, then all real returns, then all inflation rates, as
+ * little-endian doubles. No data ships with the code; point the models at your own file.
+ * <p>
+ * The CSV has a header naming {@code year}, {@code inflation} and either {@code realReturn} or
+ * {@code nominalReturn} (converted to real as (1 + nominal) / (1 + inflation) - 1), in any order, with rates
+ * as decimals (0.035, not 3.5). Years must be consecutive; {@code #} starts a comment line.
+ */
+public final class HistoricalData {
+
+    private static final long MAGIC = 0x48464C_48495354L;   // "HFLHIST"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int H_FORMAT = 8;
+    private static final int H_YEARS = 12;
+    private static final int H_FIRST_YEAR = 16;
+
+    private final int firstYear;
+    private final DoubleBuffer realReturns;
+    private final DoubleBuffer inflation;
+
+    private HistoricalData(int firstYear, DoubleBuffer realReturns, DoubleBuffer inflation) {
+        this.firstYear = firstYear;
+        this.realReturns = realReturns;
+        this.inflation = inflation;
+    }
+
+    /** Converts a CSV file: {@code HistoricalData history.csv history.hfd}. */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: HistoricalData history.csv history.hfd");
+            System.exit(2);
+        }
+        HistoricalData data = convert(Path.of(args[0]), Path.of(args[1]));
+        System.out.printf("%d years (%d-%d), mean real return %.4f, mean inflation %.4f\n", data.getYears(),
+                data.getFirstYear(), data.getFirstYear() + data.getYears() - 1, data.meanRealReturn(), data.meanInflation());
+    }
+
+    /** Maps a file written by {@link #convert}. */
+    public static HistoricalData load(Path file) throws IOException {
+        ByteBuffer map;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (map.capacity() < HEADER_BYTES || map.getLong(0) != MAGIC || map.getInt(H_FORMAT) != FORMAT_VERSION) {
+            throw new IllegalArgumentException(file + " is not a historical data file (convert the CSV with HistoricalData)");
+        }
+        int years = map.getInt(H_YEARS);
+        if (years < 1 || map.capacity() != HEADER_BYTES + 2L * years * Double.BYTES) {
+            throw new IllegalArgumentException(file + " is truncated or corrupt");
+        }
+        int bytes = years * Double.BYTES;
+        return new HistoricalData(map.getInt(H_FIRST_YEAR),
+                map.slice(HEADER_BYTES, bytes).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer(),
+                map.slice(HEADER_BYTES + bytes, bytes).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer());
+    }
+
+    /** Reads {@code csv}, writes it to {@code binary} and returns the loaded result. */
+    public static HistoricalData convert(Path csv, Path binary) throws IOException {
+        List<String> lines = Files.readAllLines(csv, StandardCharsets.UTF_8);
+        int yearColumn = -1;
+        int realColumn = -1;
+        int nominalColumn = -1;
+        int inflationColumn = -1;
+        boolean header = true;
+        List<double[]> rows = new ArrayList<>();   // year, real return, inflation
+
+        for (int n = 0; n < lines.size(); n++) {
+            String line = lines.get(n).strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",", -1);
+            if (header) {
+                for (int c = 0; c < fields.length; c++) {
+                    switch (fields[c].strip().toLowerCase(Locale.ROOT)) {
+                        case "year" -> yearColumn = c;
+                        case "realreturn" -> realColumn = c;
+                        case "nominalreturn" -> nominalColumn = c;
+                        case "inflation" -> inflationColumn = c;
+                        default -> {
+                            // other columns are ignored
+                        }
+                    }
+                }
+                if (yearColumn < 0 || inflationColumn < 0 || (realColumn < 0) == (nominalColumn < 0)) {
+                    throw new IllegalArgumentException(csv + ": header needs year, inflation and one of realReturn or nominalReturn");
+                }
+                header = false;
+                continue;
+            }
+            try {
+                double year = Double.parseDouble(fields[yearColumn].strip());
+                double inf = Double.parseDouble(fields[inflationColumn].strip());
+                double real = realColumn >= 0
+                        ? Double.parseDouble(fields[realColumn].strip())
+                        : (1 + Double.parseDouble(fields[nominalColumn].strip())) / (1 + inf) - 1;
+                if (!rows.isEmpty() && year != rows.get(rows.size() - 1)[0] + 1) {
+                    throw new IllegalArgumentException(csv + " line " + (n + 1) + ": years must be consecutive");
+                }
+                if (!(real > -1) || !(inf > -1)) {
+                    throw new IllegalArgumentException(csv + " line " + (n + 1) + ": rates are decimals above -1");
+                }
+                rows.add(new double[]{year, real, inf});
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException(csv + " line " + (n + 1) + ": " + e.getMessage());
+            }
+        }
+        if (rows.isEmpty()) {
+            throw new IllegalArgumentException(csv + " has no data rows");
+        }
+
+        int years = rows.size();
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + 2 * years * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        out.putLong(0, MAGIC);
+        out.putInt(H_FORMAT, FORMAT_VERSION);
+        out.putInt(H_YEARS, years);
+        out.putInt(H_FIRST_YEAR, (int) rows.get(0)[0]);
+        for (int i = 0; i < years; i++) {
+            out.putDouble(HEADER_BYTES + i * Double.BYTES, rows.get(i)[1]);
+            out.putDouble(HEADER_BYTES + (years + i) * Double.BYTES, rows.get(i)[2]);
+        }
+        Files.write(binary, out.array());
+        return load(binary);
+    }
+
+    public int getFirstYear() {
+        return firstYear;
+    }
+
+    public int getYears() {
+        return realReturns.capacity();
+    }
+
+    public double realReturn(int index) {
+        return realReturns.get(index);
+    }
+
+    public double inflation(int index) {
+        return inflation.get(index);
+    }
+
+    public double meanRealReturn() {
+        return mean(realReturns);
+    }
+
+    public double meanInflation() {
+        return mean(inflation);
+    }
+
+    /** Changes whenever any value does; for cache keys. */
+    public long fingerprint() {
+        SolverCache.Key key = new SolverCache.Key().add("firstYear", firstYear);
+        for (int i = 0; i < getYears(); i++) {
+            key.add("r", realReturns.get(i)).add("i", inflation.get(i));
+        }
+        return key.hash();
+    }
+
+    private static double mean(DoubleBuffer values) {
+        double sum = 0;
+        for (int i = 0; i < values.capacity(); i++) {
+            sum += values.get(i);
+        }
+        return sum / values.capacity();
+    }
+}
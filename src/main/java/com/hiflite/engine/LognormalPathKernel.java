@@ -0,0 +1,39 @@
+package com.hiflite.engine;
+
+/**
+ * Inner loop of the inflation-indexed withdrawal model: growth by (1 + real return) x (1 + inflation)
+ * first, then a withdrawal inflated by that path's own inflation.
+ * <p>
+ * Both operations replay the year-major return and inflation series of a {@link ScenarioBank} over
+ * paths [from, to), found at {@link #REAL_RETURNS} and {@link #INFLATION} of its {@link ScenarioBank#allSeries()}. Pick the implementation with {@code -Dhiflite.kernel=scalar|vector|auto} (default
+ * auto); see {@link Simd}.
+ */
+public interface LognormalPathKernel {
+
+    /** Where the bank passed in as {@code series} keeps each input. */
+    int REAL_RETURNS = 0;
+    int INFLATION = 1;
+
+    /** Per-path critical spending ratio: min over years of compounded growth / compounded withdrawals. */
+    void criticalRatios(double[][] series, int paths, int years, int from, int to, double[] ratios);
+
+    /** Number of paths in [from, to) still above zero after {@code years} years. */
+    long survivors(double[][] series, int paths, int years, int from, int to,
+                   double startPortfolio, double initialSpending);
+
+    /**
+     * {@link #criticalRatios} stepped monthly for {@code steps} months: each month grows by its share of the
+     * year from {@code months} and a twelfth of the year's spending comes out at its end. Spending is indexed
+     * once a year. The ratios still compare with annual spending / portfolio.
+     */
+    void criticalRatios(double[][] series, int paths, MonthlyBridge months, int steps, int from, int to,
+                        double[] ratios);
+
+    /** Number of paths in [from, to) above zero at every month end for {@code steps} months. */
+    long survivors(double[][] series, int paths, MonthlyBridge months, int steps, int from, int to,
+                   double startPortfolio, double initialSpending);
+
+    static LognormalPathKernel select() {
+        return Simd.enabled() ? new VectorLognormalKernel() : new ScalarLognormalKernel();
+    }
+}
@@ -0,0 +1,241 @@
+package com.hiflite.engine;
+
+import com.hiflite.utils.TimingUtils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGenerator.SplittableGenerator;
+import java.util.random.RandomGeneratorFactory;
+
+/**
+ * Runs Monte Carlo paths in parallel on a fork-join pool.
+ * <p>
+ * Paths are cut into fixed-size chunks and every chunk gets its own stream split off a seeded root.
+ * The chunking never depends on the number of threads, so a given seed gives the same answer on
+ * one core or on sixty-four.
+ */
+public class MonteCarloEngine {
+
+    public static final int CHUNK_SIZE = 4096;
+    static final String ALGORITHM = "L64X128MixRandom";
+
+    private final long seed;
+    private final SplittableGenerator root;
+    private final ForkJoinPool pool;
+
+    public MonteCarloEngine(long seed) {
+        this(seed, ForkJoinPool.commonPool());
+    }
+
+    public MonteCarloEngine(long seed, ForkJoinPool pool) {
+        this.seed = seed;
+        this.root = (SplittableGenerator) RandomGeneratorFactory.of(ALGORITHM).create(seed);
+        this.pool = pool;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /** One chunk of work: paths [from, to) using the chunk's private stream. */
+    @FunctionalInterface
+    public interface ChunkTask {
+        long run(int from, int to, RandomGenerator rng);
+    }
+
+    /** One chunk of work over paths [from, to) that needs no randomness of its own, e.g. a scenario bank replay. */
+    @FunctionalInterface
+    public interface RangeTask {
+        long run(int from, int to);
+    }
+
+    /** One chunk of replay over paths [from, to) that produces a partial result, e.g. a sketch of its paths. */
+    @FunctionalInterface
+    public interface RangeResult<T> {
+        T run(int from, int to);
+    }
+
+    /** One path: true when the path counts as a hit (survived, failed, ...). */
+    @FunctionalInterface
+    public interface PathTrial {
+        boolean test(RandomGenerator rng);
+    }
+
+    /**
+     * Runs the task over all chunks of {@code paths} and adds up what the chunks return.
+     * Every call consumes a fresh split of the root, so successive calls see independent draws.
+     */
+    public long sum(int paths, ChunkTask task) {
+        if (paths <= 0) return 0;
+        SplittableGenerator[] streams = nextStreams(chunkCount(paths));
+        return pool.invoke(new ChunkSum(task, streams, paths, 0, streams.length));
+    }
+
+    /** Same as {@link #sum(int, ChunkTask)} for tasks that replay pre-drawn scenarios. */
+    public long sum(int paths, RangeTask task) {
+        return sum(0, paths, task);
+    }
+
+    /** Replay over paths [from, to) only, chunked from {@code from}. */
+    public long sum(int from, int to, RangeTask task) {
+        if (to <= from) return 0;
+        TimingUtils.count(TimingUtils.Counter.PATHS_SIMULATED, to - from);
+        try (var _ = TimingUtils.phase(TimingUtils.KERNEL_PHASE)) {
+            return pool.invoke(new RangeSum(task, from, to, 0, chunkCount(to - from)));
+        }
+    }
+
+    /**
+     * Runs the task over all chunks of {@code paths} for work that simulates nothing, such as filling a scenario
+     * bank: unlike {@link #sum(int, RangeTask)} it counts no paths as simulated and times no kernel phase.
+     */
+    public void forEachChunk(int paths, RangeTask task) {
+        if (paths <= 0) return;
+        pool.invoke(new RangeSum(task, 0, paths, 0, chunkCount(paths)));
+    }
+
+    /**
+     * Runs the task over all chunks of {@code paths} and combines the chunks' results with {@code merge}
+     * along the same fixed binary tree the sums use, left operand first. The merge order never depends on
+     * thread timing, so order-sensitive merges (sketches, floating-point sums) still give the same answer on
+     * any number of threads, and only the results of chunks still being merged are alive at once.
+     */
+    public <T> T reduce(int paths, RangeResult<T> task, BinaryOperator<T> merge) {
+        if (paths <= 0) {
+            throw new IllegalArgumentException("nothing to reduce over " + paths + " paths");
+        }
+        TimingUtils.count(TimingUtils.Counter.PATHS_SIMULATED, paths);
+        try (var _ = TimingUtils.phase(TimingUtils.KERNEL_PHASE)) {
+            return pool.invoke(new RangeReduce<>(task, merge, paths, 0, chunkCount(paths)));
+        }
+    }
+
+    /** Fraction of {@code paths} for which the trial returns true. */
+    public double probability(int paths, PathTrial trial) {
+        long hits = sum(paths, (from, to, rng) -> {
+            long count = 0;
+            for (int i = from; i < to; i++) {
+                if (trial.test(rng)) count++;
+            }
+            return count;
+        });
+        TimingUtils.count(TimingUtils.Counter.PATHS_SIMULATED, paths);
+        return (double) hits / paths;
+    }
+
+    /** A stream of its own for single-path work such as a walk-forward market history. */
+    public synchronized RandomGenerator newStream() {
+        return root.split();
+    }
+
+    public static int chunkCount(int paths) {
+        return (paths + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    // splitting is sequential so chunk i always gets the same stream for a given seed and call order
+    private synchronized SplittableGenerator[] nextStreams(int count) {
+        SplittableGenerator runRoot = root.split();
+        SplittableGenerator[] streams = new SplittableGenerator[count];
+        for (int i = 0; i < count; i++) {
+            streams[i] = runRoot.split();
+        }
+        return streams;
+    }
+
+    @SuppressWarnings("serial")
+    private static final class ChunkSum extends RecursiveTask<Long> {
+        private final ChunkTask task;
+        private final SplittableGenerator[] streams;
+        private final int paths;
+        private final int lo;
+        private final int hi;
+
+        ChunkSum(ChunkTask task, SplittableGenerator[] streams, int paths, int lo, int hi) {
+            this.task = task;
+            this.streams = streams;
+            this.paths = paths;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected Long compute() {
+            if (hi - lo == 1) {
+                int from = lo * CHUNK_SIZE;
+                int to = Math.min(paths, from + CHUNK_SIZE);
+                return task.run(from, to, streams[lo]);
+            }
+            int mid = (lo + hi) >>> 1;
+            ChunkSum left = new ChunkSum(task, streams, paths, lo, mid);
+            left.fork();
+            long right = new ChunkSum(task, streams, paths, mid, hi).compute();
+            return left.join() + right;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static final class RangeSum extends RecursiveTask<Long> {
+        private final RangeTask task;
+        private final int start;
+        private final int end;
+        private final int lo;
+        private final int hi;
+
+        RangeSum(RangeTask task, int start, int end, int lo, int hi) {
+            this.task = task;
+            this.start = start;
+            this.end = end;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected Long compute() {
+            if (hi - lo == 1) {
+                int from = start + lo * CHUNK_SIZE;
+                return task.run(from, Math.min(end, from + CHUNK_SIZE));
+            }
+            int mid = (lo + hi) >>> 1;
+            RangeSum left = new RangeSum(task, start, end, lo, mid);
+            left.fork();
+            long right = new RangeSum(task, start, end, mid, hi).compute();
+            return left.join() + right;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static final class RangeReduce<T> extends RecursiveTask<T> {
+        private final RangeResult<T> task;
+        private final BinaryOperator<T> merge;
+        private final int paths;
+        private final int lo;
+        private final int hi;
+
+        RangeReduce(RangeResult<T> task, BinaryOperator<T> merge, int paths, int lo, int hi) {
+            this.task = task;
+            this.merge = merge;
+            this.paths = paths;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected T compute() {
+            if (hi - lo == 1) {
+                int from = lo * CHUNK_SIZE;
+                return task.run(from, Math.min(paths, from + CHUNK_SIZE));
+            }
+            int mid = (lo + hi) >>> 1;
+            RangeReduce<T> left = new RangeReduce<>(task, merge, paths, lo, mid);
+            left.fork();
+            T right = new RangeReduce<>(task, merge, paths, mid, hi).compute();
+            return merge.apply(left.join(), right);
+        }
+    }
+}
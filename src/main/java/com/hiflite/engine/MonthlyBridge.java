@@ -0,0 +1,180 @@
+package com.hiflite.engine;
+
+import com.hiflite.utils.TimingUtils;
+
+import java.util.SplittableRandom;
+
+/**
+ * Twelve monthly steps inside every year of a {@link ScenarioBank}, for models that withdraw and check monthly.
+ * <p>
+ * The bank keeps its annual values. A path's months in a year are a Brownian bridge pinned to that year's
+ * gross growth G: month m grows by G^(1/12) exp(s (z_m - mean z)), where s is the annual volatility over
+ * sqrt(12) and z_0 .. z_11 are N(0,1) draws. For lognormal returns that is exactly the distribution of twelve
+ * independent months given their product, and the shape exp(s (z_m - mean z)) does not depend on G. The months
+ * always compound back to the bank's year, so a monthly run sees the same annual markets as an annual one;
+ * only the path inside each year is new.
+ * <p>
+ * Twelve fresh draws and exps per path and year would cost far more than the walk itself, and the months of a
+ * whole bank would not fit in memory. So the shapes are drawn once, {@link #SHAPES} of them, and every (path,
+ * year) picks one by a hash of its seed, path and year. Each year's months then cost one 12th root and twelve
+ * multiplies, and they are the same whatever the chunking or number of threads. Every (path, year) still gets
+ * exactly the right distribution; the price is that the shape pool is shared, about 45 uses per shape in a bank
+ * of 100,000 paths x 30 years, a weak dependence between paths that is well below the Monte Carlo error.
+ * <p>
+ * A year of level monthly withdrawals only needs the months through one number per path, the withdrawals discounted
+ * to the start of the year ({@link #discountSums}). With month m growing by x^-1 s_m, where x = G^(-1/12), that is a
+ * polynomial in x whose coefficients depend on the shape alone, so they are kept next to the shapes and a year costs
+ * one root and eleven multiply-adds, with no months written out.
+ */
+public final class MonthlyBridge {
+
+    public static final int MONTHS = 12;
+    public static final int SHAPES = 1 << 16;
+
+    private static final int SHAPE_BITS = Integer.numberOfTrailingZeros(SHAPES);
+    private static final int BLOCK = MonteCarloEngine.CHUNK_SIZE;
+    // a month's shapes, then the first BLOCK of them again so a run of BLOCK never wraps
+    private static final int STRIDE = SHAPES + BLOCK;
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final long seed;
+    private final double monthlyVolatility;
+    private final double[] shapes;   // month m of shape i is shapes[m * STRIDE + i]; a shape's months multiply to 1
+    // 1 / (s_0 ... s_(m-1)) of shape i at discounts[(m - 1) * STRIDE + i], months 1 to 11; month 0's is 1, month 12's 1
+    private final double[] discounts;
+
+    private MonthlyBridge(long seed, double monthlyVolatility) {
+        this.seed = seed;
+        this.monthlyVolatility = monthlyVolatility;
+        this.shapes = new double[MONTHS * STRIDE];
+        this.discounts = new double[(MONTHS - 1) * STRIDE];
+
+        SplittableRandom rng = new SplittableRandom(seed);
+        double[] z = new double[MONTHS];
+        for (int i = 0; i < SHAPES; i++) {
+            GaussianSampler.fill(rng, z, 0, MONTHS);
+            double mean = 0;
+            for (int m = 0; m < MONTHS; m++) {
+                mean += z[m];
+            }
+            mean /= MONTHS;
+            double discount = 1;
+            for (int m = 0; m < MONTHS; m++) {
+                shapes[m * STRIDE + i] = Math.exp(monthlyVolatility * (z[m] - mean));
+                if (m < MONTHS - 1) {
+                    discount /= shapes[m * STRIDE + i];
+                    discounts[m * STRIDE + i] = discount;
+                }
+            }
+        }
+        for (int m = 0; m < MONTHS; m++) {
+            System.arraycopy(shapes, m * STRIDE, shapes, m * STRIDE + SHAPES, BLOCK);
+        }
+        for (int m = 0; m < MONTHS - 1; m++) {
+            System.arraycopy(discounts, m * STRIDE, discounts, m * STRIDE + SHAPES, BLOCK);
+        }
+        TimingUtils.count(TimingUtils.Counter.RNG_DRAWS, (long) SHAPES * MONTHS);
+    }
+
+    /**
+     * Months for the paths of {@code bank}, with the volatility of its {@code returnSeries} spread over the year.
+     * The seed comes from a stream of {@code engine}, so a fixed engine seed fixes the months too.
+     */
+    public static MonthlyBridge of(MonteCarloEngine engine, ScenarioBank bank, int returnSeries) {
+        return of(engine, bank.getSeries(returnSeries).getVolatility());
+    }
+
+    public static MonthlyBridge of(MonteCarloEngine engine, double annualVolatility) {
+        return new MonthlyBridge(engine.newStream().nextLong(), annualVolatility / Math.sqrt(MONTHS));
+    }
+
+    public double getMonthlyVolatility() {
+        return monthlyVolatility;
+    }
+
+    /**
+     * Monthly gross growth of paths [from, to) in bank year {@code year}: {@code growth[m * (to - from) + k]} is
+     * month m of path from + k, and the twelve months of path from + k compound to {@code annualGrowth[k]}.
+     */
+    public void monthlyGrowth(int year, int from, int to, double[] annualGrowth, double[] growth) {
+        int count = to - from;
+        double[] roots = roots(annualGrowth, count, 1);
+
+        // each block of paths takes a run of consecutive shapes from a random start, so every month is one
+        // streaming multiply; the start depends on (year, block) alone, not on the chunking
+        long yearKey = seed + (year + 1) * 0xC2B2AE3D27D4EB4FL;
+        for (int block = from / BLOCK; block * BLOCK < to; block++) {
+            int blockStart = block * BLOCK;
+            int lo = Math.max(from, blockStart);
+            int hi = Math.min(to, blockStart + BLOCK);
+            int start = shape(yearKey + block * 0x9E3779B97F4A7C15L) + lo - blockStart;
+            for (int m = 0; m < MONTHS; m++) {
+                int source = m * STRIDE + start - lo;
+                for (int path = lo, cell = m * count + lo - from; path < hi; path++, cell++) {
+                    growth[cell] = roots[path - from] * shapes[source + path];
+                }
+            }
+        }
+    }
+
+    /**
+     * For level withdrawals every month of bank year {@code year}, the months of paths [from, to) as
+     * {@code sums[offset + k]}: what 1 withdrawn every month comes to, discounted to the start of the year by the
+     * growth of path from + k's months, the ones before each withdrawal. Withdrawals at the start of each month
+     * ({@code growFirst} false) are discounted by the months before it, so the first counts 1; at the end of each
+     * month by their own month as well. A balance that starts the year at b then ends it at (b - draw x sum) x
+     * {@code annualGrowth[k]}, and is above zero at every month exactly when b - draw x sum is.
+     */
+    public void discountSums(int year, int from, int to, double[] annualGrowth, boolean growFirst, double[] sums,
+                             int offset) {
+        double[] roots = roots(annualGrowth, to - from, -1);   // the x of each path's polynomial
+
+        // the same shapes monthlyGrowth picks; Horner's rule from month 11 down, a path at a time
+        long yearKey = seed + (year + 1) * 0xC2B2AE3D27D4EB4FL;
+        for (int block = from / BLOCK; block * BLOCK < to; block++) {
+            int blockStart = block * BLOCK;
+            int lo = Math.max(from, blockStart);
+            int hi = Math.min(to, blockStart + BLOCK);
+            int source = shape(yearKey + block * 0x9E3779B97F4A7C15L) - blockStart;
+            for (int path = lo, cell = offset + lo - from; path < hi; path++, cell++) {
+                double x = roots[path - from];
+                double sum = discounts[(MONTHS - 2) * STRIDE + source + path];
+                if (growFirst) {
+                    sum += x;
+                }
+                for (int m = MONTHS - 3; m >= 0; m--) {
+                    sum = sum * x + discounts[m * STRIDE + source + path];
+                }
+                sums[cell] = growFirst ? sum * x : 1 + sum * x;
+            }
+        }
+    }
+
+    // annualGrowth[k]^(power / 12) for [0, count), in scratch space: one root per path and year against twelve months
+    // of work, so scalar Math.exp, an intrinsic; a vector exp here would cost more to warm up than it saves in a run
+    private static double[] roots(double[] annualGrowth, int count, double power) {
+        double[] roots = SCRATCH.get().reset(count).roots;
+        for (int k = 0; k < count; k++) {
+            roots[k] = Math.exp(power * Math.log(annualGrowth[k]) / MONTHS);
+        }
+        return roots;
+    }
+
+    // SplitMix64's finalizer; the top bits pick the shape
+    private static int shape(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return (int) ((z ^ (z >>> 31)) >>> (64 - SHAPE_BITS));
+    }
+
+    private static final class Scratch {
+        double[] roots = new double[0];
+
+        Scratch reset(int n) {
+            if (roots.length < n) {
+                roots = new double[n];
+            }
+            return this;
+        }
+    }
+}
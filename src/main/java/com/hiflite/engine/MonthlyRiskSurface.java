@@ -0,0 +1,415 @@
+package com.hiflite.engine;
+
+import java.util.Arrays;
+
+/**
+ * Risk of failure from every month of one bank year, for a monthly {@link BatchKernel} with outside income, built
+ * once from a scenario bank.
+ * <p>
+ * {@link RiskSurface} needs balances linear in (balance, spending), which outside income breaks. A monthly
+ * withdraw-then-grow kernel still has a simple structure: from step t a path survives exactly when its starting
+ * balance is above
+ * <pre>   sum over months m &gt;= t of  D(t, m) max(0, spending a_m - c_m)</pre>
+ * where a_m is month m's withdrawal per unit of spending, c_m its income and D(t, m) the discount by the growth of
+ * the months in between. Spending and income state only move at year ends, so every start in the same bank year
+ * shares a_m and c_m, and the sum is a handful of hinges in spending per path: one per month of the first year,
+ * and one per later year (or per month of a year whose income changes inside it). Risk at any balance and
+ * spending, the spending for a target risk and the balance at a trigger risk are then arithmetic on the hinges,
+ * with no replay. They answer what {@link BatchKernel#survivors} would count for the same bank, up to rounding.
+ * <p>
+ * Build them through a {@link #walk}, which shares the months' discounts between start years. Each path's sum
+ * from each month is also kept as one line, its hinges' total weight and weighted kinks: at or above the path's
+ * highest kink every hinge is active, so the sum is that line. Queries at a walk-forward's spending are mostly
+ * there and cost O(1) per path; only paths with a kink above the spending are summed hinge by hinge.
+ * <p>
+ * Queries hold no lock on the surface, so they can run inside an engine task, as {@link #survivors} does for
+ * estimates, and next to each other. Only a chunk's gathered hinges are shared between queries, and the chunk
+ * guards them itself; within one query every chunk belongs to a single engine task.
+ */
+public final class MonthlyRiskSurface {
+
+    private static final int MONTHS = MonthlyBridge.MONTHS;
+
+    private final MonteCarloEngine engine;
+    private final int year;
+    private final int toStep;
+    private final int paths;
+    // [from / CHUNK_SIZE], the engine's own chunks; null once the walk builds past it
+    private volatile Chunk[] chunks;
+    // the last risk asked, which a walk-forward that reports the risk it has just checked asks again
+    private volatile Asked asked;
+
+    private record Asked(int step, double balance, double spending, double risk) {
+    }
+
+    private MonthlyRiskSurface(MonteCarloEngine engine, int year, int toStep, int paths, Chunk[] chunks) {
+        this.engine = engine;
+        this.year = year;
+        this.toStep = toStep;
+        this.paths = paths;
+        this.chunks = chunks;
+    }
+
+    /**
+     * The surfaces of one walk-forward over steps up to {@code toStep}. The months' discounts depend on the bank
+     * alone, so they are stepped once here, in one parallel pass; each start year's surface then costs about an
+     * annual pass.
+     *
+     * @param spendingIndex starting index for {@link BatchKernel.SpendingRule#indexed} rules, as for
+     *                      {@link BatchKernel#survivors}
+     */
+    public static Walk walk(MonteCarloEngine engine, BatchKernel kernel, ScenarioBank bank, int toStep,
+                            double spendingIndex) {
+        double[][] series = bank.allSeries();
+        int paths = bank.getPaths();
+        int years = (toStep + MONTHS - 1) / MONTHS;
+        double[] yearSums = new double[years * paths];
+        engine.sum(paths, (from, to) -> {
+            kernel.monthlyDiscounts(series, paths, 0, years, from, to, yearSums);
+            return 0;
+        });
+        return new Walk(engine, kernel, bank, toStep, spendingIndex, yearSums);
+    }
+
+    /** Builds the surface for each start year of a walk-forward; see {@link #walk}. */
+    public static final class Walk {
+        private final MonteCarloEngine engine;
+        private final BatchKernel kernel;
+        private final ScenarioBank bank;
+        private final int toStep;
+        private final double spendingIndex;
+        private final double[] yearSums;   // [year * paths + path]
+        private MonthlyRiskSurface last;
+
+        private Walk(MonteCarloEngine engine, BatchKernel kernel, ScenarioBank bank, int toStep, double spendingIndex,
+                     double[] yearSums) {
+            this.engine = engine;
+            this.kernel = kernel;
+            this.bank = bank;
+            this.toStep = toStep;
+            this.spendingIndex = spendingIndex;
+            this.yearSums = yearSums;
+        }
+
+        /**
+         * The surface for starts in bank {@code year}, in one parallel pass over the bank. A walk-forward only needs
+         * its current year, so this is built in the storage of the surface returned before, which can no longer be
+         * used.
+         */
+        public synchronized MonthlyRiskSurface at(int year) {
+            double[][] series = bank.allSeries();
+            int paths = bank.getPaths();
+            Chunk[] chunks = last != null ? last.chunks : new Chunk[MonteCarloEngine.chunkCount(paths)];
+            if (last != null) {
+                last.chunks = null;
+            }
+            int laterYears = (toStep - 1) / MONTHS - year;
+            engine.sum(paths, (from, to) -> {
+                int c = from / MonteCarloEngine.CHUNK_SIZE;
+                if (chunks[c] == null || chunks[c].laterWeight.length < laterYears * (to - from)) {
+                    chunks[c] = new Chunk(to - from, laterYears);
+                } else {
+                    chunks[c].clear();
+                }
+                kernel.riskHinges(series, paths, year, toStep, from, to, spendingIndex, yearSums, chunks[c]);
+                chunks[c].summarize();
+                return 0;
+            });
+            last = new MonthlyRiskSurface(engine, year, toStep, paths, chunks);
+            return last;
+        }
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    public int getPaths() {
+        return paths;
+    }
+
+    /** Fraction of paths that fail from {@code step} on, starting at {@code balance} and spending {@code spending}. */
+    public double risk(int step, double balance, double spending) {
+        Asked last = asked;
+        if (last != null && step == last.step() && balance == last.balance() && spending == last.spending()) {
+            return last.risk();
+        }
+        Chunk[] chunks = chunks();
+        int month = month(step);
+        long failed = engine.sum(paths,
+                (from, to) -> chunk(chunks, from).failures(month, balance, spending, 0, to - from));
+        double risk = (double) failed / paths;
+        asked = new Asked(step, balance, spending, risk);
+        return risk;
+    }
+
+    /**
+     * Paths in [from, to) that survive from {@code step}, starting at {@code balance} and spending
+     * {@code spending}: {@link BatchKernel#survivors} read off the surface, for any range of paths.
+     */
+    public long survivors(int step, double balance, double spending, int from, int to) {
+        Chunk[] chunks = chunks();
+        int month = month(step);
+        long survived = 0;
+        for (int start = from; start < to; ) {
+            int chunkStart = start - start % MonteCarloEngine.CHUNK_SIZE;
+            int end = Math.min(to, chunkStart + MonteCarloEngine.CHUNK_SIZE);
+            survived += end - start
+                    - chunk(chunks, start).failures(month, balance, spending, start - chunkStart, end - chunkStart);
+            start = end;
+        }
+        return survived;
+    }
+
+    /** Highest spending from {@code balance} at {@code step} whose risk is still below {@code targetRisk}. */
+    public double spendingForRisk(int step, double balance, double targetRisk) {
+        Chunk[] chunks = chunks();
+        int month = month(step);
+        double[] spending = new double[paths];
+        engine.sum(paths, (from, to) -> chunk(chunks, from).criticalSpending(month, balance, spending, from));
+        return PosCurve.spendingForPoS(spending, 1.0, 1 - targetRisk);
+    }
+
+    /** Lowest balance at {@code step} at which {@code spending} gets down to {@code targetRisk}. */
+    public double balanceForRisk(int step, double spending, double targetRisk) {
+        Chunk[] chunks = chunks();
+        int month = month(step);
+        double[] ratios = new double[paths];
+        engine.sum(paths, (from, to) -> chunk(chunks, from).inverseBalances(month, spending, ratios, from));
+        return PosCurve.portfolioForPoS(ratios, 1.0, 1 - targetRisk);
+    }
+
+    private Chunk[] chunks() {
+        Chunk[] chunks = this.chunks;
+        if (chunks == null) {
+            throw new IllegalStateException("the walk has built a later surface in this one's storage");
+        }
+        return chunks;
+    }
+
+    private int month(int step) {
+        if (step < year * MONTHS || step >= Math.min((year + 1) * MONTHS, toStep)) {
+            throw new IllegalArgumentException("step " + step + " is not in bank year " + year);
+        }
+        return step - year * MONTHS;
+    }
+
+    private static Chunk chunk(Chunk[] chunks, int from) {
+        return chunks[from / MonteCarloEngine.CHUNK_SIZE];
+    }
+
+    /**
+     * One engine chunk's hinges, filled by {@link BatchKernel#riskHinges}, a month or a hinge at a time so every
+     * query runs across the paths. Path k's month m of the first year is entry m * count + k: the discount from the
+     * start of the year to the start of the month, and the month's kink; its hinge is discount x perSpending[k] x
+     * max(0, spending - kink). Later hinge h of path k is entry h * count + k of laterWeight and laterKink.
+     * <p>
+     * A path summed hinge by hinge is summed again by most queries after it, so the first one gathers its hinges
+     * next to each other, for the rest of the start year: the later ones, then the first year's weighted months.
+     */
+    static final class Chunk {
+        final int count;
+        final double[] discount;
+        final double[] perSpending;   // the first year's withdrawal per unit of spending, a month's share
+        final double[] kink;
+        final int[] doomed;   // starts before this month of the first year fail at any balance
+        double[] laterWeight;
+        double[] laterKink;
+        private int laterHinges;
+        // [k], the hinges added up, the later ones as the kernel writes them and then the first year's months
+        // backwards: total weight, weight x kink and the highest kink
+        private final double[] weights;
+        private final double[] weighted;
+        private final double[] highest;
+        // [k], where path k's gathered hinges start in pathWeight and pathKink, or -1
+        private final int[] gathered;
+        private double[] pathWeight = new double[0];
+        private double[] pathKink = new double[0];
+        private int gatheredHinges;
+        // [m * count + k], path k's hinges from month m on. At spending at or above topKink all are active and the
+        // path fails exactly when balance <= spending x slope - intercept, its line over the month's discount; a
+        // doomed start's topKink is infinite, so it never takes the line
+        private final double[] slope;
+        private final double[] intercept;
+        private final double[] topKink;
+
+        /** Room for {@code laterYears} later hinges to start with; a year whose income changes takes more. */
+        Chunk(int count, int laterYears) {
+            this.count = count;
+            this.discount = new double[MONTHS * count];
+            this.perSpending = new double[count];
+            this.kink = new double[MONTHS * count];
+            this.doomed = new int[count];
+            this.laterWeight = new double[laterYears * count];
+            this.laterKink = new double[laterYears * count];
+            this.weights = new double[count];
+            this.weighted = new double[count];
+            this.highest = new double[count];
+            this.slope = new double[MONTHS * count];
+            this.intercept = new double[MONTHS * count];
+            this.topKink = new double[MONTHS * count];
+            this.gathered = new int[count];
+            Arrays.fill(gathered, -1);
+        }
+
+        // ready for another start year
+        void clear() {
+            Arrays.fill(doomed, 0);
+            Arrays.fill(weights, 0.0);
+            Arrays.fill(weighted, 0.0);
+            Arrays.fill(highest, Double.NEGATIVE_INFINITY);
+            Arrays.fill(gathered, -1);
+            laterHinges = 0;
+            gatheredHinges = 0;
+        }
+
+        /** Path k's later hinge of {@code weight} at {@code kink}, into its line; the kernel stores the hinge too. */
+        void addLater(int k, double weight, double kink) {
+            weights[k] += weight;
+            weighted[k] += weight * kink;
+            highest[k] = Math.max(highest[k], kink);
+        }
+
+        /** Room for a later year's hinges, {@code runs} of them; returns the index of the first. */
+        int addYear(int runs) {
+            int first = laterHinges;
+            laterHinges += runs;
+            if (laterHinges * count > laterWeight.length) {
+                int length = Math.max(laterHinges * count, 2 * laterWeight.length);
+                laterWeight = Arrays.copyOf(laterWeight, length);
+                laterKink = Arrays.copyOf(laterKink, length);
+            }
+            return first;
+        }
+
+        /** Each month's line, once the hinges are in: the first year's months onto the later hinges', backwards. */
+        void summarize() {
+            for (int month = MONTHS - 1; month >= 0; month--) {
+                for (int k = 0, at = month * count; k < count; k++, at++) {
+                    double w = discount[at] * perSpending[k];
+                    weights[k] += w;
+                    weighted[k] += w * kink[at];
+                    highest[k] = Math.max(highest[k], kink[at]);
+                    slope[at] = weights[k] / discount[at];
+                    intercept[at] = weighted[k] / discount[at];
+                    topKink[at] = doomed[k] > month ? Double.POSITIVE_INFINITY : highest[k];
+                }
+            }
+        }
+
+        // failures among [lo, hi) of the chunk's paths
+        synchronized long failures(int month, double balance, double spending, int lo, int hi) {
+            long failed = 0;
+            for (int k = lo, at = month * count + lo; k < hi; k++, at++) {
+                boolean fails = spending >= topKink[at]
+                        ? balance <= spending * slope[at] - intercept[at]
+                        : doomed[k] > month || balance * discount[at] <= hingeSum(month, k, spending);
+                failed += fails ? 1 : 0;
+            }
+            return failed;
+        }
+
+        // path k's sum from month on at spending, hinge by hinge, for spending below its highest kink
+        private double hingeSum(int month, int k, double spending) {
+            int later = gather(k);
+            int months = later + laterHinges;
+            double sum = 0;
+            for (int h = later; h < months; h++) {
+                sum += pathWeight[h] * Math.max(0, spending - pathKink[h]);
+            }
+            for (int h = months + month; h < months + MONTHS; h++) {
+                sum += pathWeight[h] * Math.max(0, spending - pathKink[h]);
+            }
+            return sum;
+        }
+
+        // where path k's gathered hinges start, gathering them the first time
+        private int gather(int k) {
+            if (gathered[k] < 0) {
+                int hinges = laterHinges + MONTHS;
+                if ((gatheredHinges + 1) * hinges > pathWeight.length) {
+                    int length = Math.max((gatheredHinges + 1) * hinges, 2 * pathWeight.length);
+                    pathWeight = Arrays.copyOf(pathWeight, length);
+                    pathKink = Arrays.copyOf(pathKink, length);
+                }
+                int at = gatheredHinges++ * hinges;
+                for (int h = 0, i = k; h < laterHinges; h++, i += count) {
+                    pathWeight[at + h] = laterWeight[i];
+                    pathKink[at + h] = laterKink[i];
+                }
+                for (int m = 0, i = k; m < MONTHS; m++, i += count) {
+                    pathWeight[at + laterHinges + m] = discount[i] * perSpending[k];
+                    pathKink[at + laterHinges + m] = kink[i];
+                }
+                gathered[k] = at;
+            }
+            return gathered[k];
+        }
+
+        // discount / sum at spending for every path, into ratios[from + k]: a path survives exactly when 1 / balance
+        // is below it, the form PosCurve reads with spending 1
+        synchronized long inverseBalances(int month, double spending, double[] ratios, int from) {
+            for (int k = 0, at = month * count; k < count; k++, at++) {
+                if (doomed[k] > month) {
+                    ratios[from + k] = 0;
+                } else if (spending >= topKink[at]) {
+                    ratios[from + k] = 1 / (spending * slope[at] - intercept[at]);
+                } else {
+                    ratios[from + k] = discount[at] / hingeSum(month, k, spending);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Each path's highest spending that survives from month with balance, into spending[from + k]: the root of
+         * its sum, a convex piecewise-linear function of spending. With all hinges active the sum is the month's
+         * line, below the real one, so the line's root is an upper bound, and the root itself when it is at or above
+         * the path's highest kink. Otherwise Newton from there: every later tangent lies below the sum too, so each
+         * step stays at or above the root, and the steps end once the path's active hinges are right.
+         */
+        synchronized long criticalSpending(int month, double balance, double[] spending, int from) {
+            for (int k = 0, at = month * count; k < count; k++, at++) {
+                if (doomed[k] > month || !(balance > 0)) {
+                    spending[from + k] = Double.NEGATIVE_INFINITY;
+                    continue;
+                }
+                if (!(slope[at] > 0)) {
+                    spending[from + k] = Double.POSITIVE_INFINITY;   // nothing is ever drawn
+                    continue;
+                }
+                double s = (balance + intercept[at]) / slope[at];
+                if (s >= topKink[at]) {
+                    spending[from + k] = s;
+                    continue;
+                }
+                int later = gather(k);
+                int months = later + laterHinges;
+                double target = balance * discount[at];
+                for (int step = 0; step < 64; step++) {
+                    double value = 0;
+                    double slope = 0;
+                    for (int h = later; h < months; h++) {
+                        double above = s - pathKink[h];
+                        double active = above > 0 ? pathWeight[h] : 0;
+                        value += active * above;
+                        slope += active;
+                    }
+                    for (int h = months + month; h < months + MONTHS; h++) {
+                        double above = s - pathKink[h];
+                        double active = above > 0 ? pathWeight[h] : 0;
+                        value += active * above;
+                        slope += active;
+                    }
+                    double next = s - (value - target) / slope;
+                    if (value <= target || !(next < s)) {
+                        break;
+                    }
+                    s = next;
+                }
+                spending[from + k] = s;
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.hiflite.engine;
+
+import java.util.Arrays;
+
+/**
+ * Probability of success as a function of spending / portfolio, built once from a simulation.
+ * <p>
+ * Holds the sorted per-path critical spending ratios: a path survives exactly when
+ * spending / portfolio is below its ratio. Every guardrail question is then a binary search:
+ * PoS at (portfolio, spending), spending for a target PoS, portfolio for a target PoS.
+ * <p>
+ * The PoS comparisons follow the bisection solvers this replaces: spending must give PoS
+ * strictly above the target, a trigger portfolio must give PoS at or above it.
+ */
+public class PosCurve {
+
+    private final double[] ratios;   // ascending
+
+    private PosCurve(double[] sortedRatios) {
+        this.ratios = sortedRatios;
+    }
+
+    /** Takes ownership of {@code ratios} and sorts it in place. */
+    public static PosCurve fromCriticalRatios(double[] ratios) {
+        Arrays.sort(ratios);
+        return new PosCurve(ratios);
+    }
+
+    /** Wraps ratios that are already ascending, e.g. read back from a {@link SolverCache}. */
+    static PosCurve fromSortedRatios(double[] sortedRatios) {
+        return new PosCurve(sortedRatios);
+    }
+
+    double[] sortedRatios() {
+        return ratios;
+    }
+
+    public int getPaths() {
+        return ratios.length;
+    }
+
+    /** Fraction of paths that survive starting at {@code portfolio} and spending {@code spending}. */
+    public double pos(double portfolio, double spending) {
+        return (double) survivors(spending / portfolio) / ratios.length;
+    }
+
+    /** Highest initial spending from {@code portfolio} whose PoS is still above {@code targetPoS}. */
+    public double spendingForPoS(double portfolio, double targetPoS) {
+        int needed = survivorsNeeded(ratios.length, targetPoS, true);
+        if (needed > ratios.length) return 0;
+        return spendingBelow(ratios[ratios.length - needed], portfolio);
+    }
+
+    /** Lowest portfolio at which {@code spending} reaches {@code targetPoS}. */
+    public double portfolioForPoS(double spending, double targetPoS) {
+        int needed = survivorsNeeded(ratios.length, targetPoS, false);
+        if (needed == 0) return 0;
+        if (needed > ratios.length) return Double.POSITIVE_INFINITY;
+        return portfolioAbove(ratios[ratios.length - needed], spending);
+    }
+
+    /**
+     * {@link #spendingForPoS} of the curve these ratios would make, for a single question: only the one ratio it
+     * reads is put in place, in linear time instead of a sort. Reorders {@code ratios}.
+     */
+    static double spendingForPoS(double[] ratios, double portfolio, double targetPoS) {
+        int needed = survivorsNeeded(ratios.length, targetPoS, true);
+        if (needed > ratios.length) return 0;
+        return spendingBelow(select(ratios, ratios.length - needed), portfolio);
+    }
+
+    /** {@link #portfolioForPoS} of the curve these ratios would make, selecting its ratio the same way. */
+    static double portfolioForPoS(double[] ratios, double spending, double targetPoS) {
+        int needed = survivorsNeeded(ratios.length, targetPoS, false);
+        if (needed == 0) return 0;
+        if (needed > ratios.length) return Double.POSITIVE_INFINITY;
+        return portfolioAbove(select(ratios, ratios.length - needed), spending);
+    }
+
+    // a path needs spending / portfolio strictly below its ratio, so spending goes just below the needed-th
+    // largest ratio; the division can round back up onto it, hence the loop
+    private static double spendingBelow(double ratio, double portfolio) {
+        double spending = Math.nextDown(portfolio * ratio);
+        while (spending > 0 && spending / portfolio >= ratio) spending = Math.nextDown(spending);
+        return Math.max(spending, 0);
+    }
+
+    // the needed-th largest critical ratio must stay strictly above spending / portfolio
+    private static double portfolioAbove(double ratio, double spending) {
+        if (!(ratio > 0)) return Double.POSITIVE_INFINITY;
+        double portfolio = Math.nextUp(spending / ratio);
+        while (spending / portfolio >= ratio) portfolio = Math.nextUp(portfolio);
+        return portfolio;
+    }
+
+    // the value a sort would put at index, partitioning around medians of three until it is in place
+    private static double select(double[] values, int index) {
+        int lo = 0;
+        int hi = values.length - 1;
+        while (lo < hi) {
+            double a = values[lo];
+            double b = values[(lo + hi) >>> 1];
+            double c = values[hi];
+            double pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+                if (i <= j) {
+                    double swap = values[i];
+                    values[i++] = values[j];
+                    values[j--] = swap;
+                }
+            }
+            // [lo, j] is at most the pivot, [i, hi] at least, and anything between equals it
+            if (index <= j) hi = j;
+            else if (index >= i) lo = i;
+            else return values[index];
+        }
+        return values[index];
+    }
+
+    // number of ratios strictly greater than x
+    private int survivors(double x) {
+        int lo = 0;
+        int hi = ratios.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ratios[mid] <= x) lo = mid + 1;
+            else hi = mid;
+        }
+        return ratios.length - lo;
+    }
+
+    // fewest surviving paths for which survivors / paths compares to targetPoS the way the bisection did
+    private static int survivorsNeeded(int paths, double targetPoS, boolean strictlyAbove) {
+        int needed = (int) Math.floor(targetPoS * paths);
+        while (needed > 0 && passes(needed - 1, paths, targetPoS, strictlyAbove)) needed--;
+        while (needed <= paths && !passes(needed, paths, targetPoS, strictlyAbove)) needed++;
+        return needed;
+    }
+
+    private static boolean passes(int survivors, int paths, double targetPoS, boolean strictlyAbove) {
+        double pos = (double) survivors / paths;
+        return strictlyAbove ? pos > targetPoS : pos >= targetPoS;
+    }
+}
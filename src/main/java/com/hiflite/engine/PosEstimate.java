@@ -0,0 +1,120 @@
+package com.hiflite.engine;
+
+/**
+ * A Monte Carlo probability together with its standard error and the number of paths it cost.
+ * <p>
+ * Variance-reduced estimates also carry their variance-reduction factor: plain Monte Carlo variance
+ * p(1 - p) / paths divided by the achieved variance, i.e. how many times more plain paths the same
+ * precision would have cost.
+ */
+public final class PosEstimate {
+
+    private final double probability;
+    private final double standardError;
+    private final long paths;
+    private final double varianceReduction;
+
+    public PosEstimate(double probability, double standardError, long paths) {
+        this(probability, standardError, paths, 1.0);
+    }
+
+    public PosEstimate(double probability, double standardError, long paths, double varianceReduction) {
+        this.probability = probability;
+        this.standardError = standardError;
+        this.paths = paths;
+        this.varianceReduction = varianceReduction;
+    }
+
+    /** Plain Monte Carlo: binomial standard error of {@code hits} out of {@code paths}. */
+    public static PosEstimate binomial(long hits, long paths) {
+        double p = (double) hits / paths;
+        return new PosEstimate(p, Math.sqrt(p * (1 - p) / paths), paths);
+    }
+
+    /**
+     * Control-variate estimate of the fraction of {@code survived} paths, given a per-path {@code control}
+     * with known expectation {@code controlMean}. Paths are averaged in consecutive groups of
+     * {@code unitSize} first (2 for antithetic pairs), and the groups are the independent samples.
+     * The coefficient is the sample regression slope, so the estimate is unbiased only as the number of
+     * groups grows, which is harmless at these sizes.
+     */
+    public static PosEstimate controlled(boolean[] survived, double[] control, double controlMean, int unitSize) {
+        int units = survived.length / unitSize;
+        double sumX = 0, sumY = 0, sumXX = 0, sumYY = 0, sumXY = 0;
+        for (int u = 0; u < units; u++) {
+            double x = 0, y = 0;
+            for (int i = u * unitSize, end = i + unitSize; i < end; i++) {
+                x += survived[i] ? 1 : 0;
+                y += control[i];
+            }
+            x /= unitSize;
+            y /= unitSize;
+            sumX += x;
+            sumY += y;
+            sumXX += x * x;
+            sumYY += y * y;
+            sumXY += x * y;
+        }
+        double meanX = sumX / units;
+        double meanY = sumY / units;
+        double varX = sumXX / units - meanX * meanX;
+        double varY = sumYY / units - meanY * meanY;
+        double covXY = sumXY / units - meanX * meanY;
+        double beta = varY > 0 ? covXY / varY : 0;
+
+        double p = meanX - beta * (meanY - controlMean);
+        double residualVariance = Math.max(varX - beta * covXY, 0) / units;
+        long paths = (long) units * unitSize;
+        double plainVariance = meanX * (1 - meanX) / paths;
+        double factor = residualVariance > 0 ? plainVariance / residualVariance : Double.POSITIVE_INFINITY;
+        return new PosEstimate(p, Math.sqrt(residualVariance), paths, factor);
+    }
+
+    public double getProbability() {
+        return probability;
+    }
+
+    public double getStandardError() {
+        return standardError;
+    }
+
+    public long getPaths() {
+        return paths;
+    }
+
+    /** 1 for plain Monte Carlo. */
+    public double getVarianceReduction() {
+        return varianceReduction;
+    }
+
+    /** Lower end of the Wilson score interval at {@code z} standard deviations (binomial estimates). */
+    public double wilsonLower(double z) {
+        return wilsonCentre(z) - wilsonHalfWidth(z);
+    }
+
+    /** Upper end of the Wilson score interval at {@code z} standard deviations (binomial estimates). */
+    public double wilsonUpper(double z) {
+        return wilsonCentre(z) + wilsonHalfWidth(z);
+    }
+
+    private double wilsonCentre(double z) {
+        double z2n = z * z / paths;
+        return (probability + z2n / 2) / (1 + z2n);
+    }
+
+    private double wilsonHalfWidth(double z) {
+        double z2n = z * z / paths;
+        return z / (1 + z2n) * Math.sqrt(probability * (1 - probability) / paths + z2n / (4 * paths));
+    }
+
+    /** The estimate of 1 - p, e.g. risk of failure from PoS. */
+    public PosEstimate complement() {
+        return new PosEstimate(1 - probability, standardError, paths, varianceReduction);
+    }
+
+    @Override
+    public String toString() {
+        String estimate = String.format("%.2f%% ± %.2f%% (%,d paths)", probability * 100, standardError * 100, paths);
+        return varianceReduction == 1.0 ? estimate : estimate + String.format(", variance reduction x%.2f", varianceReduction);
+    }
+}
@@ -0,0 +1,154 @@
+package com.hiflite.engine;
+
+import java.util.Arrays;
+
+/**
+ * PoS and its first derivatives, all from the same paths as the PoS itself.
+ * <ul>
+ *   <li>In spending and starting portfolio, by smoothed indicators. Every path reports its margin, how far it is
+ *       from failing in dollars of spending and in dollars of portfolio, read off its critical ratio. PoS is the
+ *       fraction of margins above zero; moving the input moves every margin by the same amount, so the slope is
+ *       the density of the margins at zero, taken from a Gaussian kernel density estimate.</li>
+ *   <li>In the mean and volatility of the return series, by likelihood ratios
+ *       ({@link ScenarioBank#likelihoodRatioScores}): dPoS/d&theta; = E[(survived - PoS) x score].</li>
+ * </ul>
+ * Every derivative has a standard error, like the PoS. Mean and volatility are NaN when no scores were given,
+ * e.g. for resampled history, which has no density to differentiate.
+ */
+public final class PosSensitivities {
+
+    private static final double INVERSE_SQRT_2PI = 0.3989422804014327;
+
+    private final PosEstimate pos;
+    private final double spending;
+    private final double spendingError;
+    private final double portfolio;
+    private final double portfolioError;
+    private final double mean;
+    private final double meanError;
+    private final double volatility;
+    private final double volatilityError;
+
+    private PosSensitivities(PosEstimate pos, double[] spending, double[] portfolio, double[] mean, double[] volatility) {
+        this.pos = pos;
+        this.spending = -spending[0];
+        this.spendingError = spending[1];
+        this.portfolio = portfolio[0];
+        this.portfolioError = portfolio[1];
+        this.mean = mean[0];
+        this.meanError = mean[1];
+        this.volatility = volatility[0];
+        this.volatilityError = volatility[1];
+    }
+
+    /**
+     * From per-path margins and scores, all indexed by path: a path survives when its spending margin is above
+     * zero. Either score array may be null.
+     */
+    public static PosSensitivities of(double[] spendingMargins, double[] portfolioMargins,
+                                      double[] meanScores, double[] volatilityScores) {
+        int paths = spendingMargins.length;
+        long survivors = 0;
+        for (double margin : spendingMargins) {
+            survivors += margin > 0 ? 1 : 0;
+        }
+        PosEstimate pos = PosEstimate.binomial(survivors, paths);
+        return new PosSensitivities(pos, densityAtZero(spendingMargins), densityAtZero(portfolioMargins),
+                likelihoodRatio(spendingMargins, pos.getProbability(), meanScores),
+                likelihoodRatio(spendingMargins, pos.getProbability(), volatilityScores));
+    }
+
+    // {density, standard error} of the margins at 0; the bandwidth is Silverman's rule on the interquartile range
+    private static double[] densityAtZero(double[] margins) {
+        int paths = margins.length;
+        double[] finite = Arrays.stream(margins).filter(Double::isFinite).sorted().toArray();
+        if (finite.length < 2) {
+            return new double[] {0, 0};
+        }
+        double iqr = finite[finite.length * 3 / 4] - finite[finite.length / 4];
+        if (!(iqr > 0)) {
+            iqr = finite[finite.length - 1] - finite[0];
+        }
+        double bandwidth = 0.79 * iqr * Math.pow(paths, -0.2);
+        if (!(bandwidth > 0)) {
+            return new double[] {0, 0};
+        }
+        double sum = 0;
+        double sumSquares = 0;
+        for (double margin : finite) {
+            double u = margin / bandwidth;
+            double k = INVERSE_SQRT_2PI * Math.exp(-u * u / 2) / bandwidth;
+            sum += k;
+            sumSquares += k * k;
+        }
+        double density = sum / paths;
+        double variance = Math.max(0, sumSquares / paths - density * density) / paths;
+        return new double[] {density, Math.sqrt(variance)};
+    }
+
+    // {E[(survived - pos) x score], standard error}; centring on pos removes the score's own noise
+    private static double[] likelihoodRatio(double[] spendingMargins, double pos, double[] scores) {
+        if (scores == null) {
+            return new double[] {Double.NaN, Double.NaN};
+        }
+        int paths = spendingMargins.length;
+        double sum = 0;
+        double sumSquares = 0;
+        for (int path = 0; path < paths; path++) {
+            double term = ((spendingMargins[path] > 0 ? 1 : 0) - pos) * scores[path];
+            sum += term;
+            sumSquares += term * term;
+        }
+        double derivative = sum / paths;
+        double variance = Math.max(0, sumSquares / paths - derivative * derivative) / paths;
+        return new double[] {derivative, Math.sqrt(variance)};
+    }
+
+    public PosEstimate getPos() {
+        return pos;
+    }
+
+    /** dPoS / d spending, per dollar of spending a year. */
+    public double getSpending() {
+        return spending;
+    }
+
+    public double getSpendingError() {
+        return spendingError;
+    }
+
+    /** dPoS / d portfolio, per dollar of starting portfolio. */
+    public double getPortfolio() {
+        return portfolio;
+    }
+
+    public double getPortfolioError() {
+        return portfolioError;
+    }
+
+    /** dPoS / d mean of the return series. */
+    public double getMean() {
+        return mean;
+    }
+
+    public double getMeanError() {
+        return meanError;
+    }
+
+    /** dPoS / d volatility of the return series. */
+    public double getVolatility() {
+        return volatility;
+    }
+
+    public double getVolatilityError() {
+        return volatilityError;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PoS %s; %+.3f%% ± %.3f%% per $1,000 of spending, %+.3f%% ± %.3f%% per $100,000 of portfolio, "
+                        + "%+.2f%% ± %.2f%% per point of mean return, %+.2f%% ± %.2f%% per point of volatility",
+                pos, spending * 1e5, spendingError * 1e5, portfolio * 1e7, portfolioError * 1e7,
+                mean, meanError, volatility, volatilityError);
+    }
+}
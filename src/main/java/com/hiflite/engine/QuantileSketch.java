@@ -0,0 +1,184 @@
+package com.hiflite.engine;
+
+import java.util.Arrays;
+
+/**
+ * Streaming quantiles in bounded memory: a merging t-digest.
+ * <p>
+ * Values are kept as weighted centroids, sorted by mean. Centroids near the median may hold many values,
+ * centroids in the tails only a few, so P10 / P90 stay as sharp as the median. Centroid sizes follow the
+ * arcsine scale, which spends at most compression + 1 centroids on the whole distribution however
+ * many values are added, so the arrays are allocated once up front. Incoming values collect in
+ * a small buffer that is sorted and folded into the centroids when it fills. Two sketches {@link #merge}
+ * the same way, so per-chunk sketches can be combined into one for the whole bank. Folding the same values
+ * in the same order gives the same sketch; see {@link MonteCarloEngine#reduce} for a fixed merge order.
+ */
+public final class QuantileSketch {
+
+    /**
+     * At most compression + 1 centroids are kept; the error at quantile q scales like sqrt(q(1 - q)) / compression.
+     * Arcsine centroids near P10 hold more values than a q(1 - q) limit would let them, so the default is high
+     * enough that a P10 just past the mass of depleted paths at zero stays within a fraction of a percent.
+     */
+    public static final int DEFAULT_COMPRESSION = 300;
+
+    // k(q) = compression / 2pi * asin(2q - 1) runs over [-compression / 4, compression / 4]
+    private final double scale;
+    private final double[] means;
+    private final double[] weights;
+    private int centroids;
+    private final double[] buffer;
+    private final double[] unitWeights;
+    private int buffered;
+    private double total;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    // scratch for folding
+    private double[] foldMeans = new double[0];
+    private double[] foldWeights = new double[0];
+
+    public QuantileSketch() {
+        this(DEFAULT_COMPRESSION);
+    }
+
+    public QuantileSketch(int compression) {
+        this.scale = compression / (2 * Math.PI);
+        this.means = new double[compression + 1];
+        this.weights = new double[compression + 1];
+        this.buffer = new double[4 * compression];
+        this.unitWeights = new double[buffer.length];
+        Arrays.fill(unitWeights, 1.0);
+    }
+
+    public void add(double value) {
+        if (buffered == buffer.length) {
+            flush();
+        }
+        buffer[buffered++] = value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /** Adds {@code weight} copies of {@code value} at once, e.g. the paths that have already failed. */
+    public void add(double value, double weight) {
+        if (weight <= 0) {
+            return;
+        }
+        flush();
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        fold(new double[]{value}, new double[]{weight}, 1);
+    }
+
+    /** Folds {@code other} into this sketch; {@code other} is left as it was. */
+    public QuantileSketch merge(QuantileSketch other) {
+        other.flush();
+        flush();
+        if (other.centroids > 0) {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            fold(other.means, other.weights, other.centroids);
+        }
+        return this;
+    }
+
+    /** Number of values added (weights included). */
+    public double count() {
+        return total + buffered;
+    }
+
+    /** The value below which a fraction {@code q} of the added values fall, interpolated between centroids. */
+    public double quantile(double q) {
+        flush();
+        if (centroids == 0) {
+            return Double.NaN;
+        }
+        if (centroids == 1) {
+            return means[0];
+        }
+        double index = q * total;
+        // below the first centroid's centre and above the last one's, interpolate towards the exact extremes
+        if (index <= weights[0] / 2) {
+            return min + (means[0] - min) * index / (weights[0] / 2);
+        }
+        double cumulative = weights[0] / 2;   // weight up to the centre of centroid i
+        for (int i = 0; i < centroids - 1; i++) {
+            double gap = (weights[i] + weights[i + 1]) / 2;
+            if (index <= cumulative + gap) {
+                double t = (index - cumulative) / gap;
+                return means[i] + t * (means[i + 1] - means[i]);
+            }
+            cumulative += gap;
+        }
+        double tail = weights[centroids - 1] / 2;
+        double t = Math.min(1, (index - cumulative) / tail);
+        return means[centroids - 1] + t * (max - means[centroids - 1]);
+    }
+
+    private void flush() {
+        if (buffered == 0) {
+            return;
+        }
+        Arrays.sort(buffer, 0, buffered);
+        int n = buffered;
+        buffered = 0;
+        fold(buffer, unitWeights, n);
+    }
+
+    // merge-joins the sorted (mean, weight) pairs with the centroids, then re-clusters them left to right
+    private void fold(double[] inMeans, double[] inWeights, int count) {
+        int n = centroids + count;
+        if (foldMeans.length < n) {
+            foldMeans = new double[n];
+            foldWeights = new double[n];
+        }
+        int a = 0;
+        int b = 0;
+        for (int k = 0; k < n; k++) {
+            boolean takeOwn = b == count || (a < centroids && means[a] <= inMeans[b]);
+            if (takeOwn) {
+                foldMeans[k] = means[a];
+                foldWeights[k] = weights[a++];
+            } else {
+                foldMeans[k] = inMeans[b];
+                foldWeights[k] = inWeights[b++];
+            }
+        }
+        for (int k = 0; k < count; k++) {
+            total += inWeights[k];
+        }
+
+        // a centroid may span at most one unit of k; any two neighbours span more than one, so there are
+        // at most compression / 2 disjoint pairs of them, i.e. compression + 1 centroids
+        int out = 0;
+        double meanSoFar = foldMeans[0];
+        double weightSoFar = foldWeights[0];
+        double before = 0;
+        double kStart = scale(0);
+        for (int k = 1; k < n; k++) {
+            double proposed = weightSoFar + foldWeights[k];
+            if (scale((before + proposed) / total) - kStart <= 1) {
+                meanSoFar += (foldMeans[k] - meanSoFar) * foldWeights[k] / proposed;
+                weightSoFar = proposed;
+            } else {
+                out = emit(out, meanSoFar, weightSoFar);
+                before += weightSoFar;
+                kStart = scale(before / total);
+                meanSoFar = foldMeans[k];
+                weightSoFar = foldWeights[k];
+            }
+        }
+        centroids = emit(out, meanSoFar, weightSoFar);
+    }
+
+    private double scale(double q) {
+        return scale * Math.asin(Math.min(1, 2 * q - 1));
+    }
+
+    private int emit(int index, double mean, double weight) {
+        means[index] = mean;
+        weights[index] = weight;
+        return index + 1;
+    }
+}
@@ -0,0 +1,67 @@
+package com.hiflite.engine;
+
+/**
+ * Risk of failure by walk-forward year and spending / balance, built once from a scenario bank.
+ * <p>
+ * For every start year t the surface holds a {@link PosCurve} of the bank's per-path critical ratios over
+ * years [t, toYear), so risk, the spending for a target risk and the balance at a trigger risk are binary
+ * searches instead of a nested estimate or solve. The surface is exact on the bank, not interpolated: it
+ * answers what {@link BatchKernel#survivors} would count for the same bank, at any balance.
+ * <p>
+ * "Spending" is the kernel's spending x spendingIndex for {@link BatchKernel.SpendingRule#indexed} rules.
+ * Only kernels without outside income have such a surface (see {@link BatchKernel#criticalRatios}).
+ */
+public final class RiskSurface {
+
+    private final int fromYear;
+    private final PosCurve[] curves;   // [year - fromYear]
+
+    private RiskSurface(int fromYear, PosCurve[] curves) {
+        this.fromYear = fromYear;
+        this.curves = curves;
+    }
+
+    /** Curves for start years [fromYear, toYear), all computed in one parallel pass over the bank's paths. */
+    public static RiskSurface build(MonteCarloEngine engine, BatchKernel kernel, ScenarioBank bank,
+                                    int fromYear, int toYear) {
+        double[][] series = bank.allSeries();
+        int paths = bank.getPaths();
+        double[][] ratios = new double[toYear - fromYear][paths];
+        engine.sum(paths, (from, to) -> {
+            for (int year = fromYear; year < toYear; year++) {
+                kernel.criticalRatios(series, paths, year, toYear, from, to, ratios[year - fromYear]);
+            }
+            return 0;
+        });
+
+        PosCurve[] curves = new PosCurve[ratios.length];
+        for (int i = 0; i < ratios.length; i++) {
+            curves[i] = PosCurve.fromCriticalRatios(ratios[i]);
+        }
+        return new RiskSurface(fromYear, curves);
+    }
+
+    /** The curve for walk-forward start year {@code year}. */
+    public PosCurve at(int year) {
+        return curves[year - fromYear];
+    }
+
+    /** Fraction of paths that fail from {@code year} on, starting at {@code balance} and spending {@code spending}. */
+    public double risk(int year, double balance, double spending) {
+        return 1 - at(year).pos(balance, spending);
+    }
+
+    /** Highest spending from {@code balance} in {@code year} whose risk is still below {@code targetRisk}. */
+    public double spendingForRisk(int year, double balance, double targetRisk) {
+        return at(year).spendingForPoS(balance, 1 - targetRisk);
+    }
+
+    /** Lowest balance in {@code year} at which {@code spending} gets down to {@code targetRisk}. */
+    public double balanceForRisk(int year, double spending, double targetRisk) {
+        return at(year).portfolioForPoS(spending, 1 - targetRisk);
+    }
+
+    public int getPaths() {
+        return curves.length == 0 ? 0 : curves[0].getPaths();
+    }
+}
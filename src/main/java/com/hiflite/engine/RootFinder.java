@@ -0,0 +1,314 @@
+package com.hiflite.engine;
+
+import com.hiflite.utils.TimingUtils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Solves PoS(x) = target for a spending level or a portfolio, where PoS is replayed on a scenario bank
+ * and so only known to within its Monte Carlo error.
+ * <p>
+ * Bisection, but sized to that error instead of a fixed iteration count:
+ * <ul>
+ *   <li>every probe is {@link ScenarioBank#estimateAgainst}: far from the root a few thousand paths settle
+ *       the side, and the path count grows as the bracket tightens around the root;</li>
+ *   <li>probes that need the whole bank are inside the noise band around the root; the bank's own answer
+ *       then picks the side (common random numbers keep that consistent), and the search stops as soon as
+ *       the bracket is narrower than one standard error of PoS over its local slope. Halving further would
+ *       only locate the bank's root more precisely than the bank locates the true one. That resolution is
+ *       the reported tolerance; a search that ends on {@code absoluteTolerance} first reports the
+ *       half-bracket;</li>
+ *   <li>a guess, e.g. from {@link Neighbours}, starts a bracket around the guess that widens
+ *       geometrically until it catches the root, instead of halving the whole default range.</li>
+ * </ul>
+ * Ties go the way the original solvers broke them: PoS equal to the target counts as x being too high.
+ * <p>
+ * {@link #newton} solves the same equation when the model can give PoS with its slope in one pass
+ * ({@link PosSensitivities}): each full-bank probe then steps straight towards the root.
+ */
+public final class RootFinder {
+
+    private static final int MAX_PROBES = 64;
+    private static final double FIRST_STEP = 0.01;   // warm-start bracket, relative to the guess
+
+    /** Survivor counting at candidate x, e.g. {@code spending -> kernel survivors at (portfolio, spending)}. */
+    @FunctionalInterface
+    public interface Survivors {
+        MonteCarloEngine.RangeTask at(double x);
+    }
+
+    /** PoS and its slopes at candidate x, e.g. {@code spending -> sensitivities at (portfolio, spending)}. */
+    @FunctionalInterface
+    public interface Sensitivities {
+        PosSensitivities at(double x);
+    }
+
+    /** A root with the tolerance actually achieved and what it cost. */
+    public static final class Result {
+        private final double root;
+        private final double tolerance;
+        private final boolean statistical;
+        private final int probes;
+        private final long paths;
+
+        Result(double root, double tolerance, boolean statistical, int probes, long paths) {
+            this.root = root;
+            this.tolerance = tolerance;
+            this.statistical = statistical;
+            this.probes = probes;
+            this.paths = paths;
+        }
+
+        public double getRoot() {
+            return root;
+        }
+
+        /** Half-width in x within which the root is known. */
+        public double getTolerance() {
+            return tolerance;
+        }
+
+        /** True when the search ended on the Monte Carlo resolution rather than on the absolute tolerance. */
+        public boolean isStatistical() {
+            return statistical;
+        }
+
+        public int getProbes() {
+            return probes;
+        }
+
+        public long getPaths() {
+            return paths;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,.2f ± %,.2f (%s, %d probes, %,d paths)", root, tolerance,
+                    statistical ? "MC resolution" : "bracket", probes, paths);
+        }
+    }
+
+    /**
+     * Previously solved (input, root) pairs per target. A new input is guessed from the line through the two
+     * nearest solved inputs, or, with only one, in proportion to it -- exact for models whose PoS depends on
+     * spending / portfolio only, a starting point for the others.
+     */
+    public static final class Neighbours {
+        private final Map<Double, TreeMap<Double, Double>> byTarget = new HashMap<>();
+
+        public synchronized double guess(double target, double input) {
+            TreeMap<Double, Double> solved = byTarget.get(target);
+            if (solved == null || solved.isEmpty()) {
+                return Double.NaN;
+            }
+            // the two nearest are among the two closest on either side
+            List<Map.Entry<Double, Double>> candidates = new ArrayList<>();
+            Map.Entry<Double, Double> below = solved.floorEntry(input);
+            Map.Entry<Double, Double> above = solved.higherEntry(input);
+            for (int i = 0; i < 2; i++) {
+                if (below != null) {
+                    candidates.add(below);
+                    below = solved.lowerEntry(below.getKey());
+                }
+                if (above != null) {
+                    candidates.add(above);
+                    above = solved.higherEntry(above.getKey());
+                }
+            }
+            candidates.sort(Comparator.comparingDouble(e -> Math.abs(e.getKey() - input)));
+
+            Map.Entry<Double, Double> nearest = candidates.get(0);
+            if (candidates.size() == 1) {
+                return nearest.getKey() == 0 ? nearest.getValue() : nearest.getValue() * input / nearest.getKey();
+            }
+            Map.Entry<Double, Double> second = candidates.get(1);
+            double slope = (second.getValue() - nearest.getValue()) / (second.getKey() - nearest.getKey());
+            return nearest.getValue() + slope * (input - nearest.getKey());
+        }
+
+        public synchronized void add(double target, double input, double root) {
+            byTarget.computeIfAbsent(target, t -> new TreeMap<>()).put(input, root);
+        }
+
+        public synchronized void clear() {
+            byTarget.clear();
+        }
+    }
+
+    private final MonteCarloEngine engine;
+    private final ScenarioBank bank;
+    private final double z;
+    private final double absoluteTolerance;
+
+    private int solves;
+    private int totalProbes;
+    private long totalPaths;
+    private double worstTolerance;
+
+    /**
+     * @param z                 width of the probe intervals in standard errors (as for early stopping)
+     * @param absoluteTolerance stop anyway once the half-bracket is this narrow (e.g. one dollar)
+     */
+    public RootFinder(MonteCarloEngine engine, ScenarioBank bank, double z, double absoluteTolerance) {
+        this.engine = engine;
+        this.bank = bank;
+        this.z = z;
+        this.absoluteTolerance = absoluteTolerance;
+    }
+
+    /** Root in [lo, hi] of a PoS that falls with x (spending) or, with {@code increasing}, rises with x (portfolio). */
+    public Result solve(Survivors survivors, double targetPoS, boolean increasing, double lo, double hi) {
+        return solve(survivors, targetPoS, increasing, lo, hi, Double.NaN);
+    }
+
+    /** Same, starting the search around {@code guess} when it is inside (lo, hi). */
+    public Result solve(Survivors survivors, double targetPoS, boolean increasing, double lo, double hi, double guess) {
+        Search search = new Search(survivors, targetPoS, increasing, lo, hi);
+        return record(search.run(guess));
+    }
+
+    /**
+     * Root in [lo, hi] by Newton steps: every probe is a full pass giving PoS and, through {@code slope} (e.g.
+     * {@link PosSensitivities#getSpending}), its derivative in x, and the next x is where that tangent meets the
+     * target. Probes keep a bracket as bisection does, and a step that would leave it is replaced by the
+     * midpoint, so a noisy or flat slope costs a bisection step rather than the root. The search stops when the
+     * step is within one standard error of PoS over the slope, the same resolution as {@link #solve}; a few
+     * full passes usually get there, where bisection needs a dozen or more.
+     */
+    public Result newton(Sensitivities sensitivities, ToDoubleFunction<PosSensitivities> slope,
+                         double targetPoS, boolean increasing, double lo, double hi, double guess) {
+        double x = guess > lo && guess < hi ? guess : (lo + hi) / 2;
+        int probes = 0;
+        long paths = 0;
+        while (probes < MAX_PROBES) {
+            PosSensitivities at = sensitivities.at(x);
+            PosEstimate estimate = at.getPos();
+            probes++;
+            paths += estimate.getPaths();
+            TimingUtils.count(TimingUtils.Counter.SOLVER_ITERATIONS, 1);
+            double pos = estimate.getProbability();
+            if (increasing ? pos < targetPoS : pos > targetPoS) {
+                lo = x;
+            } else {
+                hi = x;
+            }
+
+            double derivative = slope.applyAsDouble(at);
+            double step = derivative != 0 ? (targetPoS - pos) / derivative : Double.NaN;
+            double resolution = derivative != 0 ? estimate.getStandardError() / Math.abs(derivative) : 0;
+            double next = x + step;
+            boolean inside = next > lo && next < hi;
+            if (inside && Math.abs(step) <= resolution) {
+                return record(new Result(next, resolution, true, probes, paths));
+            }
+            if ((hi - lo) / 2 <= absoluteTolerance) {
+                break;
+            }
+            x = inside ? next : (lo + hi) / 2;
+        }
+        return record(new Result((lo + hi) / 2, (hi - lo) / 2, false, probes, paths));
+    }
+
+    private synchronized Result record(Result result) {
+        solves++;
+        totalProbes += result.probes;
+        totalPaths += result.paths;
+        worstTolerance = Math.max(worstTolerance, result.tolerance);
+        return result;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return solves == 0 ? "no solves" : String.format("%d solves, %.1f probes and %,d paths each, worst tolerance ± %,.2f",
+                solves, (double) totalProbes / solves, totalPaths / solves, worstTolerance);
+    }
+
+    private final class Search {
+        private final Survivors survivors;
+        private final double target;
+        private final boolean increasing;
+        private double lo;
+        private double hi;
+        private double posLo = Double.NaN;   // PoS at the bracket ends, once probed
+        private double posHi = Double.NaN;
+        private double fullBankError = Double.NaN;
+        private boolean rootAbove;           // side of the last probe
+        private int probes;
+        private long paths;
+
+        Search(Survivors survivors, double target, boolean increasing, double lo, double hi) {
+            this.survivors = survivors;
+            this.target = target;
+            this.increasing = increasing;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        Result run(double guess) {
+            if (guess > lo && guess < hi) {
+                widenAround(guess);
+            }
+            while (probes < MAX_PROBES) {
+                double halfWidth = (hi - lo) / 2;
+                double resolution = resolution();
+                if (halfWidth <= resolution) {
+                    return new Result((lo + hi) / 2, resolution, true, probes, paths);
+                }
+                if (halfWidth <= absoluteTolerance) {
+                    break;
+                }
+                probe((lo + hi) / 2);
+            }
+            return new Result((lo + hi) / 2, (hi - lo) / 2, false, probes, paths);
+        }
+
+        // steps away from the guess, doubling, until the root is bracketed or the default range is reached
+        private void widenAround(double guess) {
+            double step = Math.max(Math.abs(guess) * FIRST_STEP, absoluteTolerance);
+            double x = guess;
+            probe(x);
+            boolean firstSide = rootAbove;
+            while (probes < MAX_PROBES && rootAbove == firstSide) {
+                x = rootAbove ? x + step : x - step;
+                if (x >= hi || x <= lo) {
+                    return;   // bisection takes the rest of the default range
+                }
+                probe(x);
+                step *= 2;
+            }
+        }
+
+        // Moves one end of the bracket to x. A probe that needed the whole bank is close enough to the root
+        // that its side is within the noise; the bank's own answer decides it, as in a plain bisection.
+        private void probe(double x) {
+            PosEstimate estimate = bank.estimateAgainst(engine, survivors.at(x), target, z);
+            probes++;
+            paths += estimate.getPaths();
+            TimingUtils.count(TimingUtils.Counter.SOLVER_ITERATIONS, 1);
+            if (estimate.getPaths() >= bank.getPaths()) {
+                fullBankError = estimate.getStandardError();
+            }
+            double pos = estimate.getProbability();
+            rootAbove = increasing ? pos < target : pos > target;
+            if (rootAbove) {
+                lo = x;
+                posLo = pos;
+            } else {
+                hi = x;
+                posHi = pos;
+            }
+        }
+
+        // one standard error of the full-bank PoS, in x: below this the bank's root is itself just noise
+        private double resolution() {
+            double slope = Math.abs(posHi - posLo) / (hi - lo);
+            return slope > 0 ? fullBankError / slope : 0;
+        }
+    }
+}
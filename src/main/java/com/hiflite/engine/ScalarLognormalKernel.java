@@ -0,0 +1,59 @@
+package com.hiflite.engine;
+
+/**
+ * Same arithmetic as the original per-path loop. Critical ratios go one path at a time; survivor
+ * counts, and everything monthly, run on the year-major {@link BatchKernel}.
+ */
+final class ScalarLognormalKernel implements LognormalPathKernel {
+
+    private final BatchKernel batch = BatchKernel.inflationIndexed(REAL_RETURNS, INFLATION);
+
+    @Override
+    public void criticalRatios(double[][] series, int paths, int years, int from, int to, double[] ratios) {
+        double[] realReturns = series[REAL_RETURNS];
+        double[] inflation = series[INFLATION];
+        for (int sim = from; sim < to; sim++) {
+            double growth = 1;            // what $1 of starting portfolio is worth
+            double withdrawn = 0;         // what $1 of initial spending has taken out, grown forward
+            double spendingIndex = 1;     // cumulative inflation applied to the withdrawal
+            double ratio = Double.POSITIVE_INFINITY;
+
+            for (int year = 0; year < years; year++) {
+                int cell = year * paths + sim;
+                double yearInflation = inflation[cell];
+                double nominalGrowth = 1 + ((1 + realReturns[cell]) * (1 + yearInflation) - 1);
+
+                if (year > 0) {
+                    spendingIndex *= (1 + yearInflation);
+                }
+                growth *= nominalGrowth;
+                withdrawn = withdrawn * nominalGrowth + spendingIndex;
+                ratio = Math.min(ratio, growth / withdrawn);
+            }
+            ratios[sim] = ratio;
+        }
+    }
+
+    @Override
+    public long survivors(double[][] series, int paths, int years, int from, int to,
+                          double startPortfolio, double initialSpending) {
+        return batch.survivors(series, paths, 0, years, from, to, startPortfolio, initialSpending, 1.0);
+    }
+
+    @Override
+    public void criticalRatios(double[][] series, int paths, MonthlyBridge months, int steps, int from, int to,
+                               double[] ratios) {
+        batch.withMonths(months).criticalRatios(series, paths, 0, steps, from, to, ratios);
+    }
+
+    @Override
+    public long survivors(double[][] series, int paths, MonthlyBridge months, int steps, int from, int to,
+                          double startPortfolio, double initialSpending) {
+        return batch.withMonths(months).survivors(series, paths, 0, steps, from, to, startPortfolio, initialSpending, 1.0);
+    }
+
+    @Override
+    public String toString() {
+        return "scalar";
+    }
+}
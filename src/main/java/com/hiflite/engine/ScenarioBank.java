@@ -0,0 +1,702 @@
+package com.hiflite.engine;
+
+import com.hiflite.utils.TimingUtils;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.random.RandomGenerator;
+import java.util.stream.IntStream;
+
+/**
+ * Market scenarios drawn once per run and replayed by every estimate (common random numbers).
+ * <p>
+ * Solver iterations and guardrail solves that replay the same bank see the same markets, so
+ * PoS is a deterministic, monotone function of spending and portfolio. Walk-forward callers
+ * starting in year t simply read rows t and later.
+ * <p>
+ * Each series is stored ready to use -- annual returns or inflation rates, not raw shocks -- so the
+ * kernels never touch a generator or call exp. Storage is year-major: the value for (series, year, path)
+ * lives at {@code year * paths + path} of that series' array. A chunk fills one contiguous run of
+ * paths per year with {@link GaussianSampler} and transforms it in place while it is still in cache.
+ * <p>
+ * {@link #generateQuasiRandom} fills the same layout from scrambled Sobol points instead. The bank is then
+ * split into independent replicates, and {@link #estimate} reports the spread between them as the error.
+ * {@link #generateAntithetic} pairs every path with its mirror image, and {@link #estimateWithControl}
+ * adds a terminal-growth control variate on top.
+ * <p>
+ * {@link #generateBlockBootstrap} copies runs of actual history into the same layout, so every kernel
+ * replays it exactly as it replays a parametric bank.
+ * <p>
+ * The parametric generators also take a correlation matrix between their series (e.g. stocks, bonds, cash and
+ * inflation for an {@link Allocation}). Its Cholesky factor is computed once per bank; each run of draws is then
+ * mixed in place, series by series, before it is transformed, so correlated draws cost a few multiply-adds per
+ * value on top of independent ones.
+ */
+public class ScenarioBank {
+
+    /** Marks {@code survived[path]} for the surviving paths in [from, to). */
+    @FunctionalInterface
+    public interface SurvivalMarker {
+        void mark(int from, int to, boolean[] survived);
+    }
+
+    /** How one series turns N(0,1) draws into stored values. */
+    public static final class Series {
+
+        private enum Kind { STANDARD_NORMAL, NORMAL, LOGNORMAL, HISTORICAL, PORTFOLIO }
+
+        private final Kind kind;
+        private final double mean;
+        private final double volatility;
+        private final Allocation allocation;   // PORTFOLIO only
+
+        private Series(Kind kind, double mean, double volatility) {
+            this(kind, mean, volatility, null);
+        }
+
+        private Series(Kind kind, double mean, double volatility, Allocation allocation) {
+            this.kind = kind;
+            this.mean = mean;
+            this.volatility = volatility;
+            this.allocation = allocation;
+        }
+
+        /** The raw shock z. */
+        public static Series standardNormal() {
+            return new Series(Kind.STANDARD_NORMAL, 0, 1);
+        }
+
+        /** mean + volatility * z, e.g. a normal real return or an inflation rate. */
+        public static Series normal(double mean, double volatility) {
+            return new Series(Kind.NORMAL, mean, volatility);
+        }
+
+        /** exp(mean - volatility^2 / 2 + volatility * z) - 1: a lognormal return whose gross factor has expectation e^mean. */
+        public static Series lognormal(double mean, double volatility) {
+            return new Series(Kind.LOGNORMAL, mean, volatility);
+        }
+
+        /** Resampled history with this sample mean and standard deviation; see {@link #generateBlockBootstrap}. */
+        public static Series historical(double mean, double volatility) {
+            return new Series(Kind.HISTORICAL, mean, volatility);
+        }
+
+        /**
+         * Not drawn but derived from the bank's other series: the real return of a portfolio that holds
+         * {@code allocation} from model year 0, withdraws pro rata and rebalances as the allocation says. Pro-rata
+         * withdrawals leave the weights alone, so the weights drift with the returns only, whatever the spending;
+         * a single-balance kernel on this series is then exactly the multi-asset portfolio. Takes no place in a
+         * correlation matrix; once the bank is drawn, the spec reports the series' sample mean and deviation.
+         */
+        public static Series portfolio(Allocation allocation) {
+            return new Series(Kind.PORTFOLIO, Double.NaN, Double.NaN, allocation);
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getVolatility() {
+            return volatility;
+        }
+
+        public boolean isLognormal() {
+            return kind == Kind.LOGNORMAL;
+        }
+
+        /** Normal and lognormal series: their draws have a density in mean and volatility to differentiate. */
+        public boolean isParametric() {
+            return kind == Kind.NORMAL || kind == Kind.LOGNORMAL;
+        }
+
+        /** E[1 + value]: the expected one-year gross growth of this series. */
+        public double expectedGrowth() {
+            return switch (kind) {
+                case STANDARD_NORMAL -> 1.0;
+                case NORMAL, HISTORICAL, PORTFOLIO -> 1 + mean;
+                case LOGNORMAL -> Math.exp(mean);
+            };
+        }
+
+        // values already holds z; turn it into what this series stores
+        void transform(double[] values, int offset, int count) {
+            switch (kind) {
+                case STANDARD_NORMAL, HISTORICAL, PORTFOLIO -> {
+                }
+                case NORMAL -> {
+                    for (int i = offset, end = offset + count; i < end; i++) {
+                        values[i] = mean + values[i] * volatility;
+                    }
+                }
+                case LOGNORMAL -> {
+                    double drift = mean - volatility * volatility / 2;
+                    if (Simd.enabled()) {
+                        VectorMath.lognormalReturns(values, offset, count, drift, volatility);
+                    } else {
+                        for (int i = offset, end = offset + count; i < end; i++) {
+                            values[i] = Math.exp(drift + volatility * values[i]) - 1;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // metrics phase for drawing a bank (see TimingUtils)
+    private static final String GENERATE_PHASE = "scenario bank";
+
+    // first prefix of a sequential estimate; each later one doubles
+    private static final int SEQUENTIAL_FIRST_BATCH = 4 * MonteCarloEngine.CHUNK_SIZE;
+
+    private final int paths;
+    private final int years;
+    private final int replicates;
+    private final boolean antithetic;
+    private final int blockYears;   // 0 unless bootstrapped
+    private final Series[] seriesSpecs;
+    private final int[] drawn;           // the series that take draws, in order: all but portfolio series
+    private final double[][] cholesky;   // lower-triangular factor of the correlation between drawn series; null if independent
+    private final double[][] values;
+
+    private ScenarioBank(int paths, int years, int replicates, boolean antithetic, Series[] seriesSpecs,
+                         double[][] correlation) {
+        this(paths, years, replicates, antithetic, 0, seriesSpecs, correlation);
+    }
+
+    private ScenarioBank(int paths, int years, int replicates, boolean antithetic, int blockYears, Series[] seriesSpecs,
+                         double[][] correlation) {
+        this.paths = paths;
+        this.years = years;
+        this.replicates = replicates;
+        this.antithetic = antithetic;
+        this.blockYears = blockYears;
+        this.seriesSpecs = seriesSpecs;
+        this.drawn = IntStream.range(0, seriesSpecs.length)
+                .filter(s -> seriesSpecs[s].kind != Series.Kind.PORTFOLIO).toArray();
+        for (Series spec : seriesSpecs) {
+            if (spec.kind == Series.Kind.PORTFOLIO) {
+                requireDrawn(spec.allocation);
+            }
+        }
+        this.cholesky = correlation == null ? null : cholesky(correlation, drawn.length);
+        this.values = new double[seriesSpecs.length][paths * years];
+    }
+
+    private void requireDrawn(Allocation allocation) {
+        for (int s : allocation.assetSeries()) {
+            if (s >= seriesSpecs.length || seriesSpecs[s].kind == Series.Kind.PORTFOLIO) {
+                throw new IllegalArgumentException("portfolio series reads series " + s + ", which is not drawn");
+            }
+        }
+    }
+
+    /** Draws one independent series per spec for {@code paths} x {@code years}. */
+    public static ScenarioBank generate(MonteCarloEngine engine, int paths, int years, Series... series) {
+        return generate(engine, paths, years, null, series);
+    }
+
+    /**
+     * Same, with the series' draws correlated: {@code correlation[i][j]} between series i and j, a symmetric
+     * positive-definite matrix with ones on the diagonal, or null for independent series. It correlates the
+     * underlying normals, i.e. log returns for lognormal series.
+     */
+    public static ScenarioBank generate(MonteCarloEngine engine, int paths, int years, double[][] correlation,
+                                        Series... series) {
+        ScenarioBank bank = new ScenarioBank(paths, years, 1, false, series.clone(), correlation);
+        try (var _ = TimingUtils.phase(GENERATE_PHASE)) {
+            engine.sum(paths, (from, to, rng) -> {
+                bank.fillChunk(rng, from, to);
+                return 0;
+            });
+        }
+        bank.describePortfolios();
+        TimingUtils.count(TimingUtils.Counter.RNG_DRAWS, (long) paths * years * bank.drawn.length);
+        return bank;
+    }
+
+    /**
+     * Like {@link #generate}, but path 2k + 1 replays the shocks of path 2k with the sign flipped, for every
+     * series and year. {@code paths} must be even; chunks start at even paths, so a pair never straddles two.
+     */
+    public static ScenarioBank generateAntithetic(MonteCarloEngine engine, int paths, int years, Series... series) {
+        return generateAntithetic(engine, paths, years, null, series);
+    }
+
+    /** Same, with correlated series as for {@link #generate(MonteCarloEngine, int, int, double[][], Series...)}. */
+    public static ScenarioBank generateAntithetic(MonteCarloEngine engine, int paths, int years, double[][] correlation,
+                                                  Series... series) {
+        if (paths % 2 != 0) {
+            throw new IllegalArgumentException("antithetic bank needs an even number of paths, got " + paths);
+        }
+        ScenarioBank bank = new ScenarioBank(paths, years, 1, true, series.clone(), correlation);
+        try (var _ = TimingUtils.phase(GENERATE_PHASE)) {
+            engine.sum(paths, (from, to, rng) -> {
+                bank.fillChunk(rng, from, to);
+                return 0;
+            });
+        }
+        bank.describePortfolios();
+        TimingUtils.count(TimingUtils.Counter.RNG_DRAWS, (long) paths / 2 * years * bank.drawn.length);
+        return bank;
+    }
+
+    /**
+     * Randomized quasi-Monte Carlo: {@code replicates} independently scrambled Sobol sequences of
+     * {@code pathsPerReplicate} points each (a power of two keeps every replicate balanced), stored one
+     * replicate after the other. Each series gets {@code years} dimensions, built into annual shocks by a
+     * Brownian bridge, and the series are interleaved so every series' end point sits in the leading dimensions.
+     */
+    public static ScenarioBank generateQuasiRandom(MonteCarloEngine engine, int pathsPerReplicate, int replicates,
+                                                   int years, Series... series) {
+        return generateQuasiRandom(engine, pathsPerReplicate, replicates, years, null, series);
+    }
+
+    /** Same, with correlated series as for {@link #generate(MonteCarloEngine, int, int, double[][], Series...)}. */
+    public static ScenarioBank generateQuasiRandom(MonteCarloEngine engine, int pathsPerReplicate, int replicates,
+                                                   int years, double[][] correlation, Series... series) {
+        ScenarioBank bank = new ScenarioBank(pathsPerReplicate * replicates, years, replicates, false, series.clone(),
+                correlation);
+        SobolSequence[] sequences = new SobolSequence[replicates];
+        for (int r = 0; r < replicates; r++) {
+            sequences[r] = new SobolSequence(years * bank.drawn.length, engine.newStream());
+        }
+        BrownianBridge bridge = new BrownianBridge(years);
+        try (var _ = TimingUtils.phase(GENERATE_PHASE)) {
+            engine.forEachChunk(bank.paths, (from, to) -> {
+                bank.fillQuasiRandomChunk(sequences, bridge, from, to);
+                return 0;
+            });
+        }
+        bank.describePortfolios();
+        TimingUtils.count(TimingUtils.Counter.RNG_DRAWS, (long) bank.paths * years * bank.drawn.length);
+        return bank;
+    }
+
+    /**
+     * Circular block bootstrap of {@code history}: every path strings together blocks of {@code blockYears}
+     * consecutive historical years, each starting at a uniformly drawn year and wrapping from the last year
+     * to the first. A block keeps each year's real return and inflation together and keeps runs of bad years
+     * in order, so sequence risk survives; the wrap makes every historical year equally likely in every
+     * model year. Series are stored at {@link LognormalPathKernel#REAL_RETURNS} and
+     * {@link LognormalPathKernel#INFLATION}, described by {@link Series#historical} specs.
+     */
+    public static ScenarioBank generateBlockBootstrap(MonteCarloEngine engine, int paths, int years,
+                                                      HistoricalData history, int blockYears) {
+        if (blockYears < 1 || blockYears > history.getYears()) {
+            throw new IllegalArgumentException("block of " + blockYears + " years from " + history.getYears() + " years of history");
+        }
+        int n = history.getYears();
+        double[] realReturns = new double[n];
+        double[] inflation = new double[n];
+        for (int i = 0; i < n; i++) {
+            realReturns[i] = history.realReturn(i);
+            inflation[i] = history.inflation(i);
+        }
+        Series[] specs = new Series[2];
+        specs[LognormalPathKernel.REAL_RETURNS] = Series.historical(history.meanRealReturn(), standardDeviation(realReturns));
+        specs[LognormalPathKernel.INFLATION] = Series.historical(history.meanInflation(), standardDeviation(inflation));
+
+        ScenarioBank bank = new ScenarioBank(paths, years, 1, false, blockYears, specs, null);
+        try (var _ = TimingUtils.phase(GENERATE_PHASE)) {
+            engine.sum(paths, (from, to, rng) -> {
+                bank.fillBootstrapChunk(rng, realReturns, inflation, from, to);
+                return 0;
+            });
+        }
+        TimingUtils.count(TimingUtils.Counter.RNG_DRAWS, (long) paths * ((years + blockYears - 1) / blockYears));
+        return bank;
+    }
+
+    // year-major like fillChunk: each path's position in history advances a year at a time, jumping at block starts
+    private void fillBootstrapChunk(RandomGenerator rng, double[] realReturns, double[] inflation, int from, int to) {
+        int n = realReturns.length;
+        int count = to - from;
+        int[] position = new int[count];
+        double[] r = values[LognormalPathKernel.REAL_RETURNS];
+        double[] inf = values[LognormalPathKernel.INFLATION];
+        for (int year = 0; year < years; year++) {
+            boolean newBlock = year % blockYears == 0;
+            int offset = year * paths + from;
+            for (int k = 0; k < count; k++) {
+                int p = newBlock ? rng.nextInt(n) : position[k] + 1;
+                p = p == n ? 0 : p;
+                position[k] = p;
+                r[offset + k] = realReturns[p];
+                inf[offset + k] = inflation[p];
+            }
+        }
+    }
+
+    private static double standardDeviation(double[] values) {
+        double mean = 0;
+        for (double v : values) {
+            mean += v;
+        }
+        mean /= values.length;
+        double squares = 0;
+        for (double v : values) {
+            squares += (v - mean) * (v - mean);
+        }
+        return values.length > 1 ? Math.sqrt(squares / (values.length - 1)) : 0;
+    }
+
+    private void fillChunk(RandomGenerator rng, int from, int to) {
+        int count = to - from;
+        double[][] holdings = portfolioHoldings(count);
+        for (int year = 0; year < years; year++) {
+            int offset = year * paths + from;
+            for (int s : drawn) {
+                if (antithetic) {
+                    fillAntithetic(rng, values[s], offset, count);
+                } else {
+                    GaussianSampler.fill(rng, values[s], offset, count);
+                }
+                if (cholesky == null) {
+                    seriesSpecs[s].transform(values[s], offset, count);
+                }
+            }
+            if (cholesky != null) {
+                transformCorrelated(offset, count);
+            }
+            fillPortfolios(holdings, offset, count);
+        }
+    }
+
+    // per portfolio series, the weights its paths in a chunk hold at the start of a year (null for other series)
+    private double[][] portfolioHoldings(int count) {
+        double[][] holdings = new double[seriesSpecs.length][];
+        for (int s = 0; s < seriesSpecs.length; s++) {
+            if (seriesSpecs[s].kind == Series.Kind.PORTFOLIO) {
+                holdings[s] = seriesSpecs[s].allocation.startingWeights(count);
+            }
+        }
+        return holdings;
+    }
+
+    // the run [offset, offset + count) of one year, once the drawn series hold their values
+    private void fillPortfolios(double[][] holdings, int offset, int count) {
+        for (int s = 0; s < seriesSpecs.length; s++) {
+            if (holdings[s] != null) {
+                seriesSpecs[s].allocation.portfolioReturns(values, offset, count, holdings[s], values[s]);
+            }
+        }
+    }
+
+    // portfolio specs are only known once drawn: they report the sample mean and deviation of their series
+    private void describePortfolios() {
+        for (int s = 0; s < seriesSpecs.length; s++) {
+            Series spec = seriesSpecs[s];
+            if (spec.kind == Series.Kind.PORTFOLIO) {
+                double mean = Arrays.stream(values[s]).average().orElse(0);
+                seriesSpecs[s] = new Series(Series.Kind.PORTFOLIO, mean, standardDeviation(values[s]), spec.allocation);
+            }
+        }
+    }
+
+    // the run [offset, offset + count) of every series holds independent N(0,1) draws: mixes them by the Cholesky
+    // factor, z_i <- sum over j <= i of L[i][j] z_j, then transforms them. Series go last to first, so the draws a
+    // series mixes in are still the independent ones; every step is one streaming multiply-add over the run. Being
+    // linear, the mix keeps antithetic pairs mirrored
+    private void transformCorrelated(int offset, int count) {
+        int end = offset + count;
+        for (int i = drawn.length - 1; i >= 0; i--) {
+            double[] mixed = values[drawn[i]];
+            double diagonal = cholesky[i][i];
+            for (int k = offset; k < end; k++) {
+                mixed[k] *= diagonal;
+            }
+            for (int j = 0; j < i; j++) {
+                double weight = cholesky[i][j];
+                if (weight == 0) {
+                    continue;
+                }
+                double[] source = values[drawn[j]];
+                for (int k = offset; k < end; k++) {
+                    mixed[k] += weight * source[k];
+                }
+            }
+        }
+        for (int s : drawn) {
+            seriesSpecs[s].transform(values[s], offset, count);
+        }
+    }
+
+    // lower-triangular L with L L^T = correlation
+    private static double[][] cholesky(double[][] correlation, int size) {
+        if (correlation.length != size) {
+            throw new IllegalArgumentException(correlation.length + " x " + correlation.length
+                    + " correlation matrix for " + size + " series");
+        }
+        double[][] factor = new double[size][size];
+        for (int i = 0; i < size; i++) {
+            if (correlation[i].length != size || correlation[i][i] != 1) {
+                throw new IllegalArgumentException("row " + i + " of the correlation matrix is not "
+                        + size + " wide with a 1 on the diagonal");
+            }
+            for (int j = 0; j <= i; j++) {
+                if (Math.abs(correlation[i][j] - correlation[j][i]) > 1e-12) {
+                    throw new IllegalArgumentException("correlation matrix is not symmetric at (" + i + ", " + j + ")");
+                }
+                double sum = correlation[i][j];
+                for (int m = 0; m < j; m++) {
+                    sum -= factor[i][m] * factor[j][m];
+                }
+                if (i == j) {
+                    if (!(sum > 0)) {
+                        throw new IllegalArgumentException("correlation matrix is not positive definite");
+                    }
+                    factor[i][i] = Math.sqrt(sum);
+                } else {
+                    factor[i][j] = sum / factor[j][j];
+                }
+            }
+        }
+        return factor;
+    }
+
+    // half the draws, then spread them out backwards as (z, -z) pairs
+    private static void fillAntithetic(RandomGenerator rng, double[] values, int offset, int count) {
+        int pairs = count / 2;
+        GaussianSampler.fill(rng, values, offset, pairs);
+        for (int k = pairs - 1; k >= 0; k--) {
+            double z = values[offset + k];
+            values[offset + 2 * k] = z;
+            values[offset + 2 * k + 1] = -z;
+        }
+    }
+
+    private void fillQuasiRandomChunk(SobolSequence[] sequences, BrownianBridge bridge, int from, int to) {
+        int seriesCount = drawn.length;
+        int pathsPerReplicate = paths / replicates;
+        int[] point = new int[years * seriesCount];
+        double[] normals = new double[years];
+        double[] scratch = new double[years];
+        double[] shocks = new double[years];
+
+        for (int path = from; path < to; path++) {
+            SobolSequence sequence = sequences[path / pathsPerReplicate];
+            int index = path % pathsPerReplicate;
+            if (path == from || index == 0) {
+                sequence.seek(index, point);
+            } else {
+                sequence.next(index - 1, point);
+            }
+            for (int s = 0; s < seriesCount; s++) {
+                for (int i = 0; i < years; i++) {
+                    normals[i] = NormalQuantile.of(SobolSequence.uniform(point[i * seriesCount + s]));
+                }
+                bridge.increments(normals, scratch, shocks);
+                for (int year = 0; year < years; year++) {
+                    values[drawn[s]][year * paths + path] = shocks[year];
+                }
+            }
+        }
+        int count = to - from;
+        double[][] holdings = portfolioHoldings(count);
+        for (int year = 0; year < years; year++) {
+            if (cholesky != null) {
+                transformCorrelated(year * paths + from, count);
+            } else {
+                for (int s : drawn) {
+                    seriesSpecs[s].transform(values[s], year * paths + from, count);
+                }
+            }
+            fillPortfolios(holdings, year * paths + from, count);
+        }
+    }
+
+    /**
+     * Fraction of paths counted by {@code survivors}, with its standard error: binomial for a plain
+     * Monte Carlo bank, the spread of the per-replicate fractions for a quasi-random one.
+     */
+    public PosEstimate estimate(MonteCarloEngine engine, MonteCarloEngine.RangeTask survivors) {
+        if (replicates == 1) {
+            return PosEstimate.binomial(engine.sum(paths, survivors), paths);
+        }
+        int pathsPerReplicate = paths / replicates;
+        AtomicLongArray hits = new AtomicLongArray(replicates);
+        engine.sum(paths, (from, to) -> {
+            // a chunk may straddle replicates; count each piece against its own
+            for (int start = from; start < to; ) {
+                int replicate = start / pathsPerReplicate;
+                int end = Math.min(to, (replicate + 1) * pathsPerReplicate);
+                hits.addAndGet(replicate, survivors.run(start, end));
+                start = end;
+            }
+            return 0;
+        });
+
+        double sum = 0;
+        double sumSquares = 0;
+        for (int r = 0; r < replicates; r++) {
+            double p = (double) hits.get(r) / pathsPerReplicate;
+            sum += p;
+            sumSquares += p * p;
+        }
+        double mean = sum / replicates;
+        double variance = Math.max(0, (sumSquares - replicates * mean * mean) / (replicates - 1));
+        return new PosEstimate(mean, Math.sqrt(variance / replicates), paths);
+    }
+
+    /**
+     * Like {@link #estimate} when only the side of {@code target} matters, as in a bisection probe. Paths are
+     * replayed in growing prefixes of the bank, and sampling stops once the Wilson interval at {@code z}
+     * excludes the target. The returned fraction is then on the same side of the target as the full-bank
+     * answer would almost surely be. {@link PosEstimate#getPaths()} reports how many paths were spent.
+     * Quasi-random banks are always evaluated in full, because a prefix of a replicate is not balanced.
+     */
+    public PosEstimate estimateAgainst(MonteCarloEngine engine, MonteCarloEngine.RangeTask survivors,
+                                       double target, double z) {
+        if (replicates > 1) {
+            return estimate(engine, survivors);
+        }
+        long hits = 0;
+        int done = 0;
+        int batch = SEQUENTIAL_FIRST_BATCH;
+        while (true) {
+            int end = (int) Math.min(paths, (long) done + batch);
+            hits += engine.sum(done, end, survivors);
+            done = end;
+            PosEstimate running = PosEstimate.binomial(hits, done);
+            if (done == paths || running.wilsonLower(z) > target || running.wilsonUpper(z) < target) {
+                return running;
+            }
+            batch *= 2;
+        }
+    }
+
+    /**
+     * Survival fraction with a control variate: the compounded gross growth of {@code growthSeries} over
+     * model years [fromYear, toYear), whose expectation is known exactly from the series specs. Good
+     * markets both raise that growth and keep the plan alive, and the regression on it removes that shared
+     * part of the noise. Antithetic banks are evaluated pair by pair. The estimate reports its
+     * {@link PosEstimate#getVarianceReduction() variance-reduction factor}. Quasi-random banks fall back to
+     * {@link #estimate}, and so do bootstrapped ones: years within a block are not independent, so the
+     * expected compounded growth is not known in closed form. Correlated banks fall back too when the control
+     * compounds more than one series, whose growths then do not multiply in expectation, and so does a control
+     * on a portfolio series, whose drifting weights tie its years together.
+     */
+    public PosEstimate estimateWithControl(MonteCarloEngine engine, SurvivalMarker survivors,
+                                           int fromYear, int toYear, int... growthSeries) {
+        boolean[] survived = new boolean[paths];
+        boolean portfolio = Arrays.stream(growthSeries).anyMatch(s -> seriesSpecs[s].kind == Series.Kind.PORTFOLIO);
+        if (replicates > 1 || blockYears > 0 || cholesky != null && growthSeries.length > 1 || portfolio) {
+            return estimate(engine, (from, to) -> {
+                survivors.mark(from, to, survived);
+                long count = 0;
+                for (int path = from; path < to; path++) {
+                    count += survived[path] ? 1 : 0;
+                }
+                return count;
+            });
+        }
+        double[] growth = new double[paths];
+        engine.sum(paths, (from, to) -> {
+            survivors.mark(from, to, survived);
+            compoundedGrowth(fromYear, toYear, growthSeries, from, to, growth);
+            return 0;
+        });
+
+        double expected = 1;
+        for (int s : growthSeries) {
+            expected *= Math.pow(seriesSpecs[s].expectedGrowth(), toYear - fromYear);
+        }
+        return PosEstimate.controlled(survived, growth, expected, antithetic ? 2 : 1);
+    }
+
+    /**
+     * Likelihood-ratio scores of {@code series} for paths [from, to) over model years [fromYear, toYear): the
+     * derivative of the log density of the path's draws in the series' mean, into {@code meanScores[path]}, and
+     * in its volatility, into {@code volatilityScores[path]}. The paths themselves do not move; E[f x score] is
+     * the derivative of E[f] in that parameter for anything f computed from them, so a PoS pass can report its
+     * own sensitivity to the return assumptions ({@link PosSensitivities}). Only {@link Series#isParametric()}
+     * series of a bank without correlations have scores.
+     */
+    public void likelihoodRatioScores(int series, int fromYear, int toYear, int from, int to,
+                                      double[] meanScores, double[] volatilityScores) {
+        Series spec = seriesSpecs[series];
+        if (!spec.isParametric()) {
+            throw new IllegalStateException("likelihood-ratio scores need a normal or lognormal series");
+        }
+        if (isCorrelated()) {
+            throw new IllegalStateException("likelihood-ratio scores need series drawn independently");
+        }
+        double sigma = spec.volatility;
+        double[] stored = values[series];
+        Arrays.fill(meanScores, from, to, 0.0);
+        Arrays.fill(volatilityScores, from, to, 0.0);
+        for (int year = fromYear; year < toYear; year++) {
+            int row = year * paths;
+            for (int path = from; path < to; path++) {
+                // back to the draw z; value = mean + sigma z, or log(1 + value) = mean - sigma^2 / 2 + sigma z
+                double z = spec.kind == Series.Kind.LOGNORMAL
+                        ? (Math.log1p(stored[row + path]) - spec.mean + sigma * sigma / 2) / sigma
+                        : (stored[row + path] - spec.mean) / sigma;
+                meanScores[path] += z;
+                volatilityScores[path] += spec.kind == Series.Kind.LOGNORMAL ? z * z - 1 - sigma * z : z * z - 1;
+            }
+        }
+        for (int path = from; path < to; path++) {
+            meanScores[path] /= sigma;
+            volatilityScores[path] /= sigma;
+        }
+    }
+
+    private void compoundedGrowth(int fromYear, int toYear, int[] growthSeries, int from, int to, double[] growth) {
+        Arrays.fill(growth, from, to, 1.0);
+        for (int year = fromYear; year < toYear; year++) {
+            int row = year * paths;
+            for (int s : growthSeries) {
+                double[] series = values[s];
+                for (int path = from; path < to; path++) {
+                    growth[path] *= 1 + series[row + path];
+                }
+            }
+        }
+    }
+
+    public int getPaths() {
+        return paths;
+    }
+
+    public int getYears() {
+        return years;
+    }
+
+    public boolean isAntithetic() {
+        return antithetic;
+    }
+
+    /** Length of the resampled blocks of history, or 0 for a parametric bank. */
+    public int getBlockYears() {
+        return blockYears;
+    }
+
+    /** 1 for a plain Monte Carlo bank; otherwise the number of independently scrambled quasi-random blocks. */
+    public int getReplicates() {
+        return replicates;
+    }
+
+    /** True when the series were drawn with a correlation matrix. */
+    public boolean isCorrelated() {
+        return cholesky != null;
+    }
+
+    public Series getSeries(int series) {
+        return seriesSpecs[series];
+    }
+
+    public double value(int series, int year, int path) {
+        return values[series][year * paths + path];
+    }
+
+    /** The raw year-major array of one series, for kernels that walk it directly. */
+    public double[] series(int series) {
+        return values[series];
+    }
+
+    /** All raw series, indexed like the specs the bank was generated with; see {@link BatchKernel}. */
+    public double[][] allSeries() {
+        return values;
+    }
+}
@@ -0,0 +1,32 @@
+package com.hiflite.engine;
+
+/**
+ * Decides once per JVM whether the Vector API code paths run.
+ * <p>
+ * {@code -Dhiflite.kernel=scalar|vector|auto} (default auto). The vector paths need
+ * {@code --add-modules jdk.incubator.vector} on the java command line; without it auto
+ * falls back to scalar and an explicit {@code vector} is an error.
+ */
+final class Simd {
+
+    static final String KERNEL_PROPERTY = "hiflite.kernel";
+
+    private static final boolean ENABLED = decide();
+
+    private Simd() {
+    }
+
+    static boolean enabled() {
+        return ENABLED;
+    }
+
+    private static boolean decide() {
+        String choice = System.getProperty(KERNEL_PROPERTY, "auto");
+        boolean available = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+        if (choice.equals("vector") && !available) {
+            throw new IllegalStateException("-D" + KERNEL_PROPERTY + "=vector needs --add-modules jdk.incubator.vector");
+        }
+        // VectorMath is only touched once the module is known to be there
+        return choice.equals("vector") || (choice.equals("auto") && available && VectorMath.worthwhile());
+    }
+}
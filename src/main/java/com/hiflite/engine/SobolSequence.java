@@ -0,0 +1,180 @@
+package com.hiflite.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * Sobol low-discrepancy points in up to a few hundred dimensions, with Matousek's random linear
+ * scramble plus a random digital shift so independent copies give a randomized-QMC error estimate.
+ * <p>
+ * Dimension 0 is the van der Corput sequence. Every other dimension uses the next primitive polynomial
+ * over GF(2), found by an order test at class load, and initial direction numbers m_k (odd, below 2^k)
+ * drawn from a fixed-seed generator. That is Jaeckel's regularity-breaking initialisation rather than
+ * the Joe-Kuo tables, which is fine once the points are scrambled.
+ * <p>
+ * Point n is found directly from the Gray code of n, so a chunk can start anywhere; consecutive points
+ * then cost one XOR per dimension.
+ */
+public final class SobolSequence {
+
+    static final int BITS = 32;
+    private static final double SCALE = 0x1p-32;
+    private static final long DIRECTION_SEED = 0x5EED_50B0L;
+
+    private final int dimensions;
+    private final int[][] directions;   // [dimension][bit], most significant digit first
+    private final int[] shift;
+
+    /** Scrambled with {@code rng}, or the plain sequence when {@code rng} is null. */
+    public SobolSequence(int dimensions, RandomGenerator rng) {
+        this.dimensions = dimensions;
+        this.directions = unscrambledDirections(dimensions);
+        this.shift = new int[dimensions];
+        if (rng != null) {
+            for (int d = 0; d < dimensions; d++) {
+                scramble(directions[d], rng);
+                shift[d] = rng.nextInt();
+            }
+        }
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /** Integer coordinates of point {@code index} into {@code state} (length = dimensions). */
+    public void seek(long index, int[] state) {
+        long gray = index ^ (index >>> 1);
+        for (int d = 0; d < dimensions; d++) {
+            int x = shift[d];
+            for (int bit = 0; bit < BITS && (gray >>> bit) != 0; bit++) {
+                if (((gray >>> bit) & 1) != 0) {
+                    x ^= directions[d][bit];
+                }
+            }
+            state[d] = x;
+        }
+    }
+
+    /** Moves {@code state} from point {@code index} to point {@code index + 1}. */
+    public void next(long index, int[] state) {
+        int bit = Long.numberOfTrailingZeros(~index);
+        for (int d = 0; d < dimensions; d++) {
+            state[d] ^= directions[d][bit];
+        }
+    }
+
+    /** Coordinate as a uniform in (0, 1), centred in its 2^-32 cell so it is never 0 or 1. */
+    public static double uniform(int coordinate) {
+        return ((coordinate & 0xFFFF_FFFFL) + 0.5) * SCALE;
+    }
+
+    // Matousek: left-multiply the generator matrix by a random unit lower-triangular matrix
+    private static void scramble(int[] columns, RandomGenerator rng) {
+        int[] rows = new int[BITS];
+        for (int i = 0; i < BITS; i++) {
+            // row i (digit i, counted from the most significant) may mix digits 0..i
+            int diagonal = 1 << (BITS - 1 - i);
+            int above = i == 0 ? 0 : rng.nextInt() & ~((1 << (BITS - i)) - 1);
+            rows[i] = above | diagonal;
+        }
+        for (int k = 0; k < columns.length; k++) {
+            int v = columns[k];
+            int scrambled = 0;
+            for (int i = 0; i < BITS; i++) {
+                scrambled |= (Integer.bitCount(rows[i] & v) & 1) << (BITS - 1 - i);
+            }
+            columns[k] = scrambled;
+        }
+    }
+
+    private static int[][] unscrambledDirections(int dimensions) {
+        int[][] directions = new int[dimensions][BITS];
+        for (int k = 0; k < BITS; k++) {
+            directions[0][k] = 1 << (BITS - 1 - k);
+        }
+        List<Integer> polynomials = primitivePolynomials(dimensions - 1);
+        SplittableRandom initial = new SplittableRandom(DIRECTION_SEED);
+        for (int d = 1; d < dimensions; d++) {
+            int poly = polynomials.get(d - 1);
+            int degree = 31 - Integer.numberOfLeadingZeros(poly);
+            long[] m = new long[BITS];
+            for (int k = 0; k < degree && k < BITS; k++) {
+                // odd and below 2^(k+1)
+                m[k] = (initial.nextLong(1L << k) << 1) | 1;
+            }
+            for (int k = degree; k < BITS; k++) {
+                long value = m[k - degree] ^ (m[k - degree] << degree);
+                for (int j = 1; j < degree; j++) {
+                    if (((poly >>> (degree - j)) & 1) != 0) {
+                        value ^= m[k - j] << j;
+                    }
+                }
+                m[k] = value;
+            }
+            for (int k = 0; k < BITS; k++) {
+                directions[d][k] = (int) (m[k] << (BITS - 1 - k));
+            }
+        }
+        return directions;
+    }
+
+    // primitive polynomials in increasing degree, x + 1 first; bit i is the coefficient of x^i
+    static List<Integer> primitivePolynomials(int count) {
+        List<Integer> found = new ArrayList<>();
+        for (int degree = 1; found.size() < count; degree++) {
+            for (int poly = (1 << degree) | 1; poly < (1 << (degree + 1)) && found.size() < count; poly += 2) {
+                if (isPrimitive(poly, degree)) {
+                    found.add(poly);
+                }
+            }
+        }
+        return found;
+    }
+
+    // x has order 2^degree - 1 modulo poly
+    private static boolean isPrimitive(int poly, int degree) {
+        long order = (1L << degree) - 1;
+        if (powerOfX(order, poly, degree) != 1) return false;
+        long n = order;
+        for (long q = 2; q * q <= n; q++) {
+            if (n % q == 0) {
+                if (powerOfX(order / q, poly, degree) == 1) return false;
+                while (n % q == 0) n /= q;
+            }
+        }
+        return n == 1 || n == order || powerOfX(order / n, poly, degree) != 1;
+    }
+
+    private static long powerOfX(long exponent, int poly, int degree) {
+        long result = 1;
+        long base = degree == 1 ? reduce(2, poly, degree) : 2;
+        while (exponent > 0) {
+            if ((exponent & 1) != 0) result = multiply(result, base, poly, degree);
+            base = multiply(base, base, poly, degree);
+            exponent >>>= 1;
+        }
+        return result;
+    }
+
+    private static long multiply(long a, long b, int poly, int degree) {
+        long product = 0;
+        while (b != 0) {
+            if ((b & 1) != 0) product ^= a;
+            a <<= 1;
+            b >>>= 1;
+        }
+        return reduce(product, poly, degree);
+    }
+
+    private static long reduce(long value, int poly, int degree) {
+        for (int bit = 63 - Long.numberOfLeadingZeros(value); bit >= degree; bit--) {
+            if (((value >>> bit) & 1) != 0) {
+                value ^= (long) poly << (bit - degree);
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,322 @@
+package com.hiflite.engine;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Solver results kept on disk between runs, one memory-mapped file per set of model parameters.
+ * <p>
+ * The file is named after a 64-bit hash of every parameter that changes an answer (see {@link Key}), so a
+ * changed mean, horizon, target, path count or seed simply looks up a different file: stale results are
+ * never read. A file holds a fixed table of solved values -- (operation, input, target) to result -- and
+ * optionally one {@link PosCurve}, which answers every PATHWISE question at once.
+ * <p>
+ * Both are bounded. The slot table evicts the least recently used entry of a probe window when it fills
+ * up, and the directory keeps at most {@code maxFiles} parameter sets, dropping the least recently opened.
+ * <p>
+ * The cache is only an accelerator: any I/O problem, a file locked by another run, or a file written by an
+ * older format turns into a miss (and a rewrite), never into a wrong answer.
+ */
+public final class SolverCache {
+
+    /** {@code -Dhiflite.cache.dir}, default {@code ~/.hiflite/cache}. */
+    public static final String DIRECTORY_PROPERTY = "hiflite.cache.dir";
+
+    private static final long MAGIC = 0x48464C_4341434845L;   // "HFLCACHE"
+    private static final int FORMAT_VERSION = 1;
+    private static final String SUFFIX = ".hfc";
+
+    private static final int SLOTS = 256;
+    private static final int PROBES = 8;
+    private static final int DEFAULT_MAX_FILES = 32;
+
+    // header: magic, format, slots, parameters hash, curve capacity, curve length, clock
+    private static final int HEADER_BYTES = 64;
+    private static final int H_FORMAT = 8;
+    private static final int H_SLOTS = 12;
+    private static final int H_HASH = 16;
+    private static final int H_CURVE_CAPACITY = 24;
+    private static final int H_CURVE_LENGTH = 28;
+    private static final int H_CLOCK = 32;
+
+    // slot: operation (0 = empty), input, target, result, last-used stamp
+    private static final int SLOT_BYTES = 40;
+    private static final int S_OPERATION = 0;
+    private static final int S_INPUT = 8;
+    private static final int S_TARGET = 16;
+    private static final int S_RESULT = 24;
+    private static final int S_STAMP = 32;
+
+    private static final SolverCache DISABLED = new SolverCache(null, null, 0, 0);
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final int curveCapacity;
+    private final long parametersHash;
+    private int hits;
+    private int misses;
+
+    private SolverCache(FileChannel channel, MappedByteBuffer map, int curveCapacity, long parametersHash) {
+        this.channel = channel;
+        this.map = map;
+        this.curveCapacity = curveCapacity;
+        this.parametersHash = parametersHash;
+    }
+
+    /** A cache that never hits and stores nothing. */
+    public static SolverCache disabled() {
+        return DISABLED;
+    }
+
+    public static Path defaultDirectory() {
+        String dir = System.getProperty(DIRECTORY_PROPERTY);
+        return dir != null ? Path.of(dir) : Path.of(System.getProperty("user.home"), ".hiflite", "cache");
+    }
+
+    /**
+     * Maps the file for {@code parametersHash} in {@code directory}, creating or resetting it when it is
+     * missing or was written for something else. Room is reserved for a curve of {@code curveCapacity} paths.
+     */
+    public static SolverCache open(Path directory, long parametersHash, int curveCapacity) {
+        return open(directory, parametersHash, curveCapacity, DEFAULT_MAX_FILES);
+    }
+
+    public static SolverCache open(Path directory, long parametersHash, int curveCapacity, int maxFiles) {
+        Path file = directory.resolve(String.format("%016x%s", parametersHash, SUFFIX));
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(directory);
+            evict(directory, file, maxFiles);
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                // another run owns this parameter set right now
+                channel.close();
+                return DISABLED;
+            }
+            long size = HEADER_BYTES + (long) SLOTS * SLOT_BYTES + (long) curveCapacity * Double.BYTES;
+            boolean fresh = channel.size() != size;
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            SolverCache cache = new SolverCache(channel, map, curveCapacity, parametersHash);
+            if (fresh || !cache.headerMatches()) {
+                cache.reset();
+            }
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return cache;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("solver cache disabled: " + e);
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // already failing over to no cache
+                }
+            }
+            return DISABLED;
+        }
+    }
+
+    public boolean isEnabled() {
+        return map != null;
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    /** The cached result for (operation, input, target), or what {@code solver} returns, which is then cached. */
+    public synchronized double computeIfAbsent(int operation, double input, double target, DoubleSupplier solver) {
+        if (operation <= 0) {
+            throw new IllegalArgumentException("operation ids start at 1: " + operation);
+        }
+        if (map == null) {
+            return solver.getAsDouble();
+        }
+        long inputBits = Double.doubleToLongBits(input);
+        long targetBits = Double.doubleToLongBits(target);
+        int home = (int) (mix(mix(parametersHash ^ operation) ^ inputBits ^ mix(targetBits)) & (SLOTS - 1));
+
+        int victim = -1;
+        long oldest = Long.MAX_VALUE;
+        for (int probe = 0; probe < PROBES; probe++) {
+            int slot = HEADER_BYTES + ((home + probe) & (SLOTS - 1)) * SLOT_BYTES;
+            int storedOperation = map.getInt(slot + S_OPERATION);
+            if (storedOperation == operation
+                    && map.getLong(slot + S_INPUT) == inputBits
+                    && map.getLong(slot + S_TARGET) == targetBits) {
+                map.putLong(slot + S_STAMP, tick());
+                hits++;
+                return Double.longBitsToDouble(map.getLong(slot + S_RESULT));
+            }
+            long stamp = storedOperation == 0 ? Long.MIN_VALUE : map.getLong(slot + S_STAMP);
+            if (stamp < oldest) {
+                oldest = stamp;
+                victim = slot;
+            }
+        }
+
+        misses++;
+        double result = solver.getAsDouble();
+        // the operation goes in last, so a run killed mid-write leaves an empty slot rather than a torn one
+        map.putInt(victim + S_OPERATION, 0);
+        map.putLong(victim + S_INPUT, inputBits);
+        map.putLong(victim + S_TARGET, targetBits);
+        map.putLong(victim + S_RESULT, Double.doubleToLongBits(result));
+        map.putLong(victim + S_STAMP, tick());
+        map.putInt(victim + S_OPERATION, operation);
+        return result;
+    }
+
+    /** The curve stored for these parameters, or null. */
+    public synchronized PosCurve curve() {
+        if (map == null) {
+            return null;
+        }
+        int length = map.getInt(H_CURVE_LENGTH);
+        if (length <= 0 || length > curveCapacity) {
+            misses++;
+            return null;
+        }
+        double[] ratios = new double[length];
+        map.slice(curveOffset(), length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(ratios);
+        hits++;
+        return PosCurve.fromSortedRatios(ratios);
+    }
+
+    /** Stores {@code curve} if it fits the room reserved when the file was opened. */
+    public synchronized void putCurve(PosCurve curve) {
+        double[] ratios = curve.sortedRatios();
+        if (map == null || ratios.length > curveCapacity) {
+            return;
+        }
+        map.putInt(H_CURVE_LENGTH, 0);
+        map.slice(curveOffset(), ratios.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(ratios);
+        map.force();
+        map.putInt(H_CURVE_LENGTH, ratios.length);
+        map.force();
+    }
+
+    /** Flushes to disk and releases the file for other runs. */
+    public synchronized void close() {
+        if (channel == null || !channel.isOpen()) {
+            return;
+        }
+        try {
+            map.force();
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("solver cache not flushed: " + e);
+        }
+    }
+
+    private int curveOffset() {
+        return HEADER_BYTES + SLOTS * SLOT_BYTES;
+    }
+
+    private long tick() {
+        long clock = map.getLong(H_CLOCK) + 1;
+        map.putLong(H_CLOCK, clock);
+        return clock;
+    }
+
+    private boolean headerMatches() {
+        return map.getLong(0) == MAGIC
+                && map.getInt(H_FORMAT) == FORMAT_VERSION
+                && map.getInt(H_SLOTS) == SLOTS
+                && map.getLong(H_HASH) == parametersHash
+                && map.getInt(H_CURVE_CAPACITY) == curveCapacity;
+    }
+
+    private void reset() {
+        for (int i = 0; i < HEADER_BYTES + SLOTS * SLOT_BYTES; i += Long.BYTES) {
+            map.putLong(i, 0);
+        }
+        map.putInt(H_FORMAT, FORMAT_VERSION);
+        map.putInt(H_SLOTS, SLOTS);
+        map.putLong(H_HASH, parametersHash);
+        map.putInt(H_CURVE_CAPACITY, curveCapacity);
+        map.putInt(H_CURVE_LENGTH, 0);
+        map.force();
+        map.putLong(0, MAGIC);
+        map.force();
+    }
+
+    // keeps at most maxFiles parameter sets, counting the one about to be opened
+    private static void evict(Path directory, Path keep, int maxFiles) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : stream) {
+                if (!file.equals(keep)) {
+                    files.add(file);
+                }
+            }
+        }
+        if (files.size() < maxFiles) {
+            return;
+        }
+        // least recently opened first
+        List<FileTime> opened = new ArrayList<>();
+        for (Path file : files) {
+            opened.add(Files.getLastModifiedTime(file));
+        }
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparing(opened::get));
+        for (int i = 0; i <= files.size() - maxFiles; i++) {
+            Files.deleteIfExists(files.get(order.get(i)));
+        }
+    }
+
+    // SplitMix64 finaliser
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Builds the parameter hash: add every value that changes an answer, with a name so reorderings differ. */
+    public static final class Key {
+        private long hash = 0x6A09E667F3BCC908L;
+
+        public Key add(String name, double value) {
+            return add(name, Double.doubleToLongBits(value));
+        }
+
+        public Key add(String name, long value) {
+            hash = mix(hash ^ name.hashCode());
+            hash = mix(hash ^ value);
+            return this;
+        }
+
+        public Key add(String name, boolean value) {
+            return add(name, value ? 1L : 0L);
+        }
+
+        public Key add(String name, String value) {
+            return add(name, (long) value.hashCode() << 32 ^ value.length());
+        }
+
+        public long hash() {
+            return hash;
+        }
+    }
+}
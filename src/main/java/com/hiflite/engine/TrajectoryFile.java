@@ -0,0 +1,232 @@
+package com.hiflite.engine;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Every path's yearly values in one memory-mapped file, for offline analysis.
+ * <p>
+ * The layout is columnar and fixed-width, so any tool can read it with a few lines of code:
+ * <ul>
+ *   <li>a header of {@link #HEADER_BYTES}: magic, format, paths, years, column and parameter counts, then
+ *       one 32-byte entry per column (ASCII name, byte offset of its data) and per parameter (ASCII name,
+ *       double value);</li>
+ *   <li>one column per field, each {@code paths x years} little-endian doubles, year-major like a
+ *       {@link ScenarioBank}: (year, path) is element {@code year * paths + path}.</li>
+ * </ul>
+ * Columns are mapped one at a time and handed out as {@link DoubleBuffer} views of the mapping: writers
+ * put straight into the page cache, readers get the values without copying. Writers may fill disjoint
+ * elements of a column from several threads.
+ */
+public final class TrajectoryFile implements AutoCloseable {
+
+    public static final int HEADER_BYTES = 4096;
+
+    private static final long MAGIC = 0x48464C_5452414A4CL;   // "HFLTRAJL"
+    private static final int FORMAT_VERSION = 1;
+    private static final int H_FORMAT = 8;
+    private static final int H_PATHS = 12;
+    private static final int H_YEARS = 16;
+    private static final int H_COLUMNS = 20;
+    private static final int H_PARAMETERS = 24;
+    private static final int ENTRIES = 32;
+    private static final int ENTRY_BYTES = 32;
+    private static final int NAME_BYTES = 24;
+
+    private final FileChannel channel;
+    private final int paths;
+    private final int years;
+    private final Map<String, DoubleBuffer> columns;
+    private final Map<String, Double> parameters;
+    /** For a created file: the header, still without its magic, and the column mappings to flush before it. */
+    private final MappedByteBuffer header;
+    private final List<MappedByteBuffer> mappings;
+
+    private TrajectoryFile(FileChannel channel, int paths, int years, Map<String, DoubleBuffer> columns,
+                           Map<String, Double> parameters, MappedByteBuffer header, List<MappedByteBuffer> mappings) {
+        this.channel = channel;
+        this.paths = paths;
+        this.years = years;
+        this.columns = columns;
+        this.parameters = parameters;
+        this.header = header;
+        this.mappings = mappings;
+    }
+
+    /**
+     * Creates (or replaces) {@code file} with zeroed columns, ready to be filled through {@link #column}. The file
+     * does not {@link #open} until {@link #close} has flushed the columns and stamped the magic.
+     */
+    public static TrajectoryFile create(Path file, int paths, int years, List<String> columnNames,
+                                        Map<String, Double> parameters) throws IOException {
+        long columnBytes = (long) paths * years * Double.BYTES;
+        if (columnBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(paths + " paths x " + years + " years do not fit in one mapped column");
+        }
+        if ((long) (columnNames.size() + parameters.size()) * ENTRY_BYTES > HEADER_BYTES - ENTRIES) {
+            throw new IllegalArgumentException("too many columns and parameters for the header");
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(H_FORMAT, FORMAT_VERSION);
+            header.putInt(H_PATHS, paths);
+            header.putInt(H_YEARS, years);
+            header.putInt(H_COLUMNS, columnNames.size());
+            header.putInt(H_PARAMETERS, parameters.size());
+
+            Map<String, DoubleBuffer> columns = new LinkedHashMap<>();
+            List<MappedByteBuffer> mappings = new ArrayList<>();
+            int entry = ENTRIES;
+            long offset = HEADER_BYTES;
+            for (String name : columnNames) {
+                putName(header, entry, name);
+                header.putLong(entry + NAME_BYTES, offset);
+                MappedByteBuffer mapping = map(channel, FileChannel.MapMode.READ_WRITE, offset, columnBytes);
+                mappings.add(mapping);
+                columns.put(name, mapping.asDoubleBuffer());
+                entry += ENTRY_BYTES;
+                offset += columnBytes;
+            }
+            for (Map.Entry<String, Double> parameter : parameters.entrySet()) {
+                putName(header, entry, parameter.getKey());
+                header.putDouble(entry + NAME_BYTES, parameter.getValue());
+                entry += ENTRY_BYTES;
+            }
+            return new TrajectoryFile(channel, paths, years, columns, new LinkedHashMap<>(parameters), header, mappings);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** Maps a file written by {@link #create} read-only. */
+    public static TrajectoryFile open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IllegalArgumentException(file + " is not a trajectory file");
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getLong(0) != MAGIC || header.getInt(H_FORMAT) != FORMAT_VERSION) {
+                throw new IllegalArgumentException(file + " is not a trajectory file of format " + FORMAT_VERSION);
+            }
+            int paths = header.getInt(H_PATHS);
+            int years = header.getInt(H_YEARS);
+            long columnBytes = (long) paths * years * Double.BYTES;
+
+            Map<String, DoubleBuffer> columns = new LinkedHashMap<>();
+            int entry = ENTRIES;
+            for (int c = 0; c < header.getInt(H_COLUMNS); c++) {
+                long offset = header.getLong(entry + NAME_BYTES);
+                if (offset + columnBytes > channel.size()) {
+                    throw new IllegalArgumentException(file + " is truncated");
+                }
+                columns.put(getName(header, entry),
+                        map(channel, FileChannel.MapMode.READ_ONLY, offset, columnBytes).asDoubleBuffer());
+                entry += ENTRY_BYTES;
+            }
+            Map<String, Double> parameters = new LinkedHashMap<>();
+            for (int p = 0; p < header.getInt(H_PARAMETERS); p++) {
+                parameters.put(getName(header, entry), header.getDouble(entry + NAME_BYTES));
+                entry += ENTRY_BYTES;
+            }
+            return new TrajectoryFile(channel, paths, years, columns, parameters, null, List.of());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getPaths() {
+        return paths;
+    }
+
+    public int getYears() {
+        return years;
+    }
+
+    public List<String> getColumnNames() {
+        return new ArrayList<>(columns.keySet());
+    }
+
+    public Map<String, Double> getParameters() {
+        return Collections.unmodifiableMap(parameters);
+    }
+
+    /** The whole column as a view of the mapping, element {@code year * paths + path}; writable for a created file. */
+    public DoubleBuffer column(String name) {
+        DoubleBuffer column = columns.get(name);
+        if (column == null) {
+            throw new IllegalArgumentException("no column '" + name + "', the file has " + columns.keySet());
+        }
+        return column.duplicate();
+    }
+
+    public double value(String column, int year, int path) {
+        return columns.get(column).get(year * paths + path);
+    }
+
+    /**
+     * Writes a created file's columns through to disk, then stamps the magic and releases it. The magic goes last,
+     * so a file whose writer died before closing it does not open.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            try {
+                if (header != null) {
+                    // the channel's force does not cover mapped writes: each mapping flushes its own pages
+                    for (MappedByteBuffer mapping : mappings) {
+                        mapping.force();
+                    }
+                    header.force();
+                    header.putLong(0, MAGIC);
+                    header.force();
+                }
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long offset, long bytes)
+            throws IOException {
+        // mapping past the end of a writable file grows it with zeros
+        MappedByteBuffer mapping = channel.map(mode, offset, bytes);
+        mapping.order(ByteOrder.LITTLE_ENDIAN);
+        return mapping;
+    }
+
+    private static void putName(MappedByteBuffer header, int entry, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length == 0 || bytes.length > NAME_BYTES) {
+            throw new IllegalArgumentException("names are 1 to " + NAME_BYTES + " ASCII characters: '" + name + "'");
+        }
+        header.put(entry, bytes);
+    }
+
+    private static String getName(MappedByteBuffer header, int entry) {
+        byte[] bytes = new byte[NAME_BYTES];
+        header.get(entry, bytes);
+        int length = 0;
+        while (length < NAME_BYTES && bytes[length] != 0) {
+            length++;
+        }
+        return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,280 @@
+package com.hiflite.engine;
+
+import java.util.Arrays;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Advances SPECIES.length() paths per instruction: 4 lanes on AVX2, 8 on AVX-512.
+ * <p>
+ * Lanes are adjacent paths, which are adjacent in the year-major bank, so every load is one
+ * contiguous vector load. Dead paths are carried as a lane mask rather than a branch; a block stops
+ * early once every lane is dead. Paths left over after the last full block go through the scalar kernel.
+ * <p>
+ * Monthly walks go year-major instead, with per-path state in arrays: a year's months come from the
+ * {@link MonthlyBridge} for the whole chunk at once, then each block of lanes keeps its state in registers for
+ * the twelve months. No lane mask is needed: growth is positive and withdrawals only take money out, so a
+ * balance that is not above zero stays there. A whole year takes its months as one discount sum per path
+ * ({@link MonthlyBridge#discountSums}) instead, so it costs about what an annual year does.
+ */
+final class VectorLognormalKernel implements LognormalPathKernel {
+
+    private static final VectorSpecies<Double> SPECIES = VectorMath.SPECIES;
+
+    private static final int MONTHS = MonthlyBridge.MONTHS;
+    private static final ThreadLocal<MonthlyWorkspace> MONTHLY_WORKSPACE = ThreadLocal.withInitial(MonthlyWorkspace::new);
+
+    private final ScalarLognormalKernel tail = new ScalarLognormalKernel();
+
+    @Override
+    public void criticalRatios(double[][] series, int paths, int years, int from, int to, double[] ratios) {
+        double[] realReturns = series[REAL_RETURNS];
+        double[] inflation = series[INFLATION];
+        int lanes = SPECIES.length();
+        int sim = from;
+        for (; sim + lanes <= to; sim += lanes) {
+            DoubleVector growth = DoubleVector.broadcast(SPECIES, 1.0);
+            DoubleVector withdrawn = DoubleVector.zero(SPECIES);
+            DoubleVector spendingIndex = DoubleVector.broadcast(SPECIES, 1.0);
+            DoubleVector ratio = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+
+            for (int year = 0; year < years; year++) {
+                int cell = year * paths + sim;
+                DoubleVector inflationGrowth = DoubleVector.fromArray(SPECIES, inflation, cell).add(1.0);
+                DoubleVector nominalGrowth = DoubleVector.fromArray(SPECIES, realReturns, cell).add(1.0).mul(inflationGrowth);
+
+                if (year > 0) {
+                    spendingIndex = spendingIndex.mul(inflationGrowth);
+                }
+                growth = growth.mul(nominalGrowth);
+                withdrawn = withdrawn.fma(nominalGrowth, spendingIndex);
+                ratio = ratio.min(growth.div(withdrawn));
+            }
+            ratio.intoArray(ratios, sim);
+        }
+        tail.criticalRatios(series, paths, years, sim, to, ratios);
+    }
+
+    @Override
+    public long survivors(double[][] series, int paths, int years, int from, int to,
+                          double startPortfolio, double initialSpending) {
+        double[] realReturns = series[REAL_RETURNS];
+        double[] inflation = series[INFLATION];
+        int lanes = SPECIES.length();
+        long survivors = 0;
+        int sim = from;
+        for (; sim + lanes <= to; sim += lanes) {
+            DoubleVector portfolio = DoubleVector.broadcast(SPECIES, startPortfolio);
+            DoubleVector spending = DoubleVector.broadcast(SPECIES, initialSpending);
+            VectorMask<Double> alive = SPECIES.maskAll(true);
+
+            for (int year = 0; year < years && alive.anyTrue(); year++) {
+                int cell = year * paths + sim;
+                DoubleVector inflationGrowth = DoubleVector.fromArray(SPECIES, inflation, cell).add(1.0);
+                DoubleVector nominalGrowth = DoubleVector.fromArray(SPECIES, realReturns, cell).add(1.0).mul(inflationGrowth);
+
+                if (year > 0) {
+                    spending = spending.mul(inflationGrowth);
+                }
+                portfolio = portfolio.mul(nominalGrowth).sub(spending);
+                alive = alive.and(portfolio.compare(VectorOperators.GT, 0.0));
+            }
+            survivors += alive.trueCount();
+        }
+        return survivors + tail.survivors(series, paths, years, sim, to, startPortfolio, initialSpending);
+    }
+
+    @Override
+    public void criticalRatios(double[][] series, int paths, MonthlyBridge months, int steps, int from, int to,
+                               double[] ratios) {
+        int count = to - from;
+        MonthlyWorkspace ws = MONTHLY_WORKSPACE.get().reset(count, 1.0, 0.0, 1.0);
+        for (int year = 0; year * MONTHS < steps; year++) {
+            yearGrowth(series, year * paths + from, count, year > 0, ws);
+            int monthsInYear = Math.min(MONTHS, steps - year * MONTHS);
+            if (monthsInYear == MONTHS) {
+                months.discountSums(year, from, to, ws.annualGrowth, true, ws.monthGrowth, 0);
+                discountYear(ws, count);
+            } else {
+                months.monthlyGrowth(year, from, to, ws.annualGrowth, ws.monthGrowth);
+                discountMonths(ws, count, monthsInYear);
+            }
+        }
+        // withdrawn / growth is every withdrawal so far discounted to the start, so it only grows: the
+        // minimum of growth / withdrawn over the steps is its value after the last one
+        for (int k = 0; k < count; k++) {
+            ratios[from + k] = ws.balance[k] / ws.withdrawn[k];
+        }
+    }
+
+    @Override
+    public long survivors(double[][] series, int paths, MonthlyBridge months, int steps, int from, int to,
+                          double startPortfolio, double initialSpending) {
+        int count = to - from;
+        MonthlyWorkspace ws = MONTHLY_WORKSPACE.get().reset(count, startPortfolio, 0.0, initialSpending);
+        for (int year = 0; year * MONTHS < steps; year++) {
+            yearGrowth(series, year * paths + from, count, year > 0, ws);
+            int monthsInYear = Math.min(MONTHS, steps - year * MONTHS);
+            if (monthsInYear == MONTHS) {
+                months.discountSums(year, from, to, ws.annualGrowth, true, ws.monthGrowth, 0);
+                spendYear(ws, count);
+            } else {
+                months.monthlyGrowth(year, from, to, ws.annualGrowth, ws.monthGrowth);
+                spendMonths(ws, count, monthsInYear);
+            }
+        }
+        long survivors = 0;
+        for (int k = 0; k < count; k++) {
+            survivors += ws.balance[k] > 0 ? 1 : 0;
+        }
+        return survivors;
+    }
+
+    // The month loops are methods of their own, called once a year: each compiles small and early, instead of
+    // one large on-stack replacement of the whole walk with the bridge inlined into it.
+
+    // what 1 of starting portfolio is worth (ws.balance) and what 1 of spending has taken out, grown forward
+    // (ws.withdrawn), after the year's first `months` months
+    private static void discountMonths(MonthlyWorkspace ws, int count, int months) {
+        double[] growth = ws.balance;
+        double[] withdrawn = ws.withdrawn;
+        double[] spendingIndex = ws.spending;
+        double[] monthGrowth = ws.monthGrowth;
+        int lanes = SPECIES.length();
+        int k = 0;
+        for (int bound = SPECIES.loopBound(count); k < bound; k += lanes) {
+            DoubleVector g = DoubleVector.fromArray(SPECIES, growth, k);
+            DoubleVector w = DoubleVector.fromArray(SPECIES, withdrawn, k);
+            DoubleVector draw = DoubleVector.fromArray(SPECIES, spendingIndex, k).mul(1.0 / MONTHS);
+            for (int m = 0; m < months; m++) {
+                DoubleVector monthly = DoubleVector.fromArray(SPECIES, monthGrowth, m * count + k);
+                g = g.mul(monthly);
+                w = w.fma(monthly, draw);
+            }
+            g.intoArray(growth, k);
+            w.intoArray(withdrawn, k);
+        }
+        for (; k < count; k++) {
+            double draw = spendingIndex[k] / MONTHS;
+            for (int m = 0; m < months; m++) {
+                double monthly = monthGrowth[m * count + k];
+                growth[k] *= monthly;
+                withdrawn[k] = withdrawn[k] * monthly + draw;
+            }
+        }
+    }
+
+    // discountMonths for a whole year, with the months' discount sums in ws.monthGrowth
+    private static void discountYear(MonthlyWorkspace ws, int count) {
+        double[] growth = ws.balance;
+        double[] withdrawn = ws.withdrawn;
+        double[] spendingIndex = ws.spending;
+        double[] annualGrowth = ws.annualGrowth;
+        double[] sums = ws.monthGrowth;
+        int k = 0;
+        for (int bound = SPECIES.loopBound(count); k < bound; k += SPECIES.length()) {
+            DoubleVector g = DoubleVector.fromArray(SPECIES, annualGrowth, k);
+            DoubleVector draw = DoubleVector.fromArray(SPECIES, spendingIndex, k).mul(1.0 / MONTHS);
+            DoubleVector.fromArray(SPECIES, growth, k).mul(g).intoArray(growth, k);
+            draw.fma(DoubleVector.fromArray(SPECIES, sums, k), DoubleVector.fromArray(SPECIES, withdrawn, k))
+                    .mul(g).intoArray(withdrawn, k);
+        }
+        for (; k < count; k++) {
+            growth[k] *= annualGrowth[k];
+            withdrawn[k] = (withdrawn[k] + spendingIndex[k] / MONTHS * sums[k]) * annualGrowth[k];
+        }
+    }
+
+    // spendMonths for a whole year, with the months' discount sums in ws.monthGrowth
+    private static void spendYear(MonthlyWorkspace ws, int count) {
+        double[] balance = ws.balance;
+        double[] spending = ws.spending;
+        double[] annualGrowth = ws.annualGrowth;
+        double[] sums = ws.monthGrowth;
+        int k = 0;
+        for (int bound = SPECIES.loopBound(count); k < bound; k += SPECIES.length()) {
+            DoubleVector draw = DoubleVector.fromArray(SPECIES, spending, k).mul(-1.0 / MONTHS);
+            draw.fma(DoubleVector.fromArray(SPECIES, sums, k), DoubleVector.fromArray(SPECIES, balance, k))
+                    .mul(DoubleVector.fromArray(SPECIES, annualGrowth, k)).intoArray(balance, k);
+        }
+        for (; k < count; k++) {
+            balance[k] = (balance[k] - spending[k] / MONTHS * sums[k]) * annualGrowth[k];
+        }
+    }
+
+    // ws.balance after the year's first `months` monthly withdrawals of ws.spending / 12
+    private static void spendMonths(MonthlyWorkspace ws, int count, int months) {
+        double[] balance = ws.balance;
+        double[] spending = ws.spending;
+        double[] monthGrowth = ws.monthGrowth;
+        int lanes = SPECIES.length();
+        int k = 0;
+        for (int bound = SPECIES.loopBound(count); k < bound; k += lanes) {
+            DoubleVector b = DoubleVector.fromArray(SPECIES, balance, k);
+            DoubleVector draw = DoubleVector.fromArray(SPECIES, spending, k).mul(1.0 / MONTHS);
+            for (int m = 0; m < months; m++) {
+                b = b.mul(DoubleVector.fromArray(SPECIES, monthGrowth, m * count + k)).sub(draw);
+            }
+            b.intoArray(balance, k);
+        }
+        for (; k < count; k++) {
+            double draw = spending[k] / MONTHS;
+            for (int m = 0; m < months; m++) {
+                balance[k] = balance[k] * monthGrowth[m * count + k] - draw;
+            }
+        }
+    }
+
+    // the year's nominal growth per path into ws.annualGrowth; spending indexed by its inflation after the first year
+    private static void yearGrowth(double[][] series, int cell, int count, boolean index, MonthlyWorkspace ws) {
+        double[] realReturns = series[REAL_RETURNS];
+        double[] inflation = series[INFLATION];
+        double[] annualGrowth = ws.annualGrowth;
+        double[] spending = ws.spending;
+        int k = 0;
+        for (int bound = SPECIES.loopBound(count); k < bound; k += SPECIES.length()) {
+            DoubleVector inflationGrowth = DoubleVector.fromArray(SPECIES, inflation, cell + k).add(1.0);
+            DoubleVector.fromArray(SPECIES, realReturns, cell + k).add(1.0).mul(inflationGrowth).intoArray(annualGrowth, k);
+            if (index) {
+                DoubleVector.fromArray(SPECIES, spending, k).mul(inflationGrowth).intoArray(spending, k);
+            }
+        }
+        for (; k < count; k++) {
+            double inflationGrowth = 1 + inflation[cell + k];
+            annualGrowth[k] = (1 + realReturns[cell + k]) * inflationGrowth;
+            if (index) {
+                spending[k] *= inflationGrowth;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "vector(" + SPECIES.length() + " lanes)";
+    }
+
+    private static final class MonthlyWorkspace {
+        double[] balance = new double[0];
+        double[] withdrawn = new double[0];
+        double[] spending = new double[0];
+        double[] annualGrowth = new double[0];
+        double[] monthGrowth = new double[0];
+
+        MonthlyWorkspace reset(int n, double startBalance, double startWithdrawn, double startSpending) {
+            if (balance.length < n) {
+                balance = new double[n];
+                withdrawn = new double[n];
+                spending = new double[n];
+                annualGrowth = new double[n];
+                monthGrowth = new double[MONTHS * n];
+            }
+            Arrays.fill(balance, 0, n, startBalance);
+            Arrays.fill(withdrawn, 0, n, startWithdrawn);
+            Arrays.fill(spending, 0, n, startSpending);
+            return this;
+        }
+    }
+}
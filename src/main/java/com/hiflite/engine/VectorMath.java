@@ -0,0 +1,67 @@
+package com.hiflite.engine;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Lane-wise math the Vector API does not give us as a fast intrinsic on every platform.
+ */
+final class VectorMath {
+
+    private static final double LOG2E = 1.4426950408889634;
+    private static final double LN2_HI = 0.6931471803691238;      // high bits of ln 2, exact in k * LN2_HI
+    private static final double LN2_LO = 1.9082149292705877e-10;  // ln 2 - LN2_HI
+    private static final double ROUNDER = 6755399441055744.0;     // 1.5 * 2^52: adding it rounds to an integer in the low bits
+    private static final long ROUNDER_BITS = Double.doubleToRawLongBits(ROUNDER);
+
+    // 1/n! for the Taylor series of exp on |r| <= ln2 / 2; degree 12 leaves < 1 ulp of truncation error
+    private static final double[] INVERSE_FACTORIALS = {
+            1.0, 1.0, 1.0 / 2, 1.0 / 6, 1.0 / 24, 1.0 / 120, 1.0 / 720, 1.0 / 5040, 1.0 / 40320,
+            1.0 / 362880, 1.0 / 3628800, 1.0 / 39916800, 1.0 / 479001600
+    };
+
+    static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private VectorMath() {
+    }
+
+    // with fewer than 4 lanes the vector code is no faster than the scalar loop
+    static boolean worthwhile() {
+        return SPECIES.length() >= 4;
+    }
+
+    /** {@code values[i] = exp(drift + volatility * values[i]) - 1} over [offset, offset + count). */
+    static void lognormalReturns(double[] values, int offset, int count, double drift, double volatility) {
+        int i = offset;
+        int end = offset + count;
+        for (int upper = offset + SPECIES.loopBound(count); i < upper; i += SPECIES.length()) {
+            DoubleVector z = DoubleVector.fromArray(SPECIES, values, i);
+            exp(z.mul(volatility).add(drift)).sub(1.0).intoArray(values, i);
+        }
+        for (; i < end; i++) {
+            values[i] = Math.exp(drift + volatility * values[i]) - 1;
+        }
+    }
+
+    /**
+     * exp(x) to within a couple of ulps for x in [-708, 709]; inputs outside are clamped.
+     * Splits x = k ln2 + r, evaluates exp(r) by Horner and scales by 2^k built in the exponent bits.
+     */
+    static DoubleVector exp(DoubleVector x) {
+        x = x.max(-708.0).min(709.0);
+        DoubleVector shifted = x.mul(LOG2E).add(ROUNDER);
+        DoubleVector k = shifted.sub(ROUNDER);
+        LongVector kBits = shifted.reinterpretAsLongs().sub(ROUNDER_BITS);
+
+        DoubleVector r = x.sub(k.mul(LN2_HI)).sub(k.mul(LN2_LO));
+        DoubleVector poly = DoubleVector.broadcast(x.species(), INVERSE_FACTORIALS[INVERSE_FACTORIALS.length - 1]);
+        for (int i = INVERSE_FACTORIALS.length - 2; i >= 0; i--) {
+            poly = poly.mul(r).add(INVERSE_FACTORIALS[i]);
+        }
+
+        DoubleVector scale = kBits.add(1023).lanewise(VectorOperators.LSHL, 52).reinterpretAsDoubles();
+        return poly.mul(scale);
+    }
+}
@@ -1,11 +1,25 @@
 package com.hiflite.modernguardrailsmodel_gemini;
 
-import java.util.Random;
+import com.hiflite.engine.BatchKernel;
+import com.hiflite.engine.GuardrailSolver;
+import com.hiflite.engine.MonteCarloEngine;
+import com.hiflite.engine.MonthlyBridge;
+import com.hiflite.engine.MonthlyRiskSurface;
+import com.hiflite.engine.PosEstimate;
+import com.hiflite.engine.RootFinder;
+import com.hiflite.engine.ScenarioBank;
+import com.hiflite.utils.TimingUtils;
+
+import java.time.Month;
+import java.time.format.TextStyle;
+import java.util.Locale;
+import java.util.random.RandomGenerator;
 
 public class IncomeLabProModel {
 
     // --- Core Settings ---
-    private static final int NUM_SIMULATIONS = 100_000;
+    // -Dhiflite.paths / -Dhiflite.years override the path count and plan length (the benchmarks sweep them)
+    static final int NUM_SIMULATIONS = Integer.getInteger("hiflite.paths", 100_000);
     private static final double REAL_MEAN_RETURN = 0.039;   // (JPM gives nominal, we need to subtract inflation)
     private static final double REAL_STD_DEV = 0.1089;        // orig gives 0.12 ; historical since 1955 is 0.1089
     private static final double INFLATION_RATE = 0.03;
@@ -15,12 +29,13 @@ public class IncomeLabProModel {
     private static final double UPPER_GUARDRAIL_RISK = 0.05; // Prosperity Trigger
 
     private static final double INITIAL_PORTFOLIO = 1_500_000.0;
-    private static final int RETIREMENT_LENGTH = 30; // Total plan length from 2026
+    static final int RETIREMENT_LENGTH = Integer.getInteger("hiflite.years", 30); // Total plan length from 2026
 
     // --- User Specifics ---
     private static final double MAN_SS_ANNUAL = 3367.0 * 12; //
     private static final double WOMAN_SS_ANNUAL = 3377.0 * 12; //
     private static final double ANNUITY_NOMINAL = 22599.0;
+    private static final double ANNUITY_STEP_UP_HURDLE = 0.07; // nominal return above this steps the payout up
 
     private static final double GO_GO_MULTIPLIER = 1.25;   //spend 25% more in the go-go years
     private static final int GO_GO_YEARS = 10;             // 10 years in the gogo period
@@ -28,10 +43,50 @@ public class IncomeLabProModel {
 
 
 
-    private static final Random RANDOM = new Random(System.currentTimeMillis());
+    private static final long SEED = Long.getLong("hiflite.seed", System.currentTimeMillis());
+    private static final MonteCarloEngine ENGINE = new MonteCarloEngine(SEED);
+
+    private static ScenarioBank scenarioBank;
+
+    // monthly mode: -Dhiflite.monthly=true pays spending, SS and the annuity monthly, splits each bank year into twelve
+    // months (MonthlyBridge) and checks the guardrails every month. Steps then count months: step t is month t % 12
+    // of model year t / 12. Risk, the solves and the monthly guardrail checks read a MonthlyRiskSurface for the
+    // current year instead of replaying the bank's months
+    static final boolean MONTHLY = Boolean.getBoolean("hiflite.monthly");
+    static final int STEPS_PER_YEAR = MONTHLY ? MonthlyBridge.MONTHS : 1;
+    static final int STEPS = (RETIREMENT_LENGTH + 1) * STEPS_PER_YEAR;
+    private static MonthlyBridge monthlyBridge;
+    private static BatchKernel monthlyKernel;
+    private static MonthlyRiskSurface.Walk riskWalk;
+    private static MonthlyRiskSurface riskSurface;
+
+    // randomized quasi-Monte Carlo (scrambled Sobol) instead of NUM_SIMULATIONS pseudo-random paths
+    private static final boolean QUASI_RANDOM = false;
+    private static final int QMC_REPLICATES = 16;
+    private static final int QMC_PATHS_PER_REPLICATE = 1 << 12;
+
+    static long pathsSimulated;
+
+    // the original solvers ran 20 fixed halvings (GuardrailSolver.ADAPTIVE off)
+    private static final int FIXED_HALVINGS = 20;
+    private static GuardrailSolver solver;
+
+    // income by model year, compiled once: SS, and the annuity's real value before any step-up
+    private static final double[] SS_BY_YEAR = ssTable();
+    private static final double[] ANNUITY_BY_YEAR = annuityTable();
+    // the same by month (index year * 12 + month) for monthly mode; each year's months add up to its annual value
+    private static final double[] SS_BY_MONTH = ssByMonthTable();
+    private static final double[] ANNUITY_BY_MONTH = annuityByMonthTable();
+
+    // 2026 is growth only (no spending), then the go-go years through GO_GO_YEARS
+    private static final BatchKernel KERNEL = BatchKernel.of(BatchKernel.Order.WITHDRAW_THEN_GROW,
+            (series, cell) -> 1 + series[0][cell],
+            BatchKernel.SpendingRule.indexed(spendingMultipliers(), 1.0),
+            new AnnuityIncome());
 
     public static void main(String[] args) {
         double currentPortfolio = INITIAL_PORTFOLIO;
+        RandomGenerator market = ENGINE.newStream();
 
         // 1. Solve for the Standard of Living we can afford starting in 2027
         // We pass '1' because the spending doesn't start until Year 1 (2027)
@@ -49,43 +104,111 @@ public class IncomeLabProModel {
         System.out.println("Year | Portfolio  | Real Spend  | SS/Annuity  | Port. Draw  | Risk %| Note");
         System.out.println("-------------------------------------------------------------------------------");
 
-        for (int year = 0; year <= RETIREMENT_LENGTH; year++) {
-            int calYear = 2026 + year;
-            double ss = getSSForYear(year);
-            double annuity = getAnnuityForYear(year, REAL_MEAN_RETURN + INFLATION_RATE);
-
-            double totalSpend = 0;
-            double portDraw = 0;
-            String note = "Steady";
-
-            if (calYear == 2026) {
-                note = "Woman Working";
-                totalSpend = 0; // No portfolio dip
-                portDraw = 0;
-            } else {
-                double multiplier = (year <= GO_GO_YEARS) ? GO_GO_MULTIPLIER : 1.0;
-                totalSpend = realBaseIncome * multiplier;
-                portDraw = Math.max(0, totalSpend - ss - annuity);
-
-                // Risk Check and Guardrail Triggering
-                double currentRisk = estimateRisk(currentPortfolio, realBaseIncome, year);
-                if (currentRisk >= LOWER_GUARDRAIL_RISK) {
-                    realBaseIncome = solveForRealIncome(currentPortfolio, TARGET_RISK, year);
-                    note = "CUT";
-                } else if (currentRisk <= UPPER_GUARDRAIL_RISK) {
-                    realBaseIncome = solveForRealIncome(currentPortfolio, TARGET_RISK, year);
-                    note = "RAISE";
+        if (MONTHLY) {
+            walkForwardMonthly(currentPortfolio, realBaseIncome, market);
+            System.out.printf("\nsteps: %d monthly withdrawals, guardrails checked monthly\n", STEPS);
+        } else {
+            for (int year = 0; year <= RETIREMENT_LENGTH; year++) {
+                int calYear = 2026 + year;
+                double ss = SS_BY_YEAR[year];
+                double annuity = ANNUITY_BY_YEAR[year] * Math.pow(annuityStepUp(REAL_MEAN_RETURN), Math.max(0, calYear - 2028));
+
+                double totalSpend = 0;
+                double portDraw = 0;
+                String note = "Steady";
+
+                if (calYear == 2026) {
+                    note = "Woman Working";
+                    totalSpend = 0; // No portfolio dip
+                    portDraw = 0;
+                } else {
+                    double multiplier = (year <= GO_GO_YEARS) ? GO_GO_MULTIPLIER : 1.0;
+                    totalSpend = realBaseIncome * multiplier;
+                    portDraw = Math.max(0, totalSpend - ss - annuity);
+
+                    // Risk Check and Guardrail Triggering
+                    double currentRisk = estimateRisk(currentPortfolio, realBaseIncome, year);
+                    if (currentRisk >= LOWER_GUARDRAIL_RISK) {
+                        realBaseIncome = solveForRealIncome(currentPortfolio, TARGET_RISK, year);
+                        note = "CUT";
+                    } else if (currentRisk <= UPPER_GUARDRAIL_RISK) {
+                        realBaseIncome = solveForRealIncome(currentPortfolio, TARGET_RISK, year);
+                        note = "RAISE";
+                    }
                 }
+
+                System.out.printf("%4d | $%,9.0f | $%,10.0f | $%,10.0f | $%,10.0f | %4.1f%% | %s\n",
+                        calYear, currentPortfolio, totalSpend, (ss + annuity), portDraw, estimateRisk(currentPortfolio, realBaseIncome, year)*100, note);
+
+                // Market impact
+                double actualReturn = REAL_MEAN_RETURN + (market.nextGaussian() * REAL_STD_DEV);
+                currentPortfolio = (currentPortfolio - portDraw) * (1 + actualReturn);
+
+                if (currentPortfolio <= 0) break;
             }
+        }
+        System.out.printf("\npaths simulated: %,d\n", pathsSimulated);
+        if (GuardrailSolver.ADAPTIVE) {
+            System.out.println("solver: " + solver());
+        }
+        TimingUtils.printSummary();
+    }
+
+    /**
+     * Step 3 in monthly mode: the portfolio pays each month's share of spending less that month's SS and annuity,
+     * then grows by the month's part of the year's return. The guardrails are checked every month, on the year's
+     * risk surface; a row is printed each January and whenever a guardrail fires, with the year's spending and
+     * income at the current base.
+     */
+    private static void walkForwardMonthly(double currentPortfolio, double realBaseIncome, RandomGenerator market) {
+        double[] yearGrowth = new double[1];
+        double[] monthGrowth = new double[MonthlyBridge.MONTHS];
+        double[] multipliers = spendingMultipliers();
 
-            System.out.printf("%4d | $%,9.0f | $%,10.0f | $%,10.0f | $%,10.0f | %4.1f%% | %s\n",
-                    calYear, currentPortfolio, totalSpend, (ss + annuity), portDraw, estimateRisk(currentPortfolio, realBaseIncome, year)*100, note);
+        for (int year = 0; year <= RETIREMENT_LENGTH; year++) {
+            int calYear = 2026 + year;
+            double stepUps = Math.pow(annuityStepUp(REAL_MEAN_RETURN), Math.max(0, calYear - 2028));
+            double multiplier = multipliers[year];
+
+            // Market impact: the year's return, split into its months
+            yearGrowth[0] = 1 + REAL_MEAN_RETURN + (market.nextGaussian() * REAL_STD_DEV);
+            monthlyBridge().monthlyGrowth(year, 0, 1, yearGrowth, monthGrowth);
+
+            for (int month = 0; month < MonthlyBridge.MONTHS; month++) {
+                int step = year * MonthlyBridge.MONTHS + month;
+                double income = SS_BY_MONTH[step] + ANNUITY_BY_MONTH[step] * stepUps;
+                double portDraw = Math.max(0, realBaseIncome * multiplier / MonthlyBridge.MONTHS - income);
+                String note = null;
+
+                if (calYear == 2026) {
+                    note = month == 0 ? "Woman Working" : null;
+                } else {
+                    double currentRisk = estimateRisk(currentPortfolio, realBaseIncome, step);
+                    if (currentRisk >= LOWER_GUARDRAIL_RISK) {
+                        realBaseIncome = solveForRealIncome(currentPortfolio, TARGET_RISK, step);
+                        note = "CUT";
+                    } else if (currentRisk <= UPPER_GUARDRAIL_RISK) {
+                        realBaseIncome = solveForRealIncome(currentPortfolio, TARGET_RISK, step);
+                        note = "RAISE";
+                    }
+                }
 
-            // Market impact
-            double actualReturn = REAL_MEAN_RETURN + (RANDOM.nextGaussian() * REAL_STD_DEV);
-            currentPortfolio = (currentPortfolio - portDraw) * (1 + actualReturn);
+                if (month == 0 || note != null) {
+                    double yearIncome = SS_BY_YEAR[year] + ANNUITY_BY_YEAR[year] * stepUps;
+                    double totalSpend = realBaseIncome * multiplier;
+                    if (note == null) {
+                        note = "Steady";
+                    } else if (month > 0) {
+                        note += " (" + Month.of(month + 1).getDisplayName(TextStyle.SHORT, Locale.ENGLISH) + ")";
+                    }
+                    System.out.printf("%4d | $%,9.0f | $%,10.0f | $%,10.0f | $%,10.0f | %4.1f%% | %s\n",
+                            calYear, currentPortfolio, totalSpend, yearIncome, Math.max(0, totalSpend - yearIncome),
+                            estimateRisk(currentPortfolio, realBaseIncome, step) * 100, note);
+                }
 
-            if (currentPortfolio <= 0) break;
+                currentPortfolio = (currentPortfolio - portDraw) * monthGrowth[month];
+                if (currentPortfolio <= 0) return;
+            }
         }
     }
 
@@ -100,6 +223,7 @@ public class IncomeLabProModel {
         System.out.println("---------------------------------------------------------");
         System.out.printf("Preservation Rail:      $%,.2f -> New Spend: $%,.2f\n", lowTrigger, cut);
         System.out.printf("Prosperity Rail:        $%,.2f -> New Spend: $%,.2f\n", highTrigger, raise);
+        System.out.printf("Risk at Base Standard:  %s\n", estimateRiskWithError(INITIAL_PORTFOLIO, base, 0));
         System.out.println("=========================================================\n");
     }
 
@@ -114,59 +238,200 @@ public class IncomeLabProModel {
         return total;
     }
 
-    private static double getAnnuityForYear(int yearOffset, double returnNominal) {
+    // the man's SS from January 2027, the woman's from December 2027
+    private static double getSSForMonth(int yearOffset, int month) {
         int calYear = 2026 + yearOffset;
-        if (calYear < 2028) return 0;
-        double amount = (calYear == 2028) ? ANNUITY_NOMINAL * 0.75 : ANNUITY_NOMINAL;
-        double realVal = amount;
-        for (int i = 2028; i < calYear; i++) {
-            double stepUp = (returnNominal > 0.07) ? (returnNominal - 0.07) : 0;
-            realVal = (realVal * (1 + stepUp)) / (1 + INFLATION_RATE);
-        }
-        return realVal;
-    }
-
-    private static double estimateRisk(double balance, double baseIncome, int startYear) {
-        int failures = 0;
-        for (int i = 0; i < NUM_SIMULATIONS; i++) {
-            double simBalance = balance;
-            for (int t = startYear; t <= RETIREMENT_LENGTH; t++) {
-                if (2026 + t == 2026) {
-                    simBalance *= (1 + (REAL_MEAN_RETURN + (RANDOM.nextGaussian() * REAL_STD_DEV)));
-                    continue;
+        double total = 0;
+        if (calYear >= 2027) total += MAN_SS_ANNUAL / 12;
+        if (calYear >= 2028 || (calYear == 2027 && month == 11)) total += WOMAN_SS_ANNUAL / 12;
+        return total;
+    }
+
+    private static double[] ssTable() {
+        double[] ss = new double[RETIREMENT_LENGTH + 1];
+        for (int t = 0; t <= RETIREMENT_LENGTH; t++) {
+            ss[t] = getSSForYear(t);
+        }
+        return ss;
+    }
+
+    // real value of the annuity with no step-ups: starts 2028 (3/4 of a year), then eroded by inflation
+    private static double[] annuityTable() {
+        double[] annuity = new double[RETIREMENT_LENGTH + 1];
+        for (int t = 0; t <= RETIREMENT_LENGTH; t++) {
+            int calYear = 2026 + t;
+            if (calYear < 2028) continue;
+            double amount = (calYear == 2028) ? ANNUITY_NOMINAL * 0.75 : ANNUITY_NOMINAL;
+            annuity[t] = amount / Math.pow(1 + INFLATION_RATE, calYear - 2028);
+        }
+        return annuity;
+    }
+
+    private static double[] ssByMonthTable() {
+        double[] ss = new double[(RETIREMENT_LENGTH + 1) * MonthlyBridge.MONTHS];
+        for (int i = 0; i < ss.length; i++) {
+            ss[i] = getSSForMonth(i / MonthlyBridge.MONTHS, i % MonthlyBridge.MONTHS);
+        }
+        return ss;
+    }
+
+    // the annuity paid monthly from April 2028
+    private static double[] annuityByMonthTable() {
+        double[] annuity = new double[(RETIREMENT_LENGTH + 1) * MonthlyBridge.MONTHS];
+        for (int i = 0; i < annuity.length; i++) {
+            int calYear = 2026 + i / MonthlyBridge.MONTHS;
+            if (calYear < 2028 || (calYear == 2028 && i % MonthlyBridge.MONTHS < 3)) continue;
+            annuity[i] = ANNUITY_NOMINAL / 12 / Math.pow(1 + INFLATION_RATE, calYear - 2028);
+        }
+        return annuity;
+    }
+
+    // growth of the payout after a year with this real return: the nominal excess over the hurdle
+    private static double annuityStepUp(double realReturn) {
+        double returnNominal = realReturn + INFLATION_RATE;
+        return 1 + Math.max(0, returnNominal - ANNUITY_STEP_UP_HURDLE);
+    }
+
+    /**
+     * SS + annuity from the tables. The running state is the path's compounded annuity step-ups since
+     * the start of the simulation, advanced by each year's own return from 2028 on. Monthly payments come
+     * from the monthly tables; step-ups still land once a year.
+     */
+    private static final class AnnuityIncome implements BatchKernel.IncomeSchedule {
+        @Override
+        public double income(int year, double[][] series, int cell, double stepUps) {
+            return SS_BY_YEAR[year] + ANNUITY_BY_YEAR[year] * stepUps;
+        }
+
+        @Override
+        public double advance(int year, double[][] series, int cell, double stepUps) {
+            return 2026 + year >= 2028 ? stepUps * annuityStepUp(series[0][cell]) : stepUps;
+        }
+
+        @Override
+        public double monthlyIncome(int year, int month, double[][] series, int cell, double stepUps) {
+            int i = year * MonthlyBridge.MONTHS + month;
+            return SS_BY_MONTH[i] + ANNUITY_BY_MONTH[i] * stepUps;
+        }
+
+        @Override
+        public boolean levelMonths(int year) {
+            int first = year * MonthlyBridge.MONTHS;
+            for (int i = first + 1; i < first + MonthlyBridge.MONTHS; i++) {
+                if (SS_BY_MONTH[i] != SS_BY_MONTH[first] || ANNUITY_BY_MONTH[i] != ANNUITY_BY_MONTH[first]) {
+                    return false;
                 }
-                double ss = getSSForYear(t);
-                double simRet = REAL_MEAN_RETURN + (RANDOM.nextGaussian() * REAL_STD_DEV);
-                double annuity = getAnnuityForYear(t, simRet + INFLATION_RATE);
-                double multiplier = (t <= GO_GO_YEARS) ? GO_GO_MULTIPLIER : 1.0;
-                double draw = (baseIncome * multiplier) - ss - annuity;
-                simBalance = (simBalance - Math.max(0, draw)) * (1 + simRet);
-                if (simBalance <= 0) { failures++; break; }
             }
+            return true;
+        }
+    }
+
+    // Returns are drawn once per run; every risk estimate, solver iteration and walk-forward year replays them
+    static synchronized ScenarioBank scenarioBank() {
+        if (scenarioBank == null) {
+            ScenarioBank.Series returns = ScenarioBank.Series.normal(REAL_MEAN_RETURN, REAL_STD_DEV);
+            scenarioBank = QUASI_RANDOM
+                    ? ScenarioBank.generateQuasiRandom(ENGINE, QMC_PATHS_PER_REPLICATE, QMC_REPLICATES, RETIREMENT_LENGTH + 1, returns)
+                    : ScenarioBank.generate(ENGINE, NUM_SIMULATIONS, RETIREMENT_LENGTH + 1, returns);
+        }
+        return scenarioBank;
+    }
+
+    // the months inside every bank year, for monthly mode and its walk-forward
+    static synchronized MonthlyBridge monthlyBridge() {
+        if (monthlyBridge == null) {
+            monthlyBridge = MonthlyBridge.of(ENGINE, scenarioBank(), 0);
+        }
+        return monthlyBridge;
+    }
+
+    // KERNEL, stepped monthly in monthly mode
+    static synchronized BatchKernel kernel() {
+        if (!MONTHLY) {
+            return KERNEL;
+        }
+        if (monthlyKernel == null) {
+            monthlyKernel = KERNEL.withMonths(monthlyBridge());
+        }
+        return monthlyKernel;
+    }
+
+    // the risk surface for the bank year of this step, built when the walk reaches a new year
+    private static synchronized MonthlyRiskSurface riskSurface(int step) {
+        int year = step / MonthlyBridge.MONTHS;
+        if (riskSurface == null || riskSurface.getYear() != year) {
+            if (riskWalk == null) {
+                riskWalk = MonthlyRiskSurface.walk(ENGINE, kernel(), scenarioBank(), STEPS, 1.0);
+                pathsSimulated += scenarioBank().getPaths();
+            }
+            riskSurface = riskWalk.at(year);
+            pathsSimulated += scenarioBank().getPaths();
+        }
+        return riskSurface;
+    }
+
+    static double estimateRisk(double balance, double baseIncome, int startYear) {
+        if (MONTHLY) {
+            return riskSurface(startYear).risk(startYear, balance, baseIncome);
+        }
+        return estimateRiskWithError(balance, baseIncome, startYear).getProbability();
+    }
+
+    // risk of failure with its standard error (binomial, or across the replicates in QUASI_RANDOM mode)
+    private static PosEstimate estimateRiskWithError(double balance, double baseIncome, int startYear) {
+        PosEstimate survival = scenarioBank().estimate(ENGINE, survivors(balance, baseIncome, startYear));
+        pathsSimulated += survival.getPaths();
+        return survival.complement();
+    }
+
+    // startYear is a step: a month in monthly mode, read off that year's risk surface
+    private static MonteCarloEngine.RangeTask survivors(double balance, double baseIncome, int startYear) {
+        if (MONTHLY) {
+            MonthlyRiskSurface surface = riskSurface(startYear);
+            return (from, to) -> surface.survivors(startYear, balance, baseIncome, from, to);
+        }
+        ScenarioBank bank = scenarioBank();
+        double[][] series = bank.allSeries();
+        int paths = bank.getPaths();
+        BatchKernel kernel = kernel();
+        return (from, to) -> kernel.survivors(series, paths, startYear, STEPS, from, to,
+                balance, baseIncome, 1.0);
+    }
+
+    // warm starts only come from the same model step; SS and the annuity make other steps poor guides
+    static synchronized GuardrailSolver solver() {
+        if (solver == null) {
+            solver = new GuardrailSolver(ENGINE, scenarioBank(), STEPS, FIXED_HALVINGS);
+        }
+        return solver;
+    }
+
+    private static double[] spendingMultipliers() {
+        double[] multipliers = new double[RETIREMENT_LENGTH + 1];
+        for (int t = 1; t <= RETIREMENT_LENGTH; t++) {
+            multipliers[t] = (t <= GO_GO_YEARS) ? GO_GO_MULTIPLIER : 1.0;
         }
-        double v = (double) failures / NUM_SIMULATIONS;
-        return v;
+        return multipliers;
     }
 
-    private static double solveForRealIncome(double balance, double targetRisk, int year) {
-        double low = 20000, high = 300000;
-        for (int i = 0; i < 20; i++) {
-            double mid = (low + high) / 2;
-            if (estimateRisk(balance, mid, year) < targetRisk) low = mid;
-            else high = mid;
+    static double solveForRealIncome(double balance, double targetRisk, int year) {
+        if (MONTHLY) {
+            double income = riskSurface(year).spendingForRisk(year, balance, targetRisk);
+            return Math.min(Math.max(income, 20000), 300000);
         }
-        double v = (low + high) / 2;
-        return v;
+        RootFinder.Result result = solver().solve(GuardrailSolver.Quantity.SPENDING, year, balance,
+                income -> survivors(balance, income, year), 1 - targetRisk, 20000, 300000);
+        pathsSimulated += result.getPaths();
+        return result.getRoot();
     }
 
-    private static double solveForPortfolioAtRisk(double baseIncome, double triggerRisk, int year) {
-        double low = 0, high = INITIAL_PORTFOLIO * 5.0;
-        for (int i = 0; i < 20; i++) {
-            double mid = (low + high) / 2;
-            if (estimateRisk(mid, baseIncome, year) > triggerRisk) low = mid;
-            else high = mid;
+    static double solveForPortfolioAtRisk(double baseIncome, double triggerRisk, int year) {
+        if (MONTHLY) {
+            return Math.min(riskSurface(year).balanceForRisk(year, baseIncome, triggerRisk), INITIAL_PORTFOLIO * 5.0);
         }
-        double v = (low + high) / 2;
-        return v;
+        RootFinder.Result result = solver().solve(GuardrailSolver.Quantity.PORTFOLIO, year, baseIncome,
+                balance -> survivors(balance, baseIncome, year), 1 - triggerRisk, 0, INITIAL_PORTFOLIO * 5.0);
+        pathsSimulated += result.getPaths();
+        return result.getRoot();
     }
 }
\ No newline at end of file
@@ -1,6 +1,17 @@
 package com.hiflite.modernguardrailsmodel_gemini;
 
-import java.util.Random;
+import com.hiflite.engine.BatchKernel;
+import com.hiflite.engine.GuardrailSolver;
+import com.hiflite.engine.MonteCarloEngine;
+import com.hiflite.engine.PosEstimate;
+import com.hiflite.engine.RootFinder;
+import com.hiflite.engine.RiskSurface;
+import com.hiflite.engine.ScenarioBank;
+import com.hiflite.utils.TimingUtils;
+
+import java.util.Arrays;
+
+import java.util.random.RandomGenerator;
 
 public class ModernGuardrailsModel {
 
@@ -15,6 +26,7 @@ public class ModernGuardrailsModel {
     private static final double AVG_INFLATION = 0.025;     // 3% Inflation
 
     private static final double INITIAL_PORTFOLIO = 1_500_000.0;
+    private static final double INITIAL_BASE_INCOME = 60000.0;
     private static final int RETIREMENT_LENGTH = 30;
 
     // --- Go-Go Years & SORR Config ---
@@ -23,14 +35,47 @@ public class ModernGuardrailsModel {
     private static final int SORR_YEARS = 2;              // Market crash duration
     private static final double SORR_RETURN = -0.15;      // -15% return during crash
 
-    private static final Random RANDOM = new Random(System.currentTimeMillis());
+    private static final long SEED = Long.getLong("hiflite.seed", System.currentTimeMillis());
+    private static final MonteCarloEngine ENGINE = new MonteCarloEngine(SEED);
+
+    private static ScenarioBank scenarioBank;
+    private static RiskSurface riskSurface;
+
+    // PATHWISE reads risk and the guardrail solves off a per-year risk surface built in one pass; BISECTION nests
+    // a full estimate and a bisection inside every walk-forward year
+    enum SolverMode { PATHWISE, BISECTION }
+    private static final SolverMode SOLVER_MODE = SolverMode.PATHWISE;
+
+    // outer market paths run through the guardrail logic after the single walk-forward (PATHWISE only)
+    private static final int BACKTEST_PATHS = Integer.getInteger("hiflite.backtestPaths", 10_000);
+
+    // randomized quasi-Monte Carlo (scrambled Sobol) instead of NUM_SIMULATIONS pseudo-random paths
+    private static final boolean QUASI_RANDOM = false;
+    private static final int QMC_REPLICATES = 16;
+    private static final int QMC_PATHS_PER_REPLICATE = 1 << 12;
+
+    // antithetic (z, -z) return pairs plus a terminal-growth control variate in estimateRisk
+    private static final boolean VARIANCE_REDUCTION = false;
+
+    private static long pathsSimulated;
+
+    // the original BISECTION ran 15 fixed halvings (GuardrailSolver.ADAPTIVE off)
+    private static final int FIXED_HALVINGS = 15;
+    private static GuardrailSolver solver;
+
+    // go-go multiplier by year; the simulated spending index grows with AVG_INFLATION
+    private static final BatchKernel KERNEL = BatchKernel.of(BatchKernel.Order.WITHDRAW_THEN_GROW,
+            (series, cell) -> 1 + series[0][cell],
+            BatchKernel.SpendingRule.indexed(spendingMultipliers(), 1 + AVG_INFLATION),
+            BatchKernel.IncomeSchedule.NONE);
 
     public static void main(String[] args) {
         double portfolio = INITIAL_PORTFOLIO;
+        RandomGenerator market = ENGINE.newStream();
 
         // We start with the user's requested base income of $60,000.
         // The "Go-Go" multiplier will be applied on top of this.
-        double baseAnnualIncome = 60000.0;
+        double baseAnnualIncome = INITIAL_BASE_INCOME;
         double cumulativeInflation = 1.0;
 
         System.out.println("Scenario: $60k Base + Go-Go Multiplier + Early Market Crash");
@@ -45,7 +90,7 @@ public class ModernGuardrailsModel {
             double currentRequiredSpending = baseAnnualIncome * cumulativeInflation * currentMultiplier;
 
             // 1. Calculate Risk (Monte Carlo includes Go-Go logic in its projection)
-            double currentRisk = estimateRisk(portfolio, baseAnnualIncome, year, cumulativeInflation);
+            double currentRisk = currentRisk(portfolio, baseAnnualIncome, year, cumulativeInflation);
 
             String action = "Steady";
 
@@ -64,13 +109,17 @@ public class ModernGuardrailsModel {
 
             System.out.printf("%4d | $%10.2f | $%10.2f | %4.1f%% | %s%n",
                     year, portfolio, finalSpend, currentRisk * 100, action);
+            if (VARIANCE_REDUCTION) {
+                System.out.printf("     | risk %s%n",
+                        estimateRiskWithError(portfolio, baseAnnualIncome, year, cumulativeInflation));
+            }
 
             // 3. Actual Market Realization with SORR (The Crash)
             double actualReturn;
             if (year < SORR_YEARS) {
                 actualReturn = SORR_RETURN; // Forced sequence of returns risk
             } else {
-                actualReturn = MEAN_RETURN + (RANDOM.nextGaussian() * STD_DEV);
+                actualReturn = MEAN_RETURN + (market.nextGaussian() * STD_DEV);
             }
 
             portfolio = (portfolio - finalSpend) * (1 + actualReturn);
@@ -80,46 +129,184 @@ public class ModernGuardrailsModel {
                 break;
             }
         }
+        System.out.printf("%npaths simulated: %,d%n", pathsSimulated);
+        if (SOLVER_MODE == SolverMode.BISECTION && GuardrailSolver.ADAPTIVE) {
+            System.out.println("solver: " + solver());
+        }
+        TimingUtils.printSummary();
+
+        if (SOLVER_MODE == SolverMode.PATHWISE && BACKTEST_PATHS > 0) {
+            backtest(BACKTEST_PATHS);
+        }
     }
 
     /**
-     * Estimates risk while accounting for the Go-Go years logic.
+     * Runs the walk-forward guardrail logic of main over many outer market paths, each with the forced crash
+     * of its first SORR_YEARS, and reports the spread of outcomes. Every year's risk check and re-solve is a
+     * lookup on the risk surface.
      */
-    private static double estimateRisk(double balance, double baseSpending, int currentYear, double currentInflFactor) {
-        int failures = 0;
+    static void backtest(int outerPaths) {
+        RiskSurface surface = riskSurface();
+        double[] finalPortfolio = new double[outerPaths];
+        double[] lowestIncome = new double[outerPaths];
+        int[] adjustments = new int[outerPaths * 2];    // cuts, raises
 
-        for (int i = 0; i < NUM_SIMULATIONS; i++) {
-            double simBalance = balance;
-            double simBaseSpending = baseSpending;
-            double simInfl = currentInflFactor;
+        long start = System.nanoTime();
+        long exhausted = ENGINE.sum(outerPaths, (from, to, market) -> {
+            long failed = 0;
+            for (int path = from; path < to; path++) {
+                double portfolio = INITIAL_PORTFOLIO;
+                double baseAnnualIncome = INITIAL_BASE_INCOME;
+                double lowest = baseAnnualIncome;
+                double cumulativeInflation = 1.0;
+                for (int year = 0; year < RETIREMENT_LENGTH; year++) {
+                    cumulativeInflation *= (1 + AVG_INFLATION);
+                    double currentRisk = surface.risk(year, portfolio, baseAnnualIncome * cumulativeInflation);
+                    if (currentRisk >= LOWER_GUARDRAIL || currentRisk <= UPPER_GUARDRAIL) {
+                        adjustments[2 * path + (currentRisk >= LOWER_GUARDRAIL ? 0 : 1)]++;
+                        baseAnnualIncome = incomeForRisk(surface, portfolio, TARGET_RISK, year, cumulativeInflation);
+                        lowest = Math.min(lowest, baseAnnualIncome);
+                    }
+                    double finalSpend = baseAnnualIncome * cumulativeInflation
+                            * ((year < GO_GO_END_YEAR) ? GO_GO_MULTIPLIER : 1.0);
+                    double actualReturn = (year < SORR_YEARS) ? SORR_RETURN : MEAN_RETURN + (market.nextGaussian() * STD_DEV);
+                    portfolio = (portfolio - finalSpend) * (1 + actualReturn);
+                    if (portfolio <= 0) {
+                        portfolio = 0;
+                        failed++;
+                        break;
+                    }
+                }
+                finalPortfolio[path] = portfolio;
+                lowestIncome[path] = lowest;
+            }
+            return failed;
+        });
+        long elapsed = System.nanoTime() - start;
 
-            for (int t = currentYear; t < RETIREMENT_LENGTH; t++) {
-                // Apply Go-Go multiplier in the simulation if still in that window
-                double multiplier = (t < GO_GO_END_YEAR) ? GO_GO_MULTIPLIER : 1.0;
-                double totalSpend = simBaseSpending * simInfl * multiplier;
+        long cuts = 0, raises = 0;
+        for (int path = 0; path < outerPaths; path++) {
+            cuts += adjustments[2 * path];
+            raises += adjustments[2 * path + 1];
+        }
+        Arrays.sort(finalPortfolio);
+        Arrays.sort(lowestIncome);
 
-                double simReturn = MEAN_RETURN + (RANDOM.nextGaussian() * STD_DEV);
-                simBalance = (simBalance - totalSpend) * (1 + simReturn);
+        System.out.printf("%nBacktest over %,d market paths (%,d ms on the risk surface)%n", outerPaths, elapsed / 1_000_000);
+        System.out.printf("Plan failed:            %.2f%%%n", 100.0 * exhausted / outerPaths);
+        System.out.printf("Cuts / raises per path: %.2f / %.2f%n", (double) cuts / outerPaths, (double) raises / outerPaths);
+        System.out.printf("Final portfolio:        P10 $%,.0f | P50 $%,.0f | P90 $%,.0f%n",
+                percentile(finalPortfolio, 0.10), percentile(finalPortfolio, 0.50), percentile(finalPortfolio, 0.90));
+        System.out.printf("Lowest base income:     P10 $%,.0f | P50 $%,.0f | P90 $%,.0f%n",
+                percentile(lowestIncome, 0.10), percentile(lowestIncome, 0.50), percentile(lowestIncome, 0.90));
+    }
 
-                simInfl *= (1 + AVG_INFLATION);
+    private static double percentile(double[] sorted, double q) {
+        return sorted[Math.min(sorted.length - 1, (int) (q * sorted.length))];
+    }
 
-                if (simBalance <= 0) {
-                    failures++;
-                    break;
-                }
+    // Returns are drawn once per run; every risk estimate, solver iteration and walk-forward year replays them
+    private static synchronized ScenarioBank scenarioBank() {
+        if (scenarioBank == null) {
+            ScenarioBank.Series returns = ScenarioBank.Series.normal(MEAN_RETURN, STD_DEV);
+            if (QUASI_RANDOM) {
+                scenarioBank = ScenarioBank.generateQuasiRandom(ENGINE, QMC_PATHS_PER_REPLICATE, QMC_REPLICATES, RETIREMENT_LENGTH, returns);
+            } else if (VARIANCE_REDUCTION) {
+                scenarioBank = ScenarioBank.generateAntithetic(ENGINE, NUM_SIMULATIONS, RETIREMENT_LENGTH, returns);
+            } else {
+                scenarioBank = ScenarioBank.generate(ENGINE, NUM_SIMULATIONS, RETIREMENT_LENGTH, returns);
             }
         }
-        return (double) failures / NUM_SIMULATIONS;
+        return scenarioBank;
+    }
+
+    // Built once from the scenario bank: one curve of critical spending ratios per walk-forward year
+    private static synchronized RiskSurface riskSurface() {
+        if (riskSurface == null) {
+            riskSurface = RiskSurface.build(ENGINE, KERNEL, scenarioBank(), 0, RETIREMENT_LENGTH);
+            pathsSimulated += (long) scenarioBank().getPaths() * RETIREMENT_LENGTH;
+        }
+        return riskSurface;
+    }
+
+    private static double currentRisk(double balance, double baseSpending, int currentYear, double currentInflFactor) {
+        if (SOLVER_MODE == SolverMode.PATHWISE) {
+            return riskSurface().risk(currentYear, balance, baseSpending * currentInflFactor);
+        }
+        return estimateRisk(balance, baseSpending, currentYear, currentInflFactor);
+    }
+
+    /**
+     * Estimates risk while accounting for the Go-Go years logic.
+     */
+    private static double estimateRisk(double balance, double baseSpending, int currentYear, double currentInflFactor) {
+        return estimateRiskWithError(balance, baseSpending, currentYear, currentInflFactor).getProbability();
+    }
+
+    /**
+     * Risk with its standard error; with VARIANCE_REDUCTION the control variate is the compounded growth of
+     * the remaining years' returns, whose mean (1 + MEAN_RETURN)^years is known.
+     */
+    private static PosEstimate estimateRiskWithError(double balance, double baseSpending, int currentYear, double currentInflFactor) {
+        ScenarioBank bank = scenarioBank();
+        PosEstimate survival;
+        if (VARIANCE_REDUCTION) {
+            double[][] series = bank.allSeries();
+            int paths = bank.getPaths();
+            survival = bank.estimateWithControl(ENGINE, (from, to, survived) -> KERNEL.markSurvivors(series, paths,
+                            currentYear, RETIREMENT_LENGTH, from, to, balance, baseSpending, currentInflFactor, survived),
+                    currentYear, RETIREMENT_LENGTH, 0);
+        } else {
+            survival = bank.estimate(ENGINE, survivors(balance, baseSpending, currentYear, currentInflFactor));
+        }
+        pathsSimulated += survival.getPaths();
+        return survival.complement();
+    }
+
+    private static MonteCarloEngine.RangeTask survivors(double balance, double baseSpending, int currentYear,
+                                                        double currentInflFactor) {
+        ScenarioBank bank = scenarioBank();
+        double[][] series = bank.allSeries();
+        int paths = bank.getPaths();
+        return (from, to) -> KERNEL.survivors(series, paths, currentYear, RETIREMENT_LENGTH, from, to,
+                balance, baseSpending, currentInflFactor);
+    }
+
+    // warm starts within a year
+    private static synchronized GuardrailSolver solver() {
+        if (solver == null) {
+            solver = new GuardrailSolver(ENGINE, scenarioBank(), RETIREMENT_LENGTH, FIXED_HALVINGS);
+        }
+        return solver;
+    }
+
+    private static double[] spendingMultipliers() {
+        double[] multipliers = new double[RETIREMENT_LENGTH];
+        for (int t = 0; t < RETIREMENT_LENGTH; t++) {
+            multipliers[t] = (t < GO_GO_END_YEAR) ? GO_GO_MULTIPLIER : 1.0;
+        }
+        return multipliers;
     }
 
     private static double solveForBaseIncome(double balance, double targetRisk, int currentYear, double infl) {
-        double low = 0, high = balance * 0.3;
-        double mid = 0;
-        for (int i = 0; i < 15; i++) {
-            mid = (low + high) / 2;
-            if (estimateRisk(balance, mid, currentYear, infl) < targetRisk) low = mid;
-            else high = mid;
+        if (SOLVER_MODE == SolverMode.PATHWISE) {
+            return incomeForRisk(riskSurface(), balance, targetRisk, currentYear, infl);
         }
-        return mid;
+        return bisectBaseIncome(balance, targetRisk, currentYear, infl);
+    }
+
+    // the backtest's workers pass the surface they captured rather than take the class lock for every re-solve
+    private static double incomeForRisk(RiskSurface surface, double balance, double targetRisk, int currentYear,
+                                        double infl) {
+        // same bracket as the bisection: never more than 30% of the balance
+        return Math.min(balance * 0.3, surface.spendingForRisk(currentYear, balance, targetRisk) / infl);
+    }
+
+    private static double bisectBaseIncome(double balance, double targetRisk, int currentYear, double infl) {
+        // the inflation factor is fixed within a year, so warm starts from the same year need no rescaling
+        RootFinder.Result result = solver().solve(GuardrailSolver.Quantity.SPENDING, currentYear, balance,
+                base -> survivors(balance, base, currentYear, infl), 1 - targetRisk, 0, balance * 0.3);
+        pathsSimulated += result.getPaths();
+        return result.getRoot();
     }
 }
\ No newline at end of file
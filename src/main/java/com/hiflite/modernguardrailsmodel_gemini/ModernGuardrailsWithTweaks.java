@@ -1,11 +1,18 @@
 package com.hiflite.modernguardrailsmodel_gemini;
 
-import java.util.Random;
+import com.hiflite.engine.BatchKernel;
+import com.hiflite.engine.GuardrailSolver;
+import com.hiflite.engine.MonteCarloEngine;
+import com.hiflite.engine.PosEstimate;
+import com.hiflite.engine.RootFinder;
+import com.hiflite.engine.ScenarioBank;
+import com.hiflite.utils.TimingUtils;
 
 public class ModernGuardrailsWithTweaks {
 
         // --- Configuration ---
-        private static final int NUM_SIMULATIONS = 100000;
+        // -Dhiflite.paths / -Dhiflite.years override the path count and plan length (the benchmarks sweep them)
+        static final int NUM_SIMULATIONS = Integer.getInteger("hiflite.paths", 100_000);
         private static final double REAL_MEAN_RETURN = 0.039;   // (JPM gives nominal, we need to subtract inflation)
         private static final double REAL_STD_DEV = 0.1089;        // orig gives 0.12 ; historical since 1955 is 0.1089
 
@@ -15,11 +22,26 @@ public class ModernGuardrailsWithTweaks {
 
         private static final double INITIAL_PORTFOLIO = 1_500_000.0;
 
-        private static final int RETIREMENT_LENGTH = 30;       // years of retirement
+        static final int RETIREMENT_LENGTH = Integer.getInteger("hiflite.years", 30);       // years of retirement
         private static final double GO_GO_MULTIPLIER = 1.25;   //spend 25% more in the go-go years
         private static final int GO_GO_YEARS = 10;             // 10 years in the gogo period
 
-        private static final Random RANDOM = new Random(System.currentTimeMillis());
+        private static final long SEED = Long.getLong("hiflite.seed", System.currentTimeMillis());
+        private static final MonteCarloEngine ENGINE = new MonteCarloEngine(SEED);
+
+        private static ScenarioBank scenarioBank;
+
+        static long pathsSimulated;
+
+        // the original solvers ran 20 fixed halvings (GuardrailSolver.ADAPTIVE off)
+        private static final int FIXED_HALVINGS = 20;
+        private static GuardrailSolver solver;
+
+        // real terms, so the spending index stays at 1
+        private static final BatchKernel KERNEL = BatchKernel.of(BatchKernel.Order.WITHDRAW_THEN_GROW,
+                (series, cell) -> 1 + series[0][cell],
+                BatchKernel.SpendingRule.indexed(spendingMultipliers(), 1.0),
+                BatchKernel.IncomeSchedule.NONE);
 
         public static void main(String[] args) {
             // 1. Initial Calculation
@@ -55,55 +77,74 @@ public class ModernGuardrailsWithTweaks {
             System.out.printf("  New Base Income:      $%,.2f (Reset to %.0f%% risk)\n", incomeAfterRaise, TARGET_RISK * 100);
             System.out.printf("  Total Go-Go Spend:    $%,.2f\n", incomeAfterRaise * GO_GO_MULTIPLIER);
             System.out.println("=========================================================");
+            System.out.printf("paths simulated: %,d\n", pathsSimulated);
+            if (GuardrailSolver.ADAPTIVE) {
+                System.out.println("solver: " + solver());
+            }
+            TimingUtils.printSummary();
+        }
+
+        // Real returns are drawn once per run; the starting income and the four trigger solves all replay the same paths
+        static synchronized ScenarioBank scenarioBank() {
+            if (scenarioBank == null) {
+                scenarioBank = ScenarioBank.generate(ENGINE, NUM_SIMULATIONS, RETIREMENT_LENGTH,
+                    ScenarioBank.Series.normal(REAL_MEAN_RETURN, REAL_STD_DEV));
+            }
+            return scenarioBank;
         }
 
         /**
          * Estimates "Risk of Overspending" (Probability of Failure) in Real Terms.
          */
-        private static double estimateRealRisk(double balance, double baseSpending, int currentYear) {
-            int failures = 0;
-            for (int i = 0; i < NUM_SIMULATIONS; i++) {
-                double simBalance = balance;
-                for (int t = currentYear; t < RETIREMENT_LENGTH; t++) {
-                    double multiplier = (t < GO_GO_YEARS) ? GO_GO_MULTIPLIER : 1.0;
-                    double simReturn = REAL_MEAN_RETURN + (RANDOM.nextGaussian() * REAL_STD_DEV);
-                    simBalance = (simBalance - (baseSpending * multiplier)) * (1 + simReturn);
-                    if (simBalance <= 0) {
-                        failures++;
-                        break;
-                    }
-                }
+        static double estimateRealRisk(double balance, double baseSpending, int currentYear) {
+            PosEstimate survival = scenarioBank().estimate(ENGINE, survivors(balance, baseSpending, currentYear));
+            pathsSimulated += survival.getPaths();
+            return survival.complement().getProbability();
+        }
+
+        private static MonteCarloEngine.RangeTask survivors(double balance, double baseSpending, int currentYear) {
+            ScenarioBank bank = scenarioBank();
+            double[][] series = bank.allSeries();
+            int paths = bank.getPaths();
+            return (from, to) -> KERNEL.survivors(series, paths, currentYear, RETIREMENT_LENGTH, from, to,
+                    balance, baseSpending, 1.0);
+        }
+
+        static synchronized GuardrailSolver solver() {
+            if (solver == null) {
+                solver = new GuardrailSolver(ENGINE, scenarioBank(), 1, FIXED_HALVINGS);
+            }
+            return solver;
+        }
+
+        private static double[] spendingMultipliers() {
+            double[] multipliers = new double[RETIREMENT_LENGTH];
+            for (int t = 0; t < RETIREMENT_LENGTH; t++) {
+                multipliers[t] = (t < GO_GO_YEARS) ? GO_GO_MULTIPLIER : 1.0;
             }
-            double v = (double) failures / NUM_SIMULATIONS;
-            return v;
+            return multipliers;
         }
 
         /**
          * Finds the base income level that results in a specific risk level.
          */
-        private static double solveForRealIncome(double balance, double targetRisk, int currentYear) {
-            double low = 0, high = balance * 0.3; // Up to 30% WR search range
-            for (int i = 0; i < 20; i++) {
-                double mid = (low + high) / 2;
-                if (estimateRealRisk(balance, mid, currentYear) < targetRisk) low = mid;
-                else high = mid;
-            }
-            double v = (low + high) / 2;
-            return v;
+        static double solveForRealIncome(double balance, double targetRisk, int currentYear) {
+            // Up to 30% WR search range
+            RootFinder.Result result = solver().solve(GuardrailSolver.Quantity.SPENDING, 0, balance,
+                    income -> survivors(balance, income, currentYear), 1 - targetRisk, 0, balance * 0.3);
+            pathsSimulated += result.getPaths();
+            return result.getRoot();
         }
 
         /**
          * Finds the portfolio balance that causes a specific income to hit a risk trigger.
          */
-        private static double solveForPortfolioAtRisk(double baseIncome, double triggerRisk, int currentYear) {
-            double low = 0, high = INITIAL_PORTFOLIO * 5.0; // Search up to 5x initial
-            for (int i = 0; i < 20; i++) {
-                double mid = (low + high) / 2;
-                // Higher portfolio = Lower risk
-                if (estimateRealRisk(mid, baseIncome, currentYear) > triggerRisk) low = mid;
-                else high = mid;
-            }
-            double v = (low + high) / 2;
-            return v;
+        static double solveForPortfolioAtRisk(double baseIncome, double triggerRisk, int currentYear) {
+            // Search up to 5x initial; higher portfolio = lower risk
+            RootFinder.Result result = solver().solve(GuardrailSolver.Quantity.PORTFOLIO, 0, baseIncome,
+                    balance -> survivors(balance, baseIncome, currentYear), 1 - triggerRisk,
+                    0, INITIAL_PORTFOLIO * 5.0);
+            pathsSimulated += result.getPaths();
+            return result.getRoot();
         }
     }
\ No newline at end of file
@@ -0,0 +1,398 @@
+package com.hiflite.riskbasedguardrails_grok;
+
+import com.hiflite.engine.MonteCarloEngine;
+import com.hiflite.engine.MonthlyBridge;
+import com.hiflite.engine.PosCurve;
+import com.hiflite.engine.ScenarioBank;
+import com.hiflite.utils.TimingUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the guardrails of {@link RiskBasedGuardrailsWithInflation} over a grid of assumptions read from a CSV
+ * file, every cell in one JVM on one shared fork-join pool.
+ * <p>
+ * The grid has a header naming any of the {@link Input} columns, plus an optional {@code cell} id column, and
+ * one row per cell; a column that is left out takes the model's own constant, and {@code #} starts a comment
+ * line. Every cell gets the model's PATHWISE answers -- the initial spending at the target PoS, the portfolios
+ * at the upper and lower guardrail PoS and the spending each of them resets to -- from a scenario bank of its own.
+ * <p>
+ * Cells are tasks of the same pool their banks are generated and replayed on, so a worker that runs out of
+ * chunks in one cell steals from another. At most one cell per thread holds a bank at a time, which bounds
+ * memory. A cell's row is written and flushed as soon as it finishes, so the output is also the checkpoint:
+ * rerunning with the same grid and output file skips every cell that already has a row. All cells use one
+ * seed (common random numbers), so differences between cells come from their assumptions, not from their draws.
+ * <p>
+ * Usage: {@code GuardrailGrid grid.csv results.csv [threads]}. {@code -Dhiflite.seed} fixes the seed of a new
+ * sweep; a resumed sweep keeps the seed it was started with.
+ */
+public final class GuardrailGrid {
+
+    /** Grid columns, with the model constant a missing column defaults to. */
+    enum Input {
+        PORTFOLIO("portfolio", 1_500_000.0),
+        YEARS("years", RiskBasedGuardrailsWithInflation.RETIREMENT_YEARS),
+        PATHS("paths", RiskBasedGuardrailsWithInflation.NUM_SIMULATIONS),
+        REAL_MEAN_RETURN("realMeanReturn", RiskBasedGuardrailsWithInflation.REAL_MEAN_RETURN),
+        REAL_VOLATILITY("realVolatility", RiskBasedGuardrailsWithInflation.REAL_VOLATILITY),
+        INFLATION_MEAN("inflationMean", RiskBasedGuardrailsWithInflation.INFLATION_MEAN),
+        INFLATION_VOL("inflationVol", RiskBasedGuardrailsWithInflation.INFLATION_VOL),
+        TARGET_POS("targetPoS", RiskBasedGuardrailsWithInflation.TARGET_POS),
+        UPPER_POS("upperPoS", RiskBasedGuardrailsWithInflation.UPPER_POS),
+        LOWER_POS("lowerPoS", RiskBasedGuardrailsWithInflation.LOWER_POS);
+
+        final String column;
+        final double defaultValue;
+
+        Input(String column, double defaultValue) {
+            this.column = column;
+            this.defaultValue = defaultValue;
+        }
+
+        String format(double value) {
+            return this == YEARS || this == PATHS ? Long.toString((long) value) : Double.toString(value);
+        }
+    }
+
+    static final String CELL = "cell";
+    static final String[] OUTPUTS = {"seed", "spending", "upperPortfolio", "upperSpending",
+            "lowerPortfolio", "lowerSpending", "millis"};
+
+    /** One row of the grid. */
+    static final class Cell {
+        final String id;
+        final double[] inputs;   // by Input ordinal
+
+        Cell(String id, double[] inputs) {
+            this.id = id;
+            this.inputs = inputs;
+        }
+
+        double get(Input input) {
+            return inputs[input.ordinal()];
+        }
+    }
+
+    /** A cell's guardrails, in today's dollars. */
+    static final class Guardrails {
+        final double spending;
+        final double upperPortfolio;
+        final double upperSpending;
+        final double lowerPortfolio;
+        final double lowerSpending;
+
+        Guardrails(double spending, double upperPortfolio, double upperSpending, double lowerPortfolio, double lowerSpending) {
+            this.spending = spending;
+            this.upperPortfolio = upperPortfolio;
+            this.upperSpending = upperSpending;
+            this.lowerPortfolio = lowerPortfolio;
+            this.lowerSpending = lowerSpending;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: GuardrailGrid grid.csv results.csv [threads]");
+            System.exit(2);
+        }
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int failed = run(Path.of(args[0]), Path.of(args[1]), threads);
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    /** Runs every cell of {@code grid} not yet in {@code output}; returns the number of cells that failed. */
+    static int run(Path grid, Path output, int threads) throws IOException {
+        // a cell's bank is drawn from its own columns, with one asset and no history
+        if (RiskBasedGuardrailsWithInflation.ASSETS || RiskBasedGuardrailsWithInflation.HISTORY_FILE != null) {
+            throw new IllegalStateException("the grid draws each cell's returns from its columns and supports neither "
+                    + "asset mode (-Dhiflite.assets) nor historical mode (-Dhiflite.history)");
+        }
+        List<Cell> cells = readGrid(grid);
+        String header = header();
+        Map<String, String[]> done = readCompleted(output, header);
+        long seed = sweepSeed(done);
+
+        List<Cell> pending = new ArrayList<>();
+        for (Cell cell : cells) {
+            String[] row = done.get(cell.id);
+            if (row == null) {
+                pending.add(cell);
+            } else if (!sameInputs(cell, row)) {
+                throw new IllegalArgumentException("cell " + cell.id + " is already in " + output
+                        + " with other inputs; write the changed grid to a new output file");
+            }
+        }
+        System.out.printf("%d cells, %d already done, %d to run on %d threads (seed %d)\n",
+                cells.size(), cells.size() - pending.size(), pending.size(), threads, seed);
+
+        TimingUtils timingUtils = new TimingUtils();
+        timingUtils.timerStart();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Semaphore slots = new Semaphore(threads);
+        AtomicInteger finished = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        boolean fresh = !Files.exists(output) || Files.size(output) == 0;
+
+        try (BufferedWriter out = Files.newBufferedWriter(output, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (fresh) {
+                out.write(header);
+                out.newLine();
+                out.flush();
+            }
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (Cell cell : pending) {
+                slots.acquireUninterruptibly();
+                tasks.add(pool.submit(() -> {
+                    try {
+                        long start = System.nanoTime();
+                        Guardrails guardrails = solve(cell, seed, pool);
+                        String row = row(cell, seed, guardrails, (System.nanoTime() - start) / 1_000_000);
+                        synchronized (out) {
+                            out.write(row);
+                            out.newLine();
+                            out.flush();
+                        }
+                        System.out.printf("cell %s done (%d/%d)\n", cell.id, finished.incrementAndGet(), pending.size());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } catch (RuntimeException e) {
+                        // no row, so the next run retries it
+                        failed.incrementAndGet();
+                        System.err.println("cell " + cell.id + " failed: " + e);
+                    } finally {
+                        slots.release();
+                    }
+                }));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        timingUtils.timerStop();
+        timingUtils.reportTotalElapsedTime();
+        if (failed.get() > 0) {
+            System.out.printf("%d cells failed; rerun to retry them\n", failed.get());
+        }
+        return failed.get();
+    }
+
+    // the model's PATHWISE solve, on a bank drawn for this cell's assumptions
+    static Guardrails solve(Cell cell, long seed, ForkJoinPool pool) {
+        int years = (int) cell.get(Input.YEARS);
+        MonteCarloEngine engine = new MonteCarloEngine(seed, pool);
+        ScenarioBank bank = ScenarioBank.generate(engine, (int) cell.get(Input.PATHS), years,
+                ScenarioBank.Series.lognormal(cell.get(Input.REAL_MEAN_RETURN), cell.get(Input.REAL_VOLATILITY)),
+                ScenarioBank.Series.normal(cell.get(Input.INFLATION_MEAN), cell.get(Input.INFLATION_VOL)));
+        // -Dhiflite.monthly=true solves every cell with monthly withdrawals, as the model does
+        MonthlyBridge months = RiskBasedGuardrailsWithInflation.MONTHLY
+                ? MonthlyBridge.of(engine, bank, RiskBasedGuardrailsWithInflation.REAL_RETURNS)
+                : null;
+        PosCurve curve = PosCurve.fromCriticalRatios(RiskBasedGuardrailsWithInflation.criticalSpendingRatios(engine,
+                bank, months, months == null ? years : years * MonthlyBridge.MONTHS));
+
+        double target = cell.get(Input.TARGET_POS);
+        double spending = curve.spendingForPoS(cell.get(Input.PORTFOLIO), target);
+        double upperPortfolio = curve.portfolioForPoS(spending, cell.get(Input.UPPER_POS));
+        double lowerPortfolio = curve.portfolioForPoS(spending, cell.get(Input.LOWER_POS));
+        return new Guardrails(spending, upperPortfolio, curve.spendingForPoS(upperPortfolio, target),
+                lowerPortfolio, curve.spendingForPoS(lowerPortfolio, target));
+    }
+
+    static List<Cell> readGrid(Path grid) throws IOException {
+        List<String> lines = Files.readAllLines(grid, StandardCharsets.UTF_8);
+        List<Cell> cells = new ArrayList<>();
+        Set<String> ids = new HashSet<>();
+        int[] columnOf = null;   // by Input ordinal, -1 when the grid leaves it out
+        int idColumn = -1;
+        int width = 0;
+
+        for (int n = 0; n < lines.size(); n++) {
+            String line = lines.get(n).strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",", -1);
+            if (columnOf == null) {
+                columnOf = new int[Input.values().length];
+                Arrays.fill(columnOf, -1);
+                width = fields.length;
+                for (int c = 0; c < fields.length; c++) {
+                    String name = fields[c].strip();
+                    if (name.equalsIgnoreCase(CELL)) {
+                        idColumn = c;
+                        continue;
+                    }
+                    Input input = input(name);
+                    if (input == null) {
+                        throw new IllegalArgumentException(grid + ": unknown column '" + name + "', expected "
+                                + CELL + " or one of " + columns());
+                    }
+                    columnOf[input.ordinal()] = c;
+                }
+                continue;
+            }
+            if (fields.length != width) {
+                throw new IllegalArgumentException(grid + " line " + (n + 1) + ": " + fields.length
+                        + " fields, header has " + width);
+            }
+            String id = idColumn >= 0 ? fields[idColumn].strip() : Integer.toString(cells.size() + 1);
+            if (id.isEmpty() || !ids.add(id)) {
+                throw new IllegalArgumentException(grid + " line " + (n + 1) + ": missing or repeated cell id '" + id + "'");
+            }
+            double[] inputs = new double[Input.values().length];
+            for (Input input : Input.values()) {
+                int c = columnOf[input.ordinal()];
+                try {
+                    inputs[input.ordinal()] = c < 0 ? input.defaultValue : Double.parseDouble(fields[c].strip());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(grid + " line " + (n + 1) + ": " + input.column
+                            + " is not a number: '" + fields[c] + "'");
+                }
+            }
+            Cell cell = new Cell(id, inputs);
+            String problem = validate(cell);
+            if (problem != null) {
+                throw new IllegalArgumentException(grid + " line " + (n + 1) + ": " + problem);
+            }
+            cells.add(cell);
+        }
+        return cells;
+    }
+
+    private static String validate(Cell cell) {
+        for (Input input : new Input[]{Input.YEARS, Input.PATHS}) {
+            double value = cell.get(input);
+            if (value < 1 || value != Math.rint(value) || value > Integer.MAX_VALUE) {
+                return input.column + " must be a positive whole number";
+            }
+        }
+        if (!(cell.get(Input.PORTFOLIO) > 0)) {
+            return "portfolio must be positive";
+        }
+        for (Input input : new Input[]{Input.TARGET_POS, Input.UPPER_POS, Input.LOWER_POS}) {
+            double pos = cell.get(input);
+            if (!(pos > 0 && pos < 1)) {
+                return input.column + " must be strictly between 0 and 1";
+            }
+        }
+        return null;
+    }
+
+    // Rows already written, by cell id. A row cut short by a killed run (no final newline) is dropped from the file.
+    static Map<String, String[]> readCompleted(Path output, String header) throws IOException {
+        Map<String, String[]> done = new LinkedHashMap<>();
+        if (!Files.exists(output) || Files.size(output) == 0) {
+            return done;
+        }
+        String text = Files.readString(output, StandardCharsets.UTF_8);
+        int end = text.lastIndexOf('\n') + 1;
+        if (end < text.length()) {
+            System.out.println("dropping an unfinished last row of " + output);
+            try (FileChannel channel = FileChannel.open(output, StandardOpenOption.WRITE)) {
+                channel.truncate(text.substring(0, end).getBytes(StandardCharsets.UTF_8).length);
+            }
+            text = text.substring(0, end);
+            if (text.isEmpty()) {
+                return done;
+            }
+        }
+        String[] lines = text.split("\\R");
+        if (!lines[0].equals(header)) {
+            throw new IllegalArgumentException(output + " was not written by this version of the grid runner; use a new output file");
+        }
+        for (int n = 1; n < lines.length; n++) {
+            if (!lines[n].isEmpty()) {
+                String[] fields = lines[n].split(",", -1);
+                done.put(fields[0], fields);
+            }
+        }
+        return done;
+    }
+
+    // a resumed sweep must keep its seed, or its cells would no longer share random numbers
+    private static long sweepSeed(Map<String, String[]> done) {
+        Long requested = Long.getLong("hiflite.seed");
+        if (done.isEmpty()) {
+            return requested != null ? requested : System.currentTimeMillis();
+        }
+        long seed = Long.parseLong(done.values().iterator().next()[1 + Input.values().length]);
+        if (requested != null && requested != seed) {
+            throw new IllegalArgumentException("the output was started with seed " + seed + ", not " + requested);
+        }
+        return seed;
+    }
+
+    private static boolean sameInputs(Cell cell, String[] row) {
+        for (Input input : Input.values()) {
+            if (Double.parseDouble(row[1 + input.ordinal()]) != cell.get(input)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String header() {
+        StringBuilder header = new StringBuilder(CELL);
+        for (Input input : Input.values()) {
+            header.append(',').append(input.column);
+        }
+        for (String output : OUTPUTS) {
+            header.append(',').append(output);
+        }
+        return header.toString();
+    }
+
+    static String row(Cell cell, long seed, Guardrails guardrails, long millis) {
+        StringBuilder row = new StringBuilder(cell.id);
+        for (Input input : Input.values()) {
+            row.append(',').append(input.format(cell.get(input)));
+        }
+        row.append(',').append(seed);
+        row.append(String.format(Locale.ROOT, ",%.2f,%.2f,%.2f,%.2f,%.2f,%d", guardrails.spending,
+                guardrails.upperPortfolio, guardrails.upperSpending, guardrails.lowerPortfolio,
+                guardrails.lowerSpending, millis));
+        return row.toString();
+    }
+
+    private static Input input(String column) {
+        for (Input input : Input.values()) {
+            if (input.column.equalsIgnoreCase(column)) {
+                return input;
+            }
+        }
+        return null;
+    }
+
+    private static List<String> columns() {
+        List<String> columns = new ArrayList<>();
+        for (Input input : Input.values()) {
+            columns.add(input.column);
+        }
+        return columns;
+    }
+}
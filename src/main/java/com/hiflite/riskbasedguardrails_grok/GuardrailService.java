@@ -0,0 +1,288 @@
+package com.hiflite.riskbasedguardrails_grok;
+
+import com.hiflite.engine.MonthlyBridge;
+import com.hiflite.engine.PosCurve;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The quarterly guardrail check of {@link RiskBasedGuardrails_OngoingAdjustments} as a resident local service,
+ * so a check no longer pays JVM start-up, JIT warm-up and a fresh simulation.
+ * <p>
+ * The model's scenario bank is drawn once at start-up, and the PoS curve of a remaining horizon is built the first
+ * time it is asked for (the full horizon first, then one pass over the bank per new horizon). The full horizon's
+ * curve is kept for good, other horizons' only for the {@value #CACHED_HORIZONS} used last. A query on a kept
+ * curve is then a few binary searches. Requests run on virtual threads; only the JDK's {@code com.sun.net.httpserver}
+ * is used. The service listens on the loopback interface only.
+ * <pre>
+ *   GET /guardrails?portfolio=1500000[&amp;spending=62000][&amp;years=27]
+ *   GET /status
+ * </pre>
+ * {@code spending} is the current real spending (default: the sustainable spending for the portfolio),
+ * {@code years} the remaining horizon (default and maximum: the model's RETIREMENT_YEARS). The answer is
+ * JSON: PoS now, sustainable spending, both trigger portfolios with the spending each resets to, and the
+ * recommended adjustment of {@link RiskBasedGuardrailsWithInflation#ongoingAdjustments}.
+ * <p>
+ * With {@code -Dhiflite.monthly=true} the model withdraws monthly, and a check can come at any month:
+ * {@code months=317} instead of {@code years} gives the remaining horizon in months.
+ * <p>
+ * Usage: {@code GuardrailService [port]}, default 8086; {@code -Dhiflite.seed} fixes the bank as for the model.
+ */
+public final class GuardrailService {
+
+    static final int DEFAULT_PORT = 8086;
+    static final int WARM_UP_QUERIES = 20_000;
+    // a curve holds a ratio per path, and monthly mode has a horizon per month
+    static final int CACHED_HORIZONS = 8;
+
+    // by remaining steps: years, or months in monthly mode; a horizon's first query builds it, later ones wait for it.
+    // Access order, guarded by itself: the full horizon plus the CACHED_HORIZONS others used last
+    private static final LinkedHashMap<Integer, CompletableFuture<PosCurve>> CURVES = new LinkedHashMap<>(16, 0.75f, true);
+    private static final AtomicLong QUERIES = new AtomicLong();
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+
+        long start = System.nanoTime();
+        warmUp();
+        System.out.printf("bank of %,d paths x %d years ready, kernels warm (%d ms)%s\n",
+                RiskBasedGuardrailsWithInflation.NUM_SIMULATIONS, RiskBasedGuardrailsWithInflation.RETIREMENT_YEARS,
+                (System.nanoTime() - start) / 1_000_000,
+                RiskBasedGuardrailsWithInflation.MONTHLY ? ", monthly withdrawals" : "");
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/guardrails", exchange -> respond(exchange, () -> guardrails(query(exchange))));
+        server.createContext("/status", exchange -> respond(exchange, GuardrailService::status));
+        server.start();
+        System.out.printf("listening on http://%s:%d/guardrails?portfolio=...&spending=...&years=...\n",
+                server.getAddress().getHostString(), server.getAddress().getPort());
+    }
+
+    // draws the bank, builds the full-horizon curve and runs enough queries for the JIT to compile them
+    static void warmUp() {
+        curve(RiskBasedGuardrailsWithInflation.STEPS);
+        double checksum = 0;
+        for (int i = 0; i < WARM_UP_QUERIES; i++) {
+            double portfolio = 500_000 + i * 100.0;
+            checksum += answer(portfolio, portfolio * 0.04, RiskBasedGuardrailsWithInflation.STEPS)
+                    .recommendedSpending;
+        }
+        if (Double.isNaN(checksum)) {
+            throw new IllegalStateException("warm-up produced no answers");
+        }
+    }
+
+    // built outside the map: a pass over the bank must not hold up queries for other horizons
+    static PosCurve curve(int steps) {
+        CompletableFuture<PosCurve> curve;
+        CompletableFuture<PosCurve> building = null;
+        synchronized (CURVES) {
+            curve = CURVES.get(steps);
+            if (curve == null) {
+                curve = building = new CompletableFuture<>();
+                CURVES.put(steps, building);
+                evict();
+            }
+        }
+        if (building != null) {
+            try {
+                building.complete(build(steps));
+            } catch (RuntimeException | Error e) {
+                // let a later query try again
+                synchronized (CURVES) {
+                    CURVES.remove(steps, building);
+                }
+                building.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            return curve.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    // drops the other horizons used longest ago past CACHED_HORIZONS; queries already waiting on one still get it
+    private static void evict() {
+        Iterator<Integer> eldest = CURVES.keySet().iterator();
+        while (CURVES.size() > CACHED_HORIZONS + 1 && eldest.hasNext()) {
+            if (eldest.next() != RiskBasedGuardrailsWithInflation.STEPS) {
+                eldest.remove();
+            }
+        }
+    }
+
+    // the model's own curve for its full horizon (solver cache included), one pass over the bank for the others
+    private static PosCurve build(int steps) {
+        if (steps == RiskBasedGuardrailsWithInflation.STEPS) {
+            return RiskBasedGuardrailsWithInflation.posCurve();
+        }
+        return PosCurve.fromCriticalRatios(RiskBasedGuardrailsWithInflation.criticalSpendingRatios(steps));
+    }
+
+    /** What one check returns. */
+    static final class Answer {
+        double pos;
+        double sustainableSpending;
+        double upperPortfolio;
+        double upperSpending;
+        double lowerPortfolio;
+        double lowerSpending;
+        RiskBasedGuardrailsWithInflation.Adjustment adjustment;
+        double recommendedSpending;
+    }
+
+    // ongoingAdjustments, on the curve for the remaining steps
+    static Answer answer(double portfolio, double spending, int steps) {
+        PosCurve curve = curve(steps);
+        double target = RiskBasedGuardrailsWithInflation.TARGET_POS;
+        Answer answer = new Answer();
+        answer.pos = curve.pos(portfolio, spending);
+        answer.sustainableSpending = curve.spendingForPoS(portfolio, target);
+        answer.upperPortfolio = curve.portfolioForPoS(spending, RiskBasedGuardrailsWithInflation.UPPER_POS);
+        answer.upperSpending = curve.spendingForPoS(answer.upperPortfolio, target);
+        answer.lowerPortfolio = curve.portfolioForPoS(spending, RiskBasedGuardrailsWithInflation.LOWER_POS);
+        answer.lowerSpending = curve.spendingForPoS(answer.lowerPortfolio, target);
+        answer.adjustment = RiskBasedGuardrailsWithInflation.adjustment(portfolio, answer.upperPortfolio, answer.lowerPortfolio);
+        answer.recommendedSpending = answer.adjustment == RiskBasedGuardrailsWithInflation.Adjustment.HOLD
+                ? spending
+                : RiskBasedGuardrailsWithInflation.adjustedSpending(spending, answer.sustainableSpending);
+        return answer;
+    }
+
+    static String guardrails(Map<String, String> query) {
+        long start = System.nanoTime();
+        double portfolio = number(query, "portfolio", Double.NaN);
+        if (!(portfolio > 0)) {
+            throw new IllegalArgumentException("portfolio must be a positive number");
+        }
+        int years = (int) number(query, "years", RiskBasedGuardrailsWithInflation.RETIREMENT_YEARS);
+        if (years < 1 || years > RiskBasedGuardrailsWithInflation.RETIREMENT_YEARS) {
+            throw new IllegalArgumentException("years must be between 1 and " + RiskBasedGuardrailsWithInflation.RETIREMENT_YEARS);
+        }
+        int steps = years;
+        if (RiskBasedGuardrailsWithInflation.MONTHLY) {
+            steps = (int) number(query, "months", years * MonthlyBridge.MONTHS);
+            if (steps < 1 || steps > RiskBasedGuardrailsWithInflation.STEPS) {
+                throw new IllegalArgumentException("months must be between 1 and " + RiskBasedGuardrailsWithInflation.STEPS);
+            }
+        } else if (query.containsKey("months")) {
+            throw new IllegalArgumentException("months needs the model in monthly mode (-Dhiflite.monthly=true)");
+        }
+        double spending = query.containsKey("spending")
+                ? number(query, "spending", Double.NaN)
+                : curve(steps).spendingForPoS(portfolio, RiskBasedGuardrailsWithInflation.TARGET_POS);
+        if (!(spending >= 0)) {
+            throw new IllegalArgumentException("spending must be a number of at least 0");
+        }
+
+        Answer answer = answer(portfolio, spending, steps);
+        QUERIES.incrementAndGet();
+        return String.format(Locale.ROOT, "{\"portfolio\":%.2f,\"spending\":%.2f,\"%s\":%d,\"pos\":%.4f,"
+                        + "\"sustainableSpending\":%.2f,"
+                        + "\"upper\":{\"pos\":%.2f,\"portfolio\":%.2f,\"newSpending\":%.2f},"
+                        + "\"lower\":{\"pos\":%.2f,\"portfolio\":%.2f,\"newSpending\":%.2f},"
+                        + "\"adjustment\":\"%s\",\"recommendedSpending\":%.2f,\"micros\":%d}",
+                portfolio, spending, RiskBasedGuardrailsWithInflation.MONTHLY ? "months" : "years", steps, answer.pos, answer.sustainableSpending,
+                RiskBasedGuardrailsWithInflation.UPPER_POS, answer.upperPortfolio, answer.upperSpending,
+                RiskBasedGuardrailsWithInflation.LOWER_POS, answer.lowerPortfolio, answer.lowerSpending,
+                answer.adjustment, answer.recommendedSpending, (System.nanoTime() - start) / 1_000);
+    }
+
+    static String status() {
+        TreeSet<Integer> horizons;
+        synchronized (CURVES) {
+            horizons = new TreeSet<>(CURVES.keySet());
+        }
+        return String.format(Locale.ROOT, "{\"paths\":%d,\"years\":%d,\"seed\":%d,\"targetPoS\":%.2f,\"kernel\":\"%s\","
+                        + "\"monthly\":%b,\"horizons\":%s,\"queries\":%d}",
+                RiskBasedGuardrailsWithInflation.NUM_SIMULATIONS, RiskBasedGuardrailsWithInflation.RETIREMENT_YEARS,
+                RiskBasedGuardrailsWithInflation.SEED, RiskBasedGuardrailsWithInflation.TARGET_POS,
+                RiskBasedGuardrailsWithInflation.KERNEL, RiskBasedGuardrailsWithInflation.MONTHLY, horizons, QUERIES.get());
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        String json();
+    }
+
+    private static void respond(HttpExchange exchange, Handler handler) throws IOException {
+        int status;
+        String body;
+        if (!exchange.getRequestMethod().equals("GET")) {
+            status = 405;
+            body = error("only GET is supported");
+        } else {
+            try {
+                body = handler.json();
+                status = 200;
+            } catch (IllegalArgumentException e) {
+                status = 400;
+                body = error(e.getMessage() != null ? e.getMessage() : e.toString());
+            } catch (RuntimeException e) {
+                status = 500;
+                body = error(e.toString());
+            }
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String error(String message) {
+        return "{\"error\":\"" + message.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> query = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) {
+            return query;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    private static double number(Map<String, String> query, String name, double defaultValue) {
+        String value = query.get(name);
+        if (value == null) {
+            if (Double.isNaN(defaultValue)) {
+                throw new IllegalArgumentException(name + " is required");
+            }
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.replace(",", "").replace("_", ""));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " is not a number: '" + value + "'");
+        }
+    }
+}
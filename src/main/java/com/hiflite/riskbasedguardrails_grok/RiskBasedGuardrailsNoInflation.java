@@ -1,7 +1,9 @@
 package com.hiflite.riskbasedguardrails_grok;
 
 
-import java.util.random.RandomGenerator;
+import com.hiflite.engine.BatchKernel;
+import com.hiflite.engine.MonteCarloEngine;
+import com.hiflite.engine.ScenarioBank;
 
 public class RiskBasedGuardrailsNoInflation {
 
@@ -15,6 +17,17 @@ public class RiskBasedGuardrailsNoInflation {
     static final double UPPER_POS = 0.99;
     static final double LOWER_POS = 0.70;
 
+    static final long SEED = Long.getLong("hiflite.seed", System.currentTimeMillis());
+    static final MonteCarloEngine ENGINE = new MonteCarloEngine(SEED);
+
+    // lognormal real return, then the same withdrawal every year
+    static final BatchKernel KERNEL = BatchKernel.of(BatchKernel.Order.GROW_THEN_WITHDRAW,
+            (series, cell) -> 1 + series[0][cell],
+            BatchKernel.SpendingRule.level(),
+            BatchKernel.IncomeSchedule.NONE);
+
+    private static ScenarioBank scenarioBank;
+
     public static void main(String[] args) {
         double portfolio = 1500000;
         double initialSpending = findSpendingForPoS(portfolio, TARGET_POS);
@@ -31,23 +44,20 @@ public class RiskBasedGuardrailsNoInflation {
         System.out.printf("Lower guardrail: If portfolio ≤ $%.0f → decrease to $%.0f/year ; $%.0f/month\n", lowerPortfolio, lowerNewSpending, lowerNewSpending/12.0);
     }
 
+    // Returns are drawn once per run; every solver iteration replays them
+    static synchronized ScenarioBank scenarioBank() {
+        if (scenarioBank == null) {
+            scenarioBank = ScenarioBank.generate(ENGINE, NUM_SIMULATIONS, RETIREMENT_YEARS,
+                    ScenarioBank.Series.lognormal(MEAN_RETURN, VOLATILITY));
+        }
+        return scenarioBank;
+    }
+
     // Monte Carlo: % of sims where portfolio lasts RETIREMENT_YEARS
     static double calculatePoS(double startPortfolio, double annualSpending) {
-        int success = 0;
-        RandomGenerator rand = RandomGenerator.getDefault();
-        for (int sim = 0; sim < NUM_SIMULATIONS; sim++) {
-            double p = startPortfolio;
-            boolean survived = true;
-            for (int year = 0; year < RETIREMENT_YEARS; year++) {
-                double returnRate = Math.exp((MEAN_RETURN - VOLATILITY * VOLATILITY / 2) + VOLATILITY * rand.nextGaussian()) - 1;
-                p = p * (1 + returnRate) - annualSpending;
-                if (p <= 0) {
-                    survived = false;
-                    break;
-                }
-            }
-            if (survived) success++;
-        }
+        double[][] series = scenarioBank().allSeries();
+        long success = ENGINE.sum(NUM_SIMULATIONS, (from, to) -> KERNEL.survivors(series, NUM_SIMULATIONS,
+                0, RETIREMENT_YEARS, from, to, startPortfolio, annualSpending, 1.0));
         return (double) success / NUM_SIMULATIONS;
     }
 
@@ -1,15 +1,32 @@
 package com.hiflite.riskbasedguardrails_grok;
 
+import com.hiflite.engine.Allocation;
+import com.hiflite.engine.BatchKernel;
+import com.hiflite.engine.GuardrailSolver;
+import com.hiflite.engine.HistoricalData;
+import com.hiflite.engine.LognormalPathKernel;
+import com.hiflite.engine.MonteCarloEngine;
+import com.hiflite.engine.MonthlyBridge;
+import com.hiflite.engine.PosCurve;
+import com.hiflite.engine.PosEstimate;
+import com.hiflite.engine.PosSensitivities;
+import com.hiflite.engine.RootFinder;
+import com.hiflite.engine.ScenarioBank;
+import com.hiflite.engine.SolverCache;
 import com.hiflite.utils.TimingUtils;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.text.DecimalFormat;
-import java.util.random.RandomGenerator;
+import java.util.Arrays;
 
 public class RiskBasedGuardrailsWithInflation {
 
     // Simulation parameters
-    static final int NUM_SIMULATIONS = 100_000;
-    static final int RETIREMENT_YEARS = 30;
+    // -Dhiflite.paths / -Dhiflite.years override these (the benchmarks sweep them)
+    static final int NUM_SIMULATIONS = Integer.getInteger("hiflite.paths", 100_000);
+    static final int RETIREMENT_YEARS = Integer.getInteger("hiflite.years", 30);
 
     // see 20260218_GrokInflationDiscussion for means and std devs... my stddevs are calc'ed from 1966 through 2025
     // 1996-2025 mean return is 9.44, mean inflation is 0.0379
@@ -22,6 +39,87 @@ public class RiskBasedGuardrailsWithInflation {
     static final double UPPER_POS = 0.95;
     static final double LOWER_POS = 0.80;
 
+    // fix the seed to reproduce a run exactly (-Dhiflite.seed); the answer does not depend on the number of threads
+    static final long SEED = Long.getLong("hiflite.seed", System.currentTimeMillis());
+    static final MonteCarloEngine ENGINE = new MonteCarloEngine(SEED);
+
+    // series in the scenario bank
+    static final int REAL_RETURNS = LognormalPathKernel.REAL_RETURNS;
+    static final int INFLATION = LognormalPathKernel.INFLATION;
+
+    // randomized quasi-Monte Carlo: scrambled Sobol points instead of NUM_SIMULATIONS pseudo-random paths; the error
+    // estimate comes from the spread between independently scrambled replicates
+    static final boolean QUASI_RANDOM = false;
+    static final int QMC_REPLICATES = 16;
+    static final int QMC_PATHS_PER_REPLICATE = 1 << 12;
+
+    // historical mode: -Dhiflite.history=<file> resamples the real returns and inflation of a file converted with
+    // HistoricalData in blocks of consecutive years, instead of drawing the parametric series above
+    static final String HISTORY_FILE = System.getProperty("hiflite.history");
+    static final int BOOTSTRAP_BLOCK_YEARS = 5;
+    private static HistoricalData history;
+
+    // monthly mode: -Dhiflite.monthly=true withdraws a twelfth of the year's spending every month and fails a path in
+    // the first month it runs dry; each bank year is split into twelve months (MonthlyBridge), spending is still indexed
+    // yearly. Guardrails can then be checked at any month: horizons count STEPS, months instead of years
+    static final boolean MONTHLY = Boolean.getBoolean("hiflite.monthly");
+    static final int STEPS = MONTHLY ? RETIREMENT_YEARS * MonthlyBridge.MONTHS : RETIREMENT_YEARS;
+    private static MonthlyBridge monthlyBridge;
+
+    // asset mode: -Dhiflite.assets=true holds stocks, bonds and cash instead of one asset. They are drawn correlated with
+    // each other and with inflation, and the kernels read the real return of ALLOCATION (ScenarioBank.Series.portfolio)
+    // where they read REAL_RETURNS, so solvers, curves and monthly mode all work as for one asset. Withdrawals
+    // are pro rata only; -Dhiflite.rebalanceBand=0.05 rebalances only outside a ±5% band instead of every year.
+    // Historical mode has no assets to hold, so the two are rejected together
+    static final boolean ASSETS = Boolean.getBoolean("hiflite.assets");
+    static final int STOCKS = 2;
+    static final int BONDS = 3;
+    static final int CASH = 4;
+    static final double STOCK_MEAN = 0.050;           // real, lognormal
+    static final double STOCK_VOL = 0.170;
+    static final double BOND_MEAN = 0.015;            // real, lognormal
+    static final double BOND_VOL = 0.070;
+    static final double CASH_MEAN = 0.003;            // real, normal
+    static final double CASH_VOL = 0.010;
+    // between inflation, stocks, bonds and cash, in that order (the bank's drawn series)
+    static final double[][] ASSET_CORRELATION = {
+            {1.0, -0.10, -0.30, -0.40},
+            {-0.10, 1.0, 0.10, 0.00},
+            {-0.30, 0.10, 1.0, 0.30},
+            {-0.40, 0.00, 0.30, 1.0}};
+    static final double REBALANCE_BAND = Double.parseDouble(System.getProperty("hiflite.rebalanceBand", "0"));
+    static final Allocation ALLOCATION = allocation(Allocation.of(new int[] {STOCKS, BONDS, CASH}, new double[] {0.6, 0.3, 0.1}));
+
+    // antithetic (z, -z) pairs in the bank plus a terminal-growth control variate in calculatePoS
+    static final boolean VARIANCE_REDUCTION = false;
+
+    // scalar or SIMD inner loop, see LognormalPathKernel for the -Dhiflite.kernel switch
+    static final LognormalPathKernel KERNEL = LognormalPathKernel.select();
+    // same model, but reports which paths survived, for the control variate
+    static final BatchKernel SURVIVAL_KERNEL = BatchKernel.inflationIndexed(REAL_RETURNS, INFLATION);
+
+    private static ScenarioBank scenarioBank;
+    private static PosCurve posCurve;
+    private static double[] criticalRatios;
+    private static double[][] returnScores;
+    static long pathsSimulated;
+
+    // PATHWISE reads the answer off the per-path critical spending ratios in one pass; BISECTION is the original search;
+    // NEWTON steps on the PoS slope from sensitivities(), a few probes of the path margins per solve
+    enum SolverMode { PATHWISE, BISECTION, NEWTON }
+    static final SolverMode SOLVER_MODE = SolverMode.PATHWISE;
+
+    // the original BISECTION ran 50 fixed halvings (GuardrailSolver.ADAPTIVE off)
+    static final int FIXED_HALVINGS = 50;
+    private static GuardrailSolver solver;
+
+    // solved guardrails and the PoS curve are kept on disk (SolverCache) and reused by later runs with the same
+    // parameters; only a seed fixed with -Dhiflite.seed makes two runs share them. Bump when the model's arithmetic changes.
+    static final int CACHE_VERSION = 1;
+    static final int SPENDING_FOR_POS = 1;
+    static final int PORTFOLIO_FOR_POS = 2;
+    private static SolverCache solverCache;
+
     static final DecimalFormat DECIMAL_FORMAT = new DecimalFormat("#,##0");
 
     public static void main(String[] args) {
@@ -35,6 +133,7 @@ public class RiskBasedGuardrailsWithInflation {
         //initialPortfolio = 1500000;
         // Find initial real spending (in today's dollars) that hits target PoS
 
+        checkReturnSource();
         TimingUtils timingUtils = new TimingUtils();
         timingUtils.timerStart();
         double initialRealSpending = findRealSpendingForPoS(initialPortfolio, TARGET_POS);
@@ -65,81 +164,337 @@ public class RiskBasedGuardrailsWithInflation {
 
         timingUtils.timerStop();
         timingUtils.reportTotalElapsedTime();
+        System.out.println("kernel : " + KERNEL);
+        if (MONTHLY) {
+            System.out.printf("steps : %d monthly withdrawals\n", STEPS);
+        }
+        if (ASSETS) {
+            ScenarioBank.Series portfolio = scenarioBank().getSeries(REAL_RETURNS);
+            System.out.printf("assets : %s, real return %.2f%% ± %.2f%%\n", ALLOCATION,
+                    portfolio.getMean() * 100, portfolio.getVolatility() * 100);
+        }
+        if (HISTORY_FILE != null) {
+            System.out.printf("returns : %d-%d history in %d-year blocks\n", history().getFirstYear(),
+                    history().getFirstYear() + history().getYears() - 1, BOOTSTRAP_BLOCK_YEARS);
+        }
+        System.out.println("PoS at initial spending : " + estimatePoS(initialPortfolio, initialRealSpending));
+        System.out.printf("paths simulated : %s\n", DECIMAL_FORMAT.format(pathsSimulated));
+        if (SOLVER_MODE == SolverMode.NEWTON || SOLVER_MODE == SolverMode.BISECTION && GuardrailSolver.ADAPTIVE) {
+            System.out.println("solver : " + solver());
+        }
+        if (solverCache().isEnabled()) {
+            System.out.printf("solver cache : %d hits, %d misses\n", solverCache().getHits(), solverCache().getMisses());
+        }
+        TimingUtils.printSummary();
 
         return initialRealSpending;
     }
 
+    // Returns and inflation are drawn once per run; every PoS estimate and solver iteration replays them
+    static synchronized ScenarioBank scenarioBank() {
+        if (scenarioBank == null) {
+            checkReturnSource();
+            ScenarioBank.Series realReturn = ScenarioBank.Series.lognormal(REAL_MEAN_RETURN, REAL_VOLATILITY);
+            ScenarioBank.Series inflation = ScenarioBank.Series.normal(INFLATION_MEAN, INFLATION_VOL);   // normal dist (or use lognormal if preferred)
+            ScenarioBank.Series[] series = {realReturn, inflation};
+            double[][] correlation = null;
+            if (ASSETS) {
+                series = new ScenarioBank.Series[] {ScenarioBank.Series.portfolio(ALLOCATION), inflation,
+                        ScenarioBank.Series.lognormal(STOCK_MEAN, STOCK_VOL), ScenarioBank.Series.lognormal(BOND_MEAN, BOND_VOL),
+                        ScenarioBank.Series.normal(CASH_MEAN, CASH_VOL)};
+                correlation = ASSET_CORRELATION;
+            }
+            if (HISTORY_FILE != null) {
+                scenarioBank = ScenarioBank.generateBlockBootstrap(ENGINE, NUM_SIMULATIONS, RETIREMENT_YEARS, history(), BOOTSTRAP_BLOCK_YEARS);
+            } else if (QUASI_RANDOM) {
+                scenarioBank = ScenarioBank.generateQuasiRandom(ENGINE, QMC_PATHS_PER_REPLICATE, QMC_REPLICATES, RETIREMENT_YEARS, correlation, series);
+            } else if (VARIANCE_REDUCTION) {
+                scenarioBank = ScenarioBank.generateAntithetic(ENGINE, NUM_SIMULATIONS, RETIREMENT_YEARS, correlation, series);
+            } else {
+                scenarioBank = ScenarioBank.generate(ENGINE, NUM_SIMULATIONS, RETIREMENT_YEARS, correlation, series);
+            }
+        }
+        return scenarioBank;
+    }
+
+    // a history file resamples one real return series, so there are no stocks, bonds and cash for asset mode to hold
+    static void checkReturnSource() {
+        if (ASSETS && HISTORY_FILE != null) {
+            throw new IllegalStateException("asset mode (-Dhiflite.assets=true) draws its assets parametrically and "
+                    + "cannot run on the history in " + HISTORY_FILE + "; drop one of the two");
+        }
+    }
+
+    private static Allocation allocation(Allocation allocation) {
+        return REBALANCE_BAND > 0 ? allocation.withBand(REBALANCE_BAND) : allocation;
+    }
+
+    // the months inside every bank year; the kernels split each year as they reach it
+    static synchronized MonthlyBridge monthlyBridge() {
+        if (monthlyBridge == null) {
+            monthlyBridge = MonthlyBridge.of(ENGINE, scenarioBank(), REAL_RETURNS);
+        }
+        return monthlyBridge;
+    }
+
     // Monte Carlo: Probability portfolio lasts RETIREMENT_YEARS years with inflation-adjusted withdrawals
     static double calculatePoS(double startPortfolio, double initialRealSpending) {
-        int success = 0;
-        RandomGenerator rand = RandomGenerator.getDefault();
-        for (int sim = 0; sim < NUM_SIMULATIONS; sim++) {
-            double portfolio = startPortfolio;                // nominal starting value
-            double currentSpending = initialRealSpending;     // starts as real; we'll inflate it nominally
-            boolean survived = true;
-
-            for (int year = 0; year < RETIREMENT_YEARS; year++) {
-                // Simulate real return
-                double realReturn = Math.exp((REAL_MEAN_RETURN - REAL_VOLATILITY * REAL_VOLATILITY / 2)
-                        + REAL_VOLATILITY * rand.nextGaussian()) - 1;
-
-                // Simulate inflation this year
-                double inflation = INFLATION_MEAN + INFLATION_VOL * rand.nextGaussian();  // normal dist (or use lognormal if preferred)
-
-                // Nominal return ≈ real return + inflation (approx; exact: (1+real)*(1+inf)-1)
-                double nominalReturn = (1 + realReturn) * (1 + inflation) - 1;
-
-                // Grow portfolio nominally
-                portfolio = portfolio * (1 + nominalReturn);
-
-                // Inflate the spending amount for this year's withdrawal (to maintain purchasing power)
-                if (year > 0) {
-                    currentSpending *= (1 + inflation);
-                }
+        return estimatePoS(startPortfolio, initialRealSpending).getProbability();
+    }
+
+    // PoS with its standard error (binomial, across the replicates in QUASI_RANDOM mode, or after the control variate)
+    static PosEstimate estimatePoS(double startPortfolio, double initialRealSpending) {
+        ScenarioBank bank = scenarioBank();
+        PosEstimate estimate;
+        if (VARIANCE_REDUCTION) {
+            // control: compounded nominal growth (1 + real return) x (1 + inflation) with no withdrawals
+            // (the months of a year compound to the year, so the control is the same in monthly mode)
+            double[][] series = bank.allSeries();
+            int paths = bank.getPaths();
+            BatchKernel kernel = MONTHLY ? SURVIVAL_KERNEL.withMonths(monthlyBridge()) : SURVIVAL_KERNEL;
+            estimate = bank.estimateWithControl(ENGINE, (from, to, survived) -> kernel.markSurvivors(series,
+                            paths, 0, STEPS, from, to, startPortfolio, initialRealSpending, 1.0, survived),
+                    0, RETIREMENT_YEARS, REAL_RETURNS, INFLATION);
+        } else {
+            estimate = bank.estimate(ENGINE, survivors(startPortfolio, initialRealSpending));
+        }
+        pathsSimulated += estimate.getPaths();
+        return estimate;
+    }
 
-                // Withdraw the inflation-adjusted (nominal) amount
-                portfolio -= currentSpending;
+    private static MonteCarloEngine.RangeTask survivors(double startPortfolio, double initialRealSpending) {
+        ScenarioBank bank = scenarioBank();
+        double[][] series = bank.allSeries();
+        int paths = bank.getPaths();
+        if (MONTHLY) {
+            MonthlyBridge months = monthlyBridge();
+            return (from, to) -> KERNEL.survivors(series, paths, months, STEPS, from, to,
+                    startPortfolio, initialRealSpending);
+        }
+        return (from, to) -> KERNEL.survivors(series, paths, RETIREMENT_YEARS, from, to,
+                startPortfolio, initialRealSpending);
+    }
+
+    // For a fixed path the balance after year k is startPortfolio * A[k] - initialRealSpending * B[k], where A[k] is the
+    // compounded nominal growth and B[k] the compounded growth of each inflated withdrawal. The path survives exactly when
+    // initialRealSpending / startPortfolio < min over k of A[k] / B[k] -- that minimum is the path's critical spending ratio.
+    // In monthly mode k runs over months and the ratio still compares with annual spending.
+    static double[] criticalSpendingRatios() {
+        double[] ratios = criticalSpendingRatios(STEPS);
+        pathsSimulated += ratios.length;
+        return ratios;
+    }
+
+    // same over the first `steps` steps of the model's own bank: a check with that much of the plan left
+    static double[] criticalSpendingRatios(int steps) {
+        return criticalSpendingRatios(ENGINE, scenarioBank(), MONTHLY ? monthlyBridge() : null, steps);
+    }
 
-                if (portfolio <= 0) {
-                    survived = false;
-                    break;
+    // same, for a bank of the caller's (GuardrailGrid runs one per grid cell); months null steps a year at a time
+    static double[] criticalSpendingRatios(MonteCarloEngine engine, ScenarioBank bank, MonthlyBridge months, int steps) {
+        double[][] series = bank.allSeries();
+        int paths = bank.getPaths();
+        double[] ratios = new double[paths];
+
+        engine.sum(paths, (from, to) -> {
+            if (months != null) {
+                KERNEL.criticalRatios(series, paths, months, steps, from, to, ratios);
+            } else {
+                KERNEL.criticalRatios(series, paths, steps, from, to, ratios);
+            }
+            return 0;
+        });
+        return ratios;
+    }
+
+    // PoS at (portfolio, spending) with its slopes, all from one pass. A path survives while spending stays below
+    // portfolio x its critical ratio, so its margins are exact: spending could rise to portfolio x ratio, the portfolio
+    // fall to spending / ratio. The slopes in REAL_MEAN_RETURN / REAL_VOLATILITY are likelihood ratios on the bank's own
+    // draws (none for history); in monthly mode the months' spread depends on the volatility too, so that one is left out.
+    static PosSensitivities sensitivities(double portfolio, double spending) {
+        double[] ratios = criticalRatios();
+        int paths = ratios.length;
+        double[] spendingMargins = new double[paths];
+        double[] portfolioMargins = new double[paths];
+        for (int path = 0; path < paths; path++) {
+            spendingMargins[path] = portfolio * ratios[path] - spending;
+            portfolioMargins[path] = portfolio - spending / ratios[path];
+        }
+        double[][] scores = returnScores();
+        if (scores == null) {
+            return PosSensitivities.of(spendingMargins, portfolioMargins, null, null);
+        }
+        return PosSensitivities.of(spendingMargins, portfolioMargins, scores[0], MONTHLY ? null : scores[1]);
+    }
+
+    // the model's critical ratios in path order, so they line up with returnScores(); one pass for the whole run,
+    // after which a Newton probe only re-reads them
+    static synchronized double[] criticalRatios() {
+        if (criticalRatios == null) {
+            criticalRatios = criticalSpendingRatios();
+        }
+        return criticalRatios;
+    }
+
+    // {mean, volatility} likelihood-ratio scores of every path's real returns; they depend on the bank alone
+    static synchronized double[][] returnScores() {
+        ScenarioBank bank = scenarioBank();
+        if (returnScores == null && bank.getSeries(REAL_RETURNS).isParametric()) {
+            int paths = bank.getPaths();
+            double[] meanScores = new double[paths];
+            double[] volatilityScores = new double[paths];
+            ENGINE.sum(paths, (from, to) -> {
+                bank.likelihoodRatioScores(REAL_RETURNS, 0, RETIREMENT_YEARS, from, to, meanScores, volatilityScores);
+                return 0;
+            });
+            returnScores = new double[][] {meanScores, volatilityScores};
+        }
+        return returnScores;
+    }
+
+    // Built once from the scenario bank (or read back from the solver cache); every guardrail solve after that is a binary search
+    static synchronized PosCurve posCurve() {
+        if (posCurve == null) {
+            posCurve = solverCache().curve();
+            if (posCurve == null) {
+                try (var _ = TimingUtils.phase("pos curve")) {
+                    // the curve sorts its ratios in place
+                    posCurve = PosCurve.fromCriticalRatios(criticalRatios().clone());
                 }
+                solverCache().putCurve(posCurve);
             }
-            if (survived) success++;
         }
-        return (double) success / NUM_SIMULATIONS;
+        return posCurve;
     }
 
-    // Binary search: Find constant real initial spending that gives target PoS
-    static double findRealSpendingForPoS(double portfolio, double targetPoS) {
-        double low = 0;
-        double high = portfolio * 0.10;
-        for (int i = 0; i < 50; i++) {
-            double mid = (low + high) / 2;
-            double calculatedPoS = calculatePoS(portfolio, mid);
-            if (calculatedPoS > targetPoS) {
-                low = mid;
-            } else {
-                high = mid;
+    static synchronized HistoricalData history() {
+        if (history == null) {
+            try {
+                history = HistoricalData.load(Path.of(HISTORY_FILE));
+            } catch (IOException e) {
+                throw new UncheckedIOException("cannot read " + HISTORY_FILE, e);
             }
         }
-        return (low + high) / 2;
+        return history;
     }
 
-    // Binary search: Find portfolio value that gives target PoS at fixed initial real spending
-    static double findPortfolioForPoS(double initialRealSpending, double targetPoS) {
-        double low = 0;
-        double high = initialRealSpending * 50;
-        for (int i = 0; i < 50; i++) {
-            double mid = (low + high) / 2;
-            double calculatedPoS = calculatePoS(mid, initialRealSpending);
-            if (calculatedPoS < targetPoS) {
-                low = mid;
+    static synchronized GuardrailSolver solver() {
+        if (solver == null) {
+            solver = new GuardrailSolver(ENGINE, scenarioBank(), 1, FIXED_HALVINGS);
+        }
+        return solver;
+    }
+
+    static synchronized SolverCache solverCache() {
+        if (solverCache == null) {
+            if (Long.getLong("hiflite.seed") == null) {
+                solverCache = SolverCache.disabled();
             } else {
-                high = mid;
+                int paths = QUASI_RANDOM && HISTORY_FILE == null ? QMC_PATHS_PER_REPLICATE * QMC_REPLICATES : NUM_SIMULATIONS;
+                solverCache = SolverCache.open(SolverCache.defaultDirectory(), cacheKey(), paths);
+                Runtime.getRuntime().addShutdownHook(new Thread(solverCache::close));
             }
         }
-        return (low + high) / 2;
+        return solverCache;
+    }
+
+    // everything that changes a solved number
+    private static long cacheKey() {
+        return new SolverCache.Key()
+                .add("model", RiskBasedGuardrailsWithInflation.class.getName())
+                .add("cacheVersion", CACHE_VERSION)
+                .add("seed", SEED)
+                .add("paths", NUM_SIMULATIONS)
+                .add("years", RETIREMENT_YEARS)
+                .add("realMeanReturn", REAL_MEAN_RETURN)
+                .add("realVolatility", REAL_VOLATILITY)
+                .add("inflationMean", INFLATION_MEAN)
+                .add("inflationVol", INFLATION_VOL)
+                .add("history", HISTORY_FILE == null ? 0 : history().fingerprint())
+                .add("bootstrapBlockYears", BOOTSTRAP_BLOCK_YEARS)
+                .add("quasiRandom", QUASI_RANDOM)
+                .add("qmcReplicates", QMC_REPLICATES)
+                .add("qmcPathsPerReplicate", QMC_PATHS_PER_REPLICATE)
+                .add("varianceReduction", VARIANCE_REDUCTION)
+                .add("earlyStopping", GuardrailSolver.EARLY_STOPPING)
+                .add("earlyStopZ", GuardrailSolver.EARLY_STOP_Z)
+                .add("solverMode", SOLVER_MODE.name())
+                .add("adaptiveSolver", GuardrailSolver.ADAPTIVE)
+                .add("solverTolerance", GuardrailSolver.TOLERANCE)
+                .add("kernel", KERNEL.toString())
+                .add("monthly", MONTHLY)
+                .add("assets", ASSETS ? ALLOCATION + " " + Arrays.deepToString(ASSET_CORRELATION)
+                        + " " + Arrays.toString(new double[] {STOCK_MEAN, STOCK_VOL, BOND_MEAN, BOND_VOL, CASH_MEAN, CASH_VOL}) : "")
+                .hash();
+    }
+
+    // Find constant real initial spending that gives target PoS
+    static double findRealSpendingForPoS(double portfolio, double targetPoS) {
+        if (SOLVER_MODE == SolverMode.PATHWISE) {
+            return posCurve().spendingForPoS(portfolio, targetPoS);
+        }
+        try (var _ = TimingUtils.phase("solve")) {
+            return solverCache().computeIfAbsent(SPENDING_FOR_POS, portfolio, targetPoS,
+                    () -> SOLVER_MODE == SolverMode.NEWTON
+                            ? newtonRealSpendingForPoS(portfolio, targetPoS)
+                            : bisectRealSpendingForPoS(portfolio, targetPoS));
+        }
+    }
+
+    static double newtonRealSpendingForPoS(double portfolio, double targetPoS) {
+        return solver().newton(GuardrailSolver.Quantity.SPENDING, 0, portfolio,
+                spending -> sensitivities(portfolio, spending), PosSensitivities::getSpending, targetPoS,
+                0, portfolio * 0.10).getRoot();
+    }
+
+    static double bisectRealSpendingForPoS(double portfolio, double targetPoS) {
+        RootFinder.Result result = solver().solve(GuardrailSolver.Quantity.SPENDING, 0, portfolio,
+                spending -> survivors(portfolio, spending), targetPoS, 0, portfolio * 0.10);
+        pathsSimulated += result.getPaths();
+        return result.getRoot();
+    }
+
+    // Find portfolio value that gives target PoS at fixed initial real spending
+    static double findPortfolioForPoS(double initialRealSpending, double targetPoS) {
+        if (SOLVER_MODE == SolverMode.PATHWISE) {
+            return posCurve().portfolioForPoS(initialRealSpending, targetPoS);
+        }
+        try (var _ = TimingUtils.phase("solve")) {
+            return solverCache().computeIfAbsent(PORTFOLIO_FOR_POS, initialRealSpending, targetPoS,
+                    () -> SOLVER_MODE == SolverMode.NEWTON
+                            ? newtonPortfolioForPoS(initialRealSpending, targetPoS)
+                            : bisectPortfolioForPoS(initialRealSpending, targetPoS));
+        }
+    }
+
+    static double newtonPortfolioForPoS(double initialRealSpending, double targetPoS) {
+        return solver().newton(GuardrailSolver.Quantity.PORTFOLIO, 0, initialRealSpending,
+                portfolio -> sensitivities(portfolio, initialRealSpending), PosSensitivities::getPortfolio, targetPoS,
+                0, initialRealSpending * 50).getRoot();
+    }
+
+    static double bisectPortfolioForPoS(double initialRealSpending, double targetPoS) {
+        RootFinder.Result result = solver().solve(GuardrailSolver.Quantity.PORTFOLIO, 0, initialRealSpending,
+                portfolio -> survivors(portfolio, initialRealSpending), targetPoS, 0, initialRealSpending * 50);
+        pathsSimulated += result.getPaths();
+        return result.getRoot();
+    }
+
+    // hitting a guardrail moves spending this far toward the new target (0.25–0.5 common)
+    static final double ADJUSTMENT_FACTOR = 0.4;
+
+    enum Adjustment { RAISE, CUT, HOLD }
+
+    static Adjustment adjustment(double currentPortfolio, double upperGuardrailPortfolio, double lowerGuardrailPortfolio) {
+        if (currentPortfolio >= upperGuardrailPortfolio) {
+            return Adjustment.RAISE;
+        }
+        return currentPortfolio <= lowerGuardrailPortfolio ? Adjustment.CUT : Adjustment.HOLD;
+    }
+
+    // partial reset toward the target spending
+    static double adjustedSpending(double currentRealSpending, double newTargetSpending) {
+        return currentRealSpending + ADJUSTMENT_FACTOR * (newTargetSpending - currentRealSpending);
     }
 
     // currently unused - should be called by another main driver
@@ -154,19 +509,24 @@ public class RiskBasedGuardrailsWithInflation {
         double lowerGuardrailPortfolio = findPortfolioForPoS(currentRealSpending, LOWER_POS);
 
         double newTargetSpending = findRealSpendingForPoS(currentPortfolio, TARGET_POS);
-        System.out.printf("currentPortfolio: %s ; currentRealSpending: %s\n", DECIMAL_FORMAT.format(currentPortfolio), DECIMAL_FORMAT.format(currentRealSpending));
-
-        if (currentPortfolio >= upperGuardrailPortfolio) {
+        double currentPoS = SOLVER_MODE == SolverMode.PATHWISE
+                ? posCurve().pos(currentPortfolio, currentRealSpending)
+                : calculatePoS(currentPortfolio, currentRealSpending);
+        System.out.printf("currentPortfolio: %s ; currentRealSpending: %s ; current PoS: %.1f%%\n",
+                DECIMAL_FORMAT.format(currentPortfolio), DECIMAL_FORMAT.format(currentRealSpending), currentPoS * 100);
+
+        Adjustment adjustment = adjustment(currentPortfolio, upperGuardrailPortfolio, lowerGuardrailPortfolio);
+        if (adjustment == Adjustment.RAISE) {
             // Hit upper — increase partially
-            double adjustmentFactor = 0.4;  // tune this (0.25–0.5 common)
-            currentRealSpending += adjustmentFactor * (newTargetSpending - currentRealSpending);
+            currentRealSpending = adjustedSpending(currentRealSpending, newTargetSpending);
             System.out.println("Upper guardrail hit → new spending: " + DECIMAL_FORMAT.format(currentRealSpending));
 
-        } else if (currentPortfolio <= lowerGuardrailPortfolio) {
+        } else if (adjustment == Adjustment.CUT) {
             // Hit lower — decrease partially
-            double adjustmentFactor = 0.4;
-            currentRealSpending += adjustmentFactor * (newTargetSpending - currentRealSpending);
+            currentRealSpending = adjustedSpending(currentRealSpending, newTargetSpending);
             System.out.println("Lower guardrail hit → new spending: " + DECIMAL_FORMAT.format(currentRealSpending));
+            // how much each lever buys at the new spending, to judge whether a deeper or shallower cut is worth it
+            System.out.println("sensitivities : " + sensitivities(currentPortfolio, currentRealSpending));
 
         } else {
             System.out.println("No adjustment — keep spending at: " + DECIMAL_FORMAT.format(currentRealSpending));
@@ -1,6 +1,19 @@
 package com.hiflite.riskbasedguardrails_grok;
 
-import java.util.random.RandomGenerator;
+import com.hiflite.engine.BatchKernel;
+import com.hiflite.engine.MonteCarloEngine;
+import com.hiflite.engine.QuantileSketch;
+import com.hiflite.engine.ScenarioBank;
+import com.hiflite.engine.TrajectoryFile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.DoubleBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 
 public class RiskBasedGuardrailsWithInflation_withdrawalHistory {
@@ -16,6 +29,20 @@ public class RiskBasedGuardrailsWithInflation_withdrawalHistory {
     static final double UPPER_POS = 0.95;
     static final double LOWER_POS = 0.85;
 
+    static final long SEED = Long.getLong("hiflite.seed", System.currentTimeMillis());
+    static final MonteCarloEngine ENGINE = new MonteCarloEngine(SEED);
+
+    // series in the scenario bank
+    static final int REAL_RETURNS = 0;
+    static final int INFLATION = 1;
+
+    static final BatchKernel KERNEL = BatchKernel.inflationIndexed(REAL_RETURNS, INFLATION);
+
+    // -Dhiflite.export=<file> also writes every path's yearly balance, withdrawal, inflation and return (TrajectoryFile)
+    static final String EXPORT_FILE = System.getProperty("hiflite.export");
+
+    private static ScenarioBank scenarioBank;
+
     public static void main(String[] args) {
         double initialPortfolio = 1_500_000;
 
@@ -37,48 +64,29 @@ public class RiskBasedGuardrailsWithInflation_withdrawalHistory {
         // === NEW: Spending history tracking ===
         printSampleSpendingPath(initialPortfolio, initialRealSpending);
         printAverageSpendingTrajectory(initialPortfolio, initialRealSpending);
+        printPercentileBands(initialPortfolio, initialRealSpending);
+        if (EXPORT_FILE != null) {
+            exportTrajectories(Path.of(EXPORT_FILE), initialPortfolio, initialRealSpending);
+        }
     }
 
 
+    // Returns and inflation are drawn once per run; the solvers, the sample path and the trajectory all replay them
+    static synchronized ScenarioBank scenarioBank() {
+        if (scenarioBank == null) {
+            scenarioBank = ScenarioBank.generate(ENGINE, NUM_SIMULATIONS, RETIREMENT_YEARS,
+                    ScenarioBank.Series.lognormal(REAL_MEAN_RETURN, REAL_VOLATILITY),   // real return
+                    ScenarioBank.Series.normal(INFLATION_MEAN, INFLATION_VOL));         // normal dist (or use lognormal if preferred)
+        }
+        return scenarioBank;
+    }
+
     // Monte Carlo: Probability portfolio lasts RETIREMENT_YEARS years with inflation-adjusted withdrawals
+    // (grow by (1 + real) x (1 + inflation), then withdraw the spending inflated by that path's inflation)
     static double calculatePoS(double startPortfolio, double initialRealSpending) {
-        int success = 0;
-        RandomGenerator rand = RandomGenerator.getDefault();
-
-        for (int sim = 0; sim < NUM_SIMULATIONS; sim++) {
-            double portfolio = startPortfolio;                // nominal starting value
-            double currentSpending = initialRealSpending;     // starts as real; we'll inflate it nominally
-            boolean survived = true;
-
-            for (int year = 0; year < RETIREMENT_YEARS; year++) {
-                // Simulate real return
-                double realReturn = Math.exp((REAL_MEAN_RETURN - REAL_VOLATILITY * REAL_VOLATILITY / 2)
-                        + REAL_VOLATILITY * rand.nextGaussian()) - 1;
-
-                // Simulate inflation this year
-                double inflation = INFLATION_MEAN + INFLATION_VOL * rand.nextGaussian();  // normal dist (or use lognormal if preferred)
-
-                // Nominal return ≈ real return + inflation (approx; exact: (1+real)*(1+inf)-1)
-                double nominalReturn = (1 + realReturn) * (1 + inflation) - 1;
-
-                // Grow portfolio nominally
-                portfolio = portfolio * (1 + nominalReturn);
-
-                // Inflate the spending amount for this year's withdrawal (to maintain purchasing power)
-                if (year > 0) {
-                    currentSpending *= (1 + inflation);
-                }
-
-                // Withdraw the inflation-adjusted (nominal) amount
-                portfolio -= currentSpending;
-
-                if (portfolio <= 0) {
-                    survived = false;
-                    break;
-                }
-            }
-            if (survived) success++;
-        }
+        double[][] series = scenarioBank().allSeries();
+        long success = ENGINE.sum(NUM_SIMULATIONS, (from, to) -> KERNEL.survivors(series, NUM_SIMULATIONS,
+                0, RETIREMENT_YEARS, from, to, startPortfolio, initialRealSpending, 1.0));
         return (double) success / NUM_SIMULATIONS;
     }
 
@@ -116,7 +124,8 @@ public class RiskBasedGuardrailsWithInflation_withdrawalHistory {
     // NEW: One concrete simulated spending history
     // ──────────────────────────────────────────────────────────────
     static void printSampleSpendingPath(double startPortfolio, double initialRealSpending) {
-        RandomGenerator rand = RandomGenerator.getDefault();
+        // the first path of the bank
+        ScenarioBank bank = scenarioBank();
         double portfolio = startPortfolio;
         double currentSpending = initialRealSpending;
 
@@ -125,9 +134,8 @@ public class RiskBasedGuardrailsWithInflation_withdrawalHistory {
         System.out.println("-----+---------------+----------+-----------+-------------------+---------------");
 
         for (int year = 0; year < RETIREMENT_YEARS; year++) {
-            double realReturn = Math.exp((REAL_MEAN_RETURN - REAL_VOLATILITY * REAL_VOLATILITY / 2)
-                    + REAL_VOLATILITY * rand.nextGaussian()) - 1;
-            double inflation = INFLATION_MEAN + INFLATION_VOL * rand.nextGaussian();
+            double realReturn = bank.value(REAL_RETURNS, year, 0);
+            double inflation = bank.value(INFLATION, year, 0);
             double nominalReturn = (1 + realReturn) * (1 + inflation) - 1;
 
             double startP = portfolio;
@@ -152,39 +160,25 @@ public class RiskBasedGuardrailsWithInflation_withdrawalHistory {
     // NEW: Average nominal spending per year across all simulations
     // ──────────────────────────────────────────────────────────────
     static void printAverageSpendingTrajectory(double startPortfolio, double initialRealSpending) {
-        double[] sumSpending = new double[RETIREMENT_YEARS];
-        int[] simsReachedYear = new int[RETIREMENT_YEARS];
-        int successes = 0;
-
-        RandomGenerator rand = RandomGenerator.getDefault();
-
-        for (int sim = 0; sim < NUM_SIMULATIONS; sim++) {
-            double portfolio = startPortfolio;
-            double currentSpending = initialRealSpending;
-            boolean survived = true;
+        double[][] series = scenarioBank().allSeries();
+
+        // every chunk tallies its own paths; adding the chunks up in order keeps the sums independent of thread timing
+        int chunks = MonteCarloEngine.chunkCount(NUM_SIMULATIONS);
+        double[][] withdrawnByChunk = new double[chunks][RETIREMENT_YEARS];
+        long[][] reachedByChunk = new long[chunks][RETIREMENT_YEARS];
+        long successes = ENGINE.sum(NUM_SIMULATIONS, (from, to) -> {
+            int chunk = from / MonteCarloEngine.CHUNK_SIZE;
+            return KERNEL.tallySurvivors(series, NUM_SIMULATIONS, 0, RETIREMENT_YEARS, from, to,
+                    startPortfolio, initialRealSpending, 1.0, withdrawnByChunk[chunk], reachedByChunk[chunk]);
+        });
 
+        double[] sumSpending = new double[RETIREMENT_YEARS];
+        long[] simsReachedYear = new long[RETIREMENT_YEARS];
+        for (int chunk = 0; chunk < chunks; chunk++) {
             for (int year = 0; year < RETIREMENT_YEARS; year++) {
-                double realReturn = Math.exp((REAL_MEAN_RETURN - REAL_VOLATILITY * REAL_VOLATILITY / 2)
-                        + REAL_VOLATILITY * rand.nextGaussian()) - 1;
-                double inflation = INFLATION_MEAN + INFLATION_VOL * rand.nextGaussian();
-                double nominalReturn = (1 + realReturn) * (1 + inflation) - 1;
-
-                portfolio *= (1 + nominalReturn);
-
-                if (year > 0) currentSpending *= (1 + inflation);
-
-                double spending = currentSpending;
-                portfolio -= spending;
-
-                sumSpending[year] += spending;
-                simsReachedYear[year]++;
-
-                if (portfolio <= 0) {
-                    survived = false;
-                    break;
-                }
+                sumSpending[year] += withdrawnByChunk[chunk][year];
+                simsReachedYear[year] += reachedByChunk[chunk][year];
             }
-            if (survived) successes++;
         }
 
         System.out.println("\n=== Average Nominal Spending Trajectory ===");
@@ -198,5 +192,120 @@ public class RiskBasedGuardrailsWithInflation_withdrawalHistory {
         }
     }
 
+    // ──────────────────────────────────────────────────────────────
+    // Percentile fan: P10 / P50 / P90 per year of balance, spending and real income
+    // ──────────────────────────────────────────────────────────────
+    static final int BALANCE = 0;
+    static final int SPENDING = 1;
+    static final int REAL_INCOME = 2;
+
+    // one sketch per (band, year); memory stays the same however many paths are replayed
+    static final class Bands {
+        final QuantileSketch[][] sketches = new QuantileSketch[3][RETIREMENT_YEARS];
+
+        Bands() {
+            for (QuantileSketch[] band : sketches) {
+                for (int year = 0; year < RETIREMENT_YEARS; year++) {
+                    band[year] = new QuantileSketch();
+                }
+            }
+        }
+
+        Bands merge(Bands other) {
+            for (int band = 0; band < sketches.length; band++) {
+                for (int year = 0; year < RETIREMENT_YEARS; year++) {
+                    sketches[band][year].merge(other.sketches[band][year]);
+                }
+            }
+            return this;
+        }
+    }
+
+    // A depleted path counts as zero balance and zero income from the year after it fails. Real income is the
+    // withdrawal in today's dollars, deflated by the path's own inflation the way the spending rule inflates it.
+    static void printPercentileBands(double startPortfolio, double initialRealSpending) {
+        double[][] series = scenarioBank().allSeries();
+        double[] inflation = series[INFLATION];
+
+        // chunk sketches merged in a fixed order: the bands do not depend on the number of threads
+        Bands bands = ENGINE.reduce(NUM_SIMULATIONS, (from, to) -> {
+            Bands chunk = new Bands();
+            double[] priceIndex = new double[to - from];
+            Arrays.fill(priceIndex, 1.0);
+            KERNEL.observeSurvivors(series, NUM_SIMULATIONS, 0, RETIREMENT_YEARS, from, to,
+                    startPortfolio, initialRealSpending, 1.0, (year, ids, balances, withdrawals, live) -> {
+                        QuantileSketch balance = chunk.sketches[BALANCE][year];
+                        QuantileSketch spending = chunk.sketches[SPENDING][year];
+                        QuantileSketch realIncome = chunk.sketches[REAL_INCOME][year];
+                        for (int k = 0; k < live; k++) {
+                            int path = ids[k] - from;
+                            if (year > 0) {
+                                priceIndex[path] *= 1 + inflation[year * NUM_SIMULATIONS + ids[k]];
+                            }
+                            balance.add(Math.max(0, balances[k]));
+                            spending.add(withdrawals[k]);
+                            realIncome.add(withdrawals[k] / priceIndex[path]);
+                        }
+                        double depleted = to - from - live;
+                        balance.add(0, depleted);
+                        spending.add(0, depleted);
+                        realIncome.add(0, depleted);
+                    });
+            return chunk;
+        }, Bands::merge);
+
+        System.out.println("\n=== Percentile Bands (P10 / P50 / P90) ===");
+        System.out.println("Year |      End Portfolio (nominal $)      |     Spending (nominal $)     |  Real Income (today's $)");
+        for (int y = 0; y < RETIREMENT_YEARS; y++) {
+            System.out.printf("%4d |", y + 1);
+            for (int band = 0; band < 3; band++) {
+                QuantileSketch sketch = bands.sketches[band][y];
+                System.out.printf(band == BALANCE ? " %11.0f %11.0f %11.0f |" : band == SPENDING ? " %8.0f %8.0f %8.0f |" : " %8.0f %8.0f %8.0f",
+                        sketch.quantile(0.10), sketch.quantile(0.50), sketch.quantile(0.90));
+            }
+            System.out.println();
+        }
+    }
+
+    // ──────────────────────────────────────────────────────────────
+    // Export: all paths, all years, one column per field (read back with TrajectoryFile.open)
+    // ──────────────────────────────────────────────────────────────
+    // A separate replay with the kernel's year observer; the solves above run without one. The bank is already
+    // year-major, so inflation and returns are bulk copies. A path's balance is <= 0 in the year it fails and
+    // it has zero balance and withdrawal after that.
+    static void exportTrajectories(Path file, double startPortfolio, double initialRealSpending) {
+        ScenarioBank bank = scenarioBank();
+        double[][] series = bank.allSeries();
+        Map<String, Double> parameters = new LinkedHashMap<>();
+        parameters.put("seed", (double) SEED);
+        parameters.put("startPortfolio", startPortfolio);
+        parameters.put("initialRealSpending", initialRealSpending);
+        parameters.put("realMeanReturn", REAL_MEAN_RETURN);
+        parameters.put("realVolatility", REAL_VOLATILITY);
+        parameters.put("inflationMean", INFLATION_MEAN);
+        parameters.put("inflationVol", INFLATION_VOL);
+
+        long start = System.nanoTime();
+        try (TrajectoryFile out = TrajectoryFile.create(file, NUM_SIMULATIONS, RETIREMENT_YEARS,
+                List.of("balance", "withdrawal", "inflation", "realReturn"), parameters)) {
+            out.column("inflation").put(0, series[INFLATION]);
+            out.column("realReturn").put(0, series[REAL_RETURNS]);
+            DoubleBuffer balance = out.column("balance");
+            DoubleBuffer withdrawal = out.column("withdrawal");
+            ENGINE.sum(NUM_SIMULATIONS, (from, to) -> KERNEL.observeSurvivors(series, NUM_SIMULATIONS, 0, RETIREMENT_YEARS,
+                    from, to, startPortfolio, initialRealSpending, 1.0, (year, ids, balances, withdrawals, live) -> {
+                        int row = year * NUM_SIMULATIONS;
+                        for (int k = 0; k < live; k++) {
+                            balance.put(row + ids[k], balances[k]);
+                            withdrawal.put(row + ids[k], withdrawals[k]);
+                        }
+                    }));
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot write " + file, e);
+        }
+        System.out.printf("\nExported %,d paths x %d years to %s (%d ms)\n", NUM_SIMULATIONS, RETIREMENT_YEARS,
+                file, (System.nanoTime() - start) / 1_000_000);
+    }
+
     // (insert the original calculatePoS, findRealSpendingForPoS, findPortfolioForPoS methods here)
 }
\ No newline at end of file
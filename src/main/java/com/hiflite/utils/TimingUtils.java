@@ -2,11 +2,78 @@ package com.hiflite.utils;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
 import org.apache.commons.lang3.time.DurationFormatUtils;
 
+/**
+ * Wall-clock timers for a driver, plus run-wide metrics for finding where the time goes.
+ * <p>
+ * The metrics are static and off unless {@code -Dhiflite.metrics=true}. {@link #ENABLED} is a constant, so
+ * when it is false the JIT drops every {@link #count} and {@link #phase} call, and the hot paths pay nothing.
+ * When it is true:
+ * <ul>
+ *   <li>{@link #phase} times a named phase (scenario bank, kernel replay, solve, ...) and adds it to that
+ *       phase's totals. Phases may nest and may run on several threads at once, so their totals are summed
+ *       durations, not shares of the wall clock;</li>
+ *   <li>{@link #count} adds to a {@link Counter}: paths simulated, RNG draws, solver iterations;</li>
+ *   <li>both show up in a JDK Flight Recorder recording ({@code -XX:StartFlightRecording}) as
+ *       {@code com.hiflite.Phase} events and a periodic {@code com.hiflite.Counters} event;</li>
+ *   <li>{@link #printSummary} prints a table of phases, counters and paths/second at the end of a run.</li>
+ * </ul>
+ */
 public class TimingUtils {
 
+    /** {@code -Dhiflite.metrics=true} turns the phase timers and counters on. */
+    public static final boolean ENABLED = Boolean.getBoolean("hiflite.metrics");
+
+    /** What the hot paths count. */
+    public enum Counter {
+        PATHS_SIMULATED("paths simulated"),
+        RNG_DRAWS("RNG draws"),
+        SOLVER_ITERATIONS("solver iterations");
+
+        private final String label;
+
+        Counter(String label) {
+            this.label = label;
+        }
+    }
+
+    /** The kernel replay phase, whose time paths/second is measured against. */
+    public static final String KERNEL_PHASE = "kernel replay";
+
+    private static final LongAdder[] COUNTERS = new LongAdder[Counter.values().length];
+    private static final Map<String, PhaseTotals> PHASES = new ConcurrentHashMap<>();
+    private static final long METRICS_START = System.nanoTime();
+    private static final Phase NOT_TIMED = new Phase(null);
+
+    static {
+        for (int i = 0; i < COUNTERS.length; i++) {
+            COUNTERS[i] = new LongAdder();
+        }
+        if (ENABLED) {
+            FlightRecorder.addPeriodicEvent(CountersEvent.class, () -> {
+                CountersEvent event = new CountersEvent();
+                event.pathsSimulated = COUNTERS[Counter.PATHS_SIMULATED.ordinal()].sum();
+                event.rngDraws = COUNTERS[Counter.RNG_DRAWS.ordinal()].sum();
+                event.solverIterations = COUNTERS[Counter.SOLVER_ITERATIONS.ordinal()].sum();
+                event.commit();
+            });
+        }
+    }
+
     private Instant instantStart = Instant.now();
     private Instant instantStop = Instant.now();
     private Duration duration = Duration.between(instantStart, instantStop);
@@ -37,13 +104,117 @@ public class TimingUtils {
     public void reportElapsedTime() {
         Duration duration = getTimeElapsed();
 
-        System.out.printf("time elapsed : %02d:%02d:%02d.%03d%n", duration.toHoursPart(),  duration.toMinutesPart(), duration.toSecondsPart(), duration.toNanosPart());
+        System.out.printf("time elapsed : %02d:%02d:%02d.%03d%n", duration.toHoursPart(),  duration.toMinutesPart(), duration.toSecondsPart(), duration.toMillisPart());
     }
 
     public void reportTotalElapsedTime() {
         Duration duration = getTotalTimeElapsed();
 
-        System.out.printf("total time : %02d:%02d:%02d.%03d%n", duration.toHoursPart(),  duration.toMinutesPart(), duration.toSecondsPart(), duration.toNanosPart());
+        System.out.printf("total time : %02d:%02d:%02d.%03d%n", duration.toHoursPart(),  duration.toMinutesPart(), duration.toSecondsPart(), duration.toMillisPart());
+    }
+
+    /** Adds {@code amount} to {@code counter}; free when metrics are off. */
+    public static void count(Counter counter, long amount) {
+        if (ENABLED) {
+            COUNTERS[counter.ordinal()].add(amount);
+        }
+    }
+
+    public static long get(Counter counter) {
+        return COUNTERS[counter.ordinal()].sum();
+    }
+
+    /** Times {@code name} until the returned phase is closed: {@code try (var _ = TimingUtils.phase("solve")) {...}}. */
+    public static Phase phase(String name) {
+        return ENABLED ? new Phase(name) : NOT_TIMED;
+    }
+
+    /** Phases, counters and throughput so far; prints nothing when metrics are off. */
+    public static void printSummary() {
+        if (!ENABLED) {
+            return;
+        }
+        double wallSeconds = (System.nanoTime() - METRICS_START) / 1e9;
+        System.out.printf("%n=== Metrics (%.2f s since start) ===%n", wallSeconds);
+        System.out.printf("%-22s %8s %12s %10s%n", "phase", "calls", "total ms", "mean ms");
+        for (Map.Entry<String, PhaseTotals> entry : new TreeMap<>(PHASES).entrySet()) {
+            long calls = entry.getValue().calls.sum();
+            double totalMillis = entry.getValue().nanos.sum() / 1e6;
+            System.out.printf("%-22s %,8d %,12.1f %,10.2f%n", entry.getKey(), calls, totalMillis, totalMillis / calls);
+        }
+        for (Counter counter : Counter.values()) {
+            System.out.printf("%-22s %,21d%n", counter.label, get(counter));
+        }
+        PhaseTotals kernel = PHASES.get(KERNEL_PHASE);
+        double kernelSeconds = kernel == null ? 0 : kernel.nanos.sum() / 1e9;
+        double seconds = kernelSeconds > 0 ? kernelSeconds : wallSeconds;
+        System.out.printf("%-22s %,21.0f  (over %s time)%n", "paths / second", get(Counter.PATHS_SIMULATED) / seconds,
+                kernelSeconds > 0 ? KERNEL_PHASE : "wall");
+    }
+
+    /** A running phase; closing it records the duration and, when recording, a JFR event. */
+    public static final class Phase implements AutoCloseable {
+        private final String name;
+        private final long start;
+        private final PhaseEvent event;
+
+        private Phase(String name) {
+            this.name = name;
+            if (name == null) {
+                start = 0;
+                event = null;
+            } else {
+                start = System.nanoTime();
+                event = new PhaseEvent();
+                event.begin();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (name == null) {
+                return;
+            }
+            PhaseTotals totals = PHASES.computeIfAbsent(name, n -> new PhaseTotals());
+            totals.calls.increment();
+            totals.nanos.add(System.nanoTime() - start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = name;
+                event.commit();
+            }
+        }
     }
 
+    private static final class PhaseTotals {
+        final LongAdder calls = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+    }
+
+    @Name("com.hiflite.Phase")
+    @Label("Phase")
+    @Category("HiFlite")
+    @Description("A timed phase of a model run")
+    @StackTrace(false)
+    static final class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+    }
+
+    @Name("com.hiflite.Counters")
+    @Label("Counters")
+    @Category("HiFlite")
+    @Description("Running totals of the hot-path counters")
+    @Period("1 s")
+    @StackTrace(false)
+    static final class CountersEvent extends Event {
+        @Label("Paths Simulated")
+        long pathsSimulated;
+
+        @Label("RNG Draws")
+        long rngDraws;
+
+        @Label("Solver Iterations")
+        long solverIterations;
+    }
 }
@@ -0,0 +1,96 @@
+package com.hiflite.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AllocationTest {
+
+    private static final int YEARS = 20;
+    private static final int PATHS = 64;
+
+    // series 0 is left for the portfolio, 1..3 hold the assets' returns, year-major
+    private static double[][] returns(long seed) {
+        SplittableRandom rng = new SplittableRandom(seed);
+        double[][] series = new double[4][YEARS * PATHS];
+        double[] means = {0, 0.05, 0.015, 0.003};
+        double[] vols = {0, 0.17, 0.07, 0.01};
+        for (int s = 1; s < 4; s++) {
+            for (int cell = 0; cell < YEARS * PATHS; cell++) {
+                series[s][cell] = means[s] + vols[s] * rng.nextGaussian();
+            }
+        }
+        return series;
+    }
+
+    // the portfolio series for every path, a year at a time as ScenarioBank fills it
+    private static double[] portfolioReturns(Allocation allocation, double[][] series) {
+        double[] holdings = allocation.startingWeights(PATHS);
+        double[] portfolio = new double[YEARS * PATHS];
+        for (int year = 0; year < YEARS; year++) {
+            allocation.portfolioReturns(series, year * PATHS, PATHS, holdings, portfolio);
+        }
+        return portfolio;
+    }
+
+    @Test
+    void annualRebalancingIsTheWeightedReturn() {
+        double[][] series = returns(1);
+        double[] weights = {0.6, 0.3, 0.1};
+        double[] portfolio = portfolioReturns(Allocation.of(new int[] {1, 2, 3}, weights), series);
+        for (int cell = 0; cell < YEARS * PATHS; cell++) {
+            double expected = weights[0] * series[1][cell] + weights[1] * series[2][cell] + weights[2] * series[3][cell];
+            assertEquals(expected, portfolio[cell], 1e-15);
+        }
+    }
+
+    @Test
+    void neverRebalancedCompoundsAsBuyAndHold() {
+        double[][] series = returns(2);
+        double[] weights = {0.6, 0.3, 0.1};
+        Allocation allocation = Allocation.of(new int[] {1, 2, 3}, weights).withRebalancing(Allocation.Rebalancing.NEVER);
+        double[] portfolio = portfolioReturns(allocation, series);
+        for (int path = 0; path < PATHS; path++) {
+            double compounded = 1;
+            double[] held = weights.clone();
+            for (int year = 0; year < YEARS; year++) {
+                int cell = year * PATHS + path;
+                compounded *= 1 + portfolio[cell];
+                for (int a = 0; a < 3; a++) {
+                    held[a] *= 1 + series[a + 1][cell];
+                }
+            }
+            assertEquals(held[0] + held[1] + held[2], compounded, 1e-12, "path " + path);
+        }
+    }
+
+    @Test
+    void bandRebalancesOnlyOnceAWeightDriftsOutside() {
+        // stocks +20% a year, bonds and cash flat: 60/40 drifts to 64/36 after one year, 68/32 after two
+        double[][] series = new double[3][2];
+        series[1][0] = 0.2;
+        series[1][1] = 0.2;
+        Allocation allocation = Allocation.of(new int[] {1, 2}, new double[] {0.6, 0.4}).withBand(0.05);
+        double[] holdings = allocation.startingWeights(1);
+        double[] portfolio = new double[2];
+        allocation.portfolioReturns(series, 0, 1, holdings, portfolio);
+        assertEquals(0.72 / 1.12, holdings[0], 1e-15, "inside the band: left to drift");
+        allocation.portfolioReturns(series, 1, 1, holdings, portfolio);
+        assertEquals(0.6, holdings[0], 0.0, "outside the band: back to the target");
+        assertEquals(0.12, portfolio[0], 1e-15);
+        assertEquals(0.2 * 0.72 / 1.12, portfolio[1], 1e-15);
+    }
+
+    @Test
+    void weightsMustBeAFullAllocation() {
+        assertThrows(IllegalArgumentException.class, () -> Allocation.of(new int[] {1, 2}, new double[] {0.6, 0.3}));
+        assertThrows(IllegalArgumentException.class, () -> Allocation.of(new int[] {1, 2}, new double[] {1.2, -0.2}));
+        assertThrows(IllegalArgumentException.class, () -> Allocation.of(new int[] {1, 2}, new double[] {1.0}));
+        Allocation allocation = Allocation.of(new int[] {1}, new double[] {1.0});
+        assertThrows(IllegalArgumentException.class, () -> allocation.withBand(0));
+        assertThrows(IllegalArgumentException.class, () -> allocation.withRebalancing(Allocation.Rebalancing.BAND));
+    }
+}
@@ -0,0 +1,126 @@
+package com.hiflite.engine;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Distribution check of {@link GaussianSampler} against {@code RandomGenerator.nextGaussian()}: moments, tail
+ * frequencies and a two-sample Kolmogorov-Smirnov test. Bounds are five standard errors, so a fixed seed that
+ * passes keeps passing and a biased sampler does not.
+ */
+class GaussianSamplerTest {
+
+    private static final int DRAWS = 1_000_000;
+    private static final long SEED = 42;
+
+    private static double[] zig;
+    private static double[] reference;
+
+    @BeforeAll
+    static void draw() {
+        RandomGenerator rng = RandomGeneratorFactory.of(MonteCarloEngine.ALGORITHM).create(SEED);
+        zig = new double[DRAWS];
+        reference = new double[DRAWS];
+        GaussianSampler.fill(rng, zig, 0, DRAWS);
+        for (int i = 0; i < DRAWS; i++) {
+            reference[i] = rng.nextGaussian();
+        }
+    }
+
+    @Test
+    void momentsAreStandardNormal() {
+        double[] m = moments(zig);
+        assertEquals(0, m[0], 5 * Math.sqrt(1.0 / DRAWS), "mean");
+        assertEquals(1, m[1], 5 * Math.sqrt(2.0 / DRAWS), "variance");
+        assertEquals(0, m[2], 5 * Math.sqrt(6.0 / DRAWS), "skewness");
+        assertEquals(0, m[3], 5 * Math.sqrt(24.0 / DRAWS), "excess kurtosis");
+    }
+
+    @Test
+    void tailsHaveNormalFrequencies() {
+        for (double k : new double[] {1, 2, 3, 4}) {
+            double expected = 2 * upperTail(k);
+            double standardError = Math.sqrt(expected * (1 - expected) / DRAWS);
+            assertEquals(expected, tailFraction(zig, k), 5 * standardError, "P(|z| > " + k + ")");
+        }
+    }
+
+    @Test
+    void matchesNextGaussianByKolmogorovSmirnov() {
+        double[] a = zig.clone();
+        double[] b = reference.clone();
+        Arrays.sort(a);
+        Arrays.sort(b);
+        // 1% critical value of the two-sample test with equal sample sizes
+        double critical = 1.628 * Math.sqrt(2.0 / DRAWS);
+        double d = ksStatistic(a, b);
+        assertTrue(d < critical, "KS D = " + d + ", critical " + critical);
+    }
+
+    @Test
+    void nextFollowsTheSameDistribution() {
+        RandomGenerator rng = RandomGeneratorFactory.of(MonteCarloEngine.ALGORITHM).create(SEED + 1);
+        int n = 200_000;
+        double[] single = new double[n];
+        for (int i = 0; i < n; i++) {
+            single[i] = GaussianSampler.next(rng);
+        }
+        double[] m = moments(single);
+        assertEquals(0, m[0], 5 * Math.sqrt(1.0 / n), "mean");
+        assertEquals(1, m[1], 5 * Math.sqrt(2.0 / n), "variance");
+    }
+
+    private static double[] moments(double[] x) {
+        double mean = 0;
+        for (double v : x) mean += v;
+        mean /= x.length;
+        double m2 = 0, m3 = 0, m4 = 0;
+        for (double v : x) {
+            double d = v - mean;
+            double d2 = d * d;
+            m2 += d2;
+            m3 += d2 * d;
+            m4 += d2 * d2;
+        }
+        m2 /= x.length;
+        m3 /= x.length;
+        m4 /= x.length;
+        return new double[] {mean, m2, m3 / Math.pow(m2, 1.5), m4 / (m2 * m2) - 3};
+    }
+
+    private static double tailFraction(double[] x, double k) {
+        long count = 0;
+        for (double v : x) {
+            if (Math.abs(v) > k) count++;
+        }
+        return (double) count / x.length;
+    }
+
+    // P(Z > k), midpoint rule over the density out to k + 12
+    private static double upperTail(double k) {
+        double step = 1e-4;
+        double sum = 0;
+        for (double x = k + step / 2; x < k + 12; x += step) {
+            sum += Math.exp(-0.5 * x * x);
+        }
+        return sum * step / Math.sqrt(2 * Math.PI);
+    }
+
+    private static double ksStatistic(double[] a, double[] b) {
+        int i = 0, j = 0;
+        double d = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] <= b[j]) i++;
+            else j++;
+            d = Math.max(d, Math.abs((double) i / a.length - (double) j / b.length));
+        }
+        return d;
+    }
+}
@@ -0,0 +1,79 @@
+package com.hiflite.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PosCurveTest {
+
+    private static PosCurve curve(int paths, long seed) {
+        SplittableRandom rng = new SplittableRandom(seed);
+        double[] ratios = new double[paths];
+        for (int i = 0; i < paths; i++) {
+            ratios[i] = 0.02 + 0.05 * rng.nextDouble();
+        }
+        return PosCurve.fromCriticalRatios(ratios);
+    }
+
+    @Test
+    void posCountsRatiosStrictlyAboveSpendingRate() {
+        PosCurve curve = PosCurve.fromCriticalRatios(new double[] {0.05, 0.03, 0.04, 0.04});
+        assertEquals(1.0, curve.pos(1_000_000, 29_999), 0.0);
+        assertEquals(0.75, curve.pos(1_000_000, 30_000), 0.0);
+        assertEquals(0.25, curve.pos(1_000_000, 40_000), 0.0);
+        assertEquals(0.0, curve.pos(1_000_000, 50_000), 0.0);
+    }
+
+    @Test
+    void spendingForPoSLandsStrictlyAboveTheTarget() {
+        PosCurve curve = curve(10_000, 5);
+        for (double portfolio : new double[] {250_000, 1_000_000, 1_500_000, 3_333_333.33}) {
+            for (double target : new double[] {0.50, 0.80, 0.85, 0.95}) {
+                double spending = curve.spendingForPoS(portfolio, target);
+                assertTrue(curve.pos(portfolio, spending) > target, portfolio + " at " + target);
+                // and it is the highest such spending: one cent more loses the target
+                assertTrue(curve.pos(portfolio, spending + 0.01) <= target, portfolio + " at " + target);
+            }
+        }
+    }
+
+    @Test
+    void portfolioForPoSIsTheLowestReachingTheTarget() {
+        PosCurve curve = curve(10_000, 6);
+        for (double spending : new double[] {20_000, 57_700, 60_000.01}) {
+            for (double target : new double[] {0.50, 0.80, 0.85, 0.95}) {
+                double portfolio = curve.portfolioForPoS(spending, target);
+                assertTrue(curve.pos(portfolio, spending) >= target, spending + " at " + target);
+                assertTrue(curve.pos(portfolio - 0.01, spending) < target, spending + " at " + target);
+            }
+        }
+    }
+
+    @Test
+    void selectingTheOneRatioAnswersLikeTheSortedCurve() {
+        SplittableRandom rng = new SplittableRandom(8);
+        double[] ratios = new double[5_001];
+        for (int i = 0; i < ratios.length; i++) {
+            // coarse steps, so many paths tie
+            ratios[i] = 0.02 + 0.001 * rng.nextInt(50);
+        }
+        PosCurve curve = PosCurve.fromCriticalRatios(ratios.clone());
+        for (double target : new double[] {0.0, 0.50, 0.85, 0.95, 0.9999}) {
+            assertEquals(curve.spendingForPoS(1_500_000, target),
+                    PosCurve.spendingForPoS(ratios.clone(), 1_500_000, target), 0.0, "spending at " + target);
+            assertEquals(curve.portfolioForPoS(60_000, target),
+                    PosCurve.portfolioForPoS(ratios.clone(), 60_000, target), 0.0, "portfolio at " + target);
+        }
+    }
+
+    @Test
+    void unreachableTargetsHaveNoAnswer() {
+        PosCurve curve = curve(1_000, 7);
+        assertEquals(0, curve.spendingForPoS(1_000_000, 1.0), 0.0);
+        assertEquals(Double.POSITIVE_INFINITY, curve.portfolioForPoS(40_000, 1.01), 0.0);
+        assertEquals(0, curve.portfolioForPoS(40_000, 0.0), 0.0);
+    }
+}
@@ -0,0 +1,84 @@
+package com.hiflite.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuantileSketchTest {
+
+    private static final double[] QUANTILES = {0.01, 0.05, 0.10, 0.25, 0.50, 0.75, 0.90, 0.95, 0.99};
+
+    @Test
+    void tracksExactQuantilesOfASkewedSample() {
+        SplittableRandom rng = new SplittableRandom(1);
+        int n = 200_000;
+        double[] values = new double[n];
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < n; i++) {
+            values[i] = Math.exp(rng.nextDouble() * 4);   // long right tail, like terminal balances
+            sketch.add(values[i]);
+        }
+        Arrays.sort(values);
+        assertEquals(n, sketch.count(), 0.0);
+        for (double q : QUANTILES) {
+            // error in rank, which is what the compression bounds
+            double rank = rankOf(values, sketch.quantile(q)) / n;
+            assertEquals(q, rank, 4 * q * (1 - q) / QuantileSketch.DEFAULT_COMPRESSION + 1e-3, "q = " + q);
+        }
+        assertEquals(values[0], sketch.quantile(0), 0.0);
+        assertEquals(values[n - 1], sketch.quantile(1), 0.0);
+    }
+
+    @Test
+    void mergedChunksMatchOneSketch() {
+        SplittableRandom rng = new SplittableRandom(2);
+        QuantileSketch whole = new QuantileSketch();
+        QuantileSketch merged = new QuantileSketch();
+        for (int chunk = 0; chunk < 20; chunk++) {
+            QuantileSketch part = new QuantileSketch();
+            for (int i = 0; i < 5_000; i++) {
+                double v = rng.nextGaussian();
+                whole.add(v);
+                part.add(v);
+            }
+            merged.merge(part);
+        }
+        assertEquals(whole.count(), merged.count(), 0.0);
+        for (double q : QUANTILES) {
+            assertEquals(whole.quantile(q), merged.quantile(q), 0.02, "q = " + q);
+        }
+    }
+
+    @Test
+    void weightedValuesCountAsCopies() {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.add(0.0, 30_000);   // e.g. failed paths
+        for (int i = 0; i < 70_000; i++) {
+            sketch.add(1 + i / 70_000.0);
+        }
+        assertEquals(100_000, sketch.count(), 0.0);
+        // up to the centre of the weighted centroid the answer is exact; past it the sketch interpolates
+        assertEquals(0.0, sketch.quantile(0.05), 0.0);
+        assertEquals(0.0, sketch.quantile(0.15), 0.0);
+        double median = sketch.quantile(0.5);
+        assertTrue(median > 1.25 && median < 1.35, "median " + median);
+    }
+
+    @Test
+    void emptySketchHasNoQuantiles() {
+        assertTrue(Double.isNaN(new QuantileSketch().quantile(0.5)));
+    }
+
+    // fraction-of-sample rank of x: values below, plus half of the ties
+    private static double rankOf(double[] sorted, double x) {
+        int below = 0;
+        while (below < sorted.length && sorted[below] < x) below++;
+        int ties = below;
+        while (ties < sorted.length && sorted[ties] == x) ties++;
+        return below + (ties - below) / 2.0;
+    }
+}
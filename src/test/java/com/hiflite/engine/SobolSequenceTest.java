@@ -0,0 +1,94 @@
+package com.hiflite.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SobolSequenceTest {
+
+    @Test
+    void firstDimensionIsVanDerCorput() {
+        SobolSequence sobol = new SobolSequence(1, null);
+        int[] state = new int[1];
+        for (int n = 0; n < 4096; n++) {
+            sobol.seek(n, state);
+            // points come in Gray-code order: the radical inverse of n ^ (n >> 1)
+            assertEquals(Integer.reverse(n ^ (n >>> 1)), state[0], "point " + n);
+        }
+    }
+
+    @Test
+    void seekAgreesWithNext() {
+        SobolSequence sobol = new SobolSequence(12, new SplittableRandom(7));
+        int[] stepped = new int[12];
+        int[] sought = new int[12];
+        sobol.seek(1000, stepped);
+        for (long n = 1000; n < 3000; n++) {
+            sobol.seek(n, sought);
+            assertArrayEquals(sought, stepped, "point " + n);
+            sobol.next(n, stepped);
+        }
+    }
+
+    @Test
+    void everyScrambledDimensionIsStratified() {
+        int dimensions = 16;
+        int m = 10;
+        SobolSequence sobol = new SobolSequence(dimensions, new SplittableRandom(11));
+        int[] state = new int[dimensions];
+        int[][] hits = new int[dimensions][1 << m];
+        sobol.seek(0, state);
+        for (long n = 0; n < 1 << m; n++) {
+            for (int d = 0; d < dimensions; d++) {
+                hits[d][(int) (SobolSequence.uniform(state[d]) * (1 << m))]++;
+            }
+            sobol.next(n, state);
+        }
+        // a (0, m, 1)-net in every coordinate: each interval of width 2^-m holds exactly one of the first 2^m points
+        for (int d = 0; d < dimensions; d++) {
+            for (int cell = 0; cell < 1 << m; cell++) {
+                assertEquals(1, hits[d][cell], "dimension " + d + ", cell " + cell);
+            }
+        }
+    }
+
+    @Test
+    void pairsOfDimensionsFillTheSquareEvenly() {
+        int dimensions = 8;
+        int m = 12;
+        SobolSequence sobol = new SobolSequence(dimensions, new SplittableRandom(3));
+        int[] state = new int[dimensions];
+        int side = 8;
+        sobol.seek(0, state);
+        int[][][] hits = new int[dimensions][side][side];
+        for (long n = 0; n < 1 << m; n++) {
+            for (int d = 1; d < dimensions; d++) {
+                int x = (int) (SobolSequence.uniform(state[0]) * side);
+                int y = (int) (SobolSequence.uniform(state[d]) * side);
+                hits[d][x][y]++;
+            }
+            sobol.next(n, state);
+        }
+        double expected = (double) (1 << m) / (side * side);
+        for (int d = 1; d < dimensions; d++) {
+            for (int x = 0; x < side; x++) {
+                for (int y = 0; y < side; y++) {
+                    // far tighter than the Poisson spread of pseudo-random points (sd = 8 here)
+                    assertTrue(Math.abs(hits[d][x][y] - expected) <= 8,
+                            "dimensions 0 and " + d + ", cell (" + x + ", " + y + "): " + hits[d][x][y]);
+                }
+            }
+        }
+    }
+
+    @Test
+    void uniformStaysInsideTheOpenInterval() {
+        assertTrue(SobolSequence.uniform(0) > 0);
+        assertTrue(SobolSequence.uniform(-1) < 1);
+        assertEquals(0.5, SobolSequence.uniform(Integer.MIN_VALUE), 0x1p-32);
+    }
+}
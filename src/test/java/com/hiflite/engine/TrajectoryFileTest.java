@@ -0,0 +1,53 @@
+package com.hiflite.engine;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TrajectoryFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void closedFileReadsBackWhatWasWritten() throws IOException {
+        Path file = dir.resolve("paths.traj");
+        try (TrajectoryFile out = TrajectoryFile.create(file, 3, 2, List.of("balance", "spending"),
+                Map.of("rate", 0.04))) {
+            DoubleBuffer balance = out.column("balance");
+            for (int cell = 0; cell < 6; cell++) {
+                balance.put(cell, 1_000_000 + cell);
+            }
+            out.column("spending").put(1 * 3 + 2, 40_000);
+        }
+        try (TrajectoryFile in = TrajectoryFile.open(file)) {
+            assertEquals(3, in.getPaths());
+            assertEquals(2, in.getYears());
+            assertEquals(List.of("balance", "spending"), in.getColumnNames());
+            assertEquals(Map.of("rate", 0.04), in.getParameters());
+            assertEquals(1_000_004, in.value("balance", 1, 1), 0.0);
+            assertEquals(40_000, in.value("spending", 1, 2), 0.0);
+            assertEquals(0, in.value("spending", 0, 2), 0.0);
+        }
+    }
+
+    @Test
+    void fileDoesNotOpenUntilItsWriterCloses() throws IOException {
+        Path file = dir.resolve("partial.traj");
+        try (TrajectoryFile out = TrajectoryFile.create(file, 4, 3, List.of("balance"), Map.of())) {
+            out.column("balance").put(0, 1.0);
+            assertThrows(IllegalArgumentException.class, () -> TrajectoryFile.open(file));
+        }
+        try (TrajectoryFile in = TrajectoryFile.open(file)) {
+            assertEquals(1.0, in.value("balance", 0, 0), 0.0);
+        }
+    }
+}